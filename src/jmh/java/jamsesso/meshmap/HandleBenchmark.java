@@ -0,0 +1,85 @@
+package jamsesso.meshmap;
+ 
+import java.util.concurrent.TimeUnit;
+ 
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+ 
+/**
+* Measures how a node answers requests for keys it owns, from the decoded message to the response, without the network.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandleBenchmark
+{
+    protected static final int KEYS = 1024;
+   
+    protected MeshMapImpl<String, String> map;
+   
+    protected Message[] gets;
+   
+    protected Message[] puts;
+   
+    protected Message[] containsKeys;
+   
+    protected int index;
+   
+    
+    @Setup
+    public void setUp()
+    {
+        StaticMeshMapCluster cluster = new StaticMeshMapCluster(1);
+        map = new MeshMapImpl<>(cluster, new MeshMapServer(cluster, cluster.getSelf()), cluster.getSelf());
+        gets = new Message[KEYS];
+        puts = new Message[KEYS];
+        containsKeys = new Message[KEYS];
+       
+        for (int i = 0; i < KEYS; i++)
+        {
+            String key = "key-" + i;
+            gets[i] = new Message(MeshMap.TYPE_GET, key);
+            puts[i] = new Message(MeshMap.TYPE_PUT, new MeshMapImpl.Entry(key, "value-" + i));
+            containsKeys[i] = new Message(MeshMap.TYPE_CONTAINS_KEY, key);
+            map.handle(puts[i]);
+        }
+    }
+   
+    
+    @Benchmark
+    public Message get()
+    {
+        return map.handle(gets[next()]);
+    }
+   
+    
+    @Benchmark
+    public Message put()
+    {
+        return map.handle(puts[next()]);
+    }
+   
+    
+    @Benchmark
+    public Message containsKey()
+    {
+        return map.handle(containsKeys[next()]);
+    }
+   
+    
+    protected int next()
+    {
+        return index = (index + 1) & (KEYS - 1);
+    }
+}
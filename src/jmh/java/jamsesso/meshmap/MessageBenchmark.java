@@ -0,0 +1,84 @@
+package jamsesso.meshmap;
+ 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+ 
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+ 
+/**
+* Measures framing a message onto a stream and reading it back, with and without payload compression.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark
+{
+    @Param({"64", "1024", "65536"})
+    public int payloadSize;
+   
+    @Param({"false", "true"})
+    public boolean compressed;
+   
+    protected Compression compression;
+   
+    protected Message message;
+   
+    protected byte[] frame;
+   
+    protected ByteArrayOutputStream out;
+   
+    
+    @Setup
+    public void setUp()
+    throws IOException
+    {
+        compression = compressed ? new Compression(true, 0) : Compression.NONE;
+       
+        // Repeats a few UUIDs, which is about as compressible as a serialized object graph.
+        StringBuilder text = new StringBuilder(payloadSize);
+        String[] words = { UUID.randomUUID().toString(), UUID.randomUUID().toString(), UUID.randomUUID().toString() };
+        for (int i = 0; text.length() < payloadSize; i++)
+        {
+            text.append(words[i % words.length]);
+        }
+        message = new Message(MeshMap.TYPE_PUT, text.substring(0, payloadSize).getBytes());
+       
+        out = new ByteArrayOutputStream(payloadSize * 2 + 64);
+        message.write(out, compression, compressed);
+        frame = out.toByteArray();
+    }
+   
+    
+    @Benchmark
+    public byte[] write()
+    throws IOException
+    {
+        out.reset();
+        message.write(out, compression, compressed);
+        return out.toByteArray();
+    }
+   
+    
+    @Benchmark
+    public Message read()
+    throws IOException
+    {
+        return Message.read(new ByteArrayInputStream(frame), compression);
+    }
+}
@@ -0,0 +1,86 @@
+package jamsesso.meshmap;
+ 
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+ 
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+ 
+/**
+* Measures finding the node that owns a key, directly on the ring and through {@link CachedMeshMapCluster}, which
+* every map operation goes through. The cached variants run with several threads to show contention on its lock.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark
+{
+    protected static final int KEYS = 4096;
+   
+    @Param({"3", "10", "100", "1000"})
+    public int nodes;
+   
+    protected StaticMeshMapCluster cluster;
+   
+    protected CachedMeshMapCluster cached;
+   
+    protected String[] keys;
+   
+    
+    @Setup
+    public void setUp()
+    {
+        cluster = new StaticMeshMapCluster(nodes);
+        cached = new CachedMeshMapCluster(cluster);
+        keys = new String[KEYS];
+       
+        for (int i = 0; i < KEYS; i++)
+        {
+            keys[i] = UUID.randomUUID().toString();
+            cached.getNodeForKey(keys[i]);
+        }
+    }
+   
+    
+    @Benchmark
+    public Node ring()
+    {
+        return cluster.getNodeForKey(nextKey());
+    }
+   
+    
+    @Benchmark
+    @Threads(1)
+    public Node cachedUncontended()
+    {
+        return cached.getNodeForKey(nextKey());
+    }
+   
+    
+    @Benchmark
+    @Threads(8)
+    public Node cachedContended()
+    {
+        return cached.getNodeForKey(nextKey());
+    }
+   
+    
+    protected String nextKey()
+    {
+        return keys[ThreadLocalRandom.current().nextInt(KEYS)];
+    }
+}
@@ -0,0 +1,83 @@
+package jamsesso.meshmap;
+ 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+ 
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+ 
+/**
+* Measures the Java serialization every key, value and entry goes through on its way to another node.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark
+{
+    @Param({"string", "integer", "map", "entry"})
+    public String kind;
+   
+    protected Object object;
+   
+    protected byte[] bytes;
+   
+    
+    @Setup
+    public void setUp()
+    {
+        switch (kind)
+        {
+            case "string":
+                object = UUID.randomUUID().toString();
+                break;
+            case "integer":
+                object = Integer.valueOf(123456789);
+                break;
+            case "map":
+            {
+                Map<String, Object> value = new HashMap<>();
+                value.put("name", "Jane Doe");
+                value.put("city", "Toronto");
+                value.put("age", 42);
+                value.put("id", UUID.randomUUID().toString());
+                object = value;
+                break;
+            }
+            case "entry":
+                object = new MeshMapImpl.Entry(UUID.randomUUID().toString(), "value");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown kind: " + kind);
+        }
+       
+        bytes = Message.toBytes(object);
+    }
+   
+    
+    @Benchmark
+    public byte[] toBytes()
+    {
+        return Message.toBytes(object);
+    }
+   
+    
+    @Benchmark
+    public Object fromBytes()
+    {
+        return Message.fromBytes(bytes);
+    }
+}
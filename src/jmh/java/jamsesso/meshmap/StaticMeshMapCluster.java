@@ -0,0 +1,64 @@
+package jamsesso.meshmap;
+ 
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+ 
+/**
+* A cluster with a fixed ring of nodes that are never contacted, so benchmarks can route keys without sockets or a
+* shared directory.
+*/
+public class StaticMeshMapCluster extends AbstractMeshMapCluster
+{
+    protected final List<Node> nodes;
+   
+    
+    public StaticMeshMapCluster(int size)
+    {
+        this(ring(size));
+    }
+   
+    
+    protected StaticMeshMapCluster(List<Node> nodes)
+    {
+        super(nodes.get(0));
+        this.nodes = nodes;
+    }
+   
+    
+    @Override
+    public List<Node> getAllNodes()
+    {
+        return nodes;
+    }
+   
+    
+    @Override
+    public <T> T register(Node node)
+    {
+        return null;
+    }
+   
+    
+    @Override
+    public <T> T unregister(Node node)
+    {
+        return null;
+    }
+   
+    
+    protected static List<Node> ring(int size)
+    {
+        List<Node> nodes = new ArrayList<>(size);
+       
+        for (int i = 0; i < size; i++)
+        {
+            nodes.add(new Node(new InetSocketAddress("127.0.0.1", 20000 + i)));
+        }
+       
+        nodes.sort(Comparator.comparingInt(Node::getId));
+        return Collections.unmodifiableList(nodes);
+    }
+}
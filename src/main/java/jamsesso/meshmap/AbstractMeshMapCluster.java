@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
  
 public abstract class AbstractMeshMapCluster implements MeshMapCluster, AutoCloseable
 {
@@ -23,8 +25,15 @@ public abstract class AbstractMeshMapCluster implements MeshMapCluster, AutoClos
    
     protected final Node self;
    
+    protected final MeshMapConfig config = new MeshMapConfig();
+   
     protected MeshMapServer server;
    
+    protected final List<MembershipListener> membershipListeners = new CopyOnWriteArrayList<>();
+   
+    // Zero is reserved for messages sent without an epoch.
+    protected final AtomicLong epoch = new AtomicLong(1L);
+   
     @SuppressWarnings("rawtypes")
     protected MeshMap map;
    
@@ -45,6 +54,12 @@ public abstract class AbstractMeshMapCluster implements MeshMapCluster, AutoClos
         return self;
     }
    
+    
+    public MeshMapConfig getConfig()
+    {
+        return config;
+    }
+   
  
     @Override
     @SuppressWarnings({"cast", "unchecked"})
@@ -58,25 +73,120 @@ public abstract class AbstractMeshMapCluster implements MeshMapCluster, AutoClos
        
         register(self);
        
-        server = new MeshMapServer(this, self);
-        MeshMapImpl<K, V> map = new MeshMapImpl<>(this, server, self);
+        server = new MeshMapServer(this, self, getConfig());
+        MeshMapImpl<K, V> map = new MeshMapImpl<>(this, server, self, getConfig());
         this.map = map;
        
         try
         {
-            server.start(map);
+            server.start(message -> {
+                Message response = handle(message);
+                return response != null ? response : map.handle(message);
+            });
+            discover();
             map.open();
         } catch (IOException e)
         {
             throw new MeshMapException("Unable to start the mesh map server", e);
         }
        
-        server.broadcast(messageHI());
+        announce();
        
         return map;
     }
    
     
+    /**
+     * Handles the messages of the membership protocol of the cluster. Returns {@code null} for any other message, which
+     * is then handled by the map.
+     */
+    protected Message handle(Message message)
+    {
+        return null;
+    }
+   
+    
+    /**
+     * Finds the other members of the cluster once the server is running, before the map takes over its keys.
+     */
+    protected void discover()
+    throws MeshMapException
+    {
+    }
+   
+    
+    /**
+     * Tells the other members of the cluster that this node joined.
+     */
+    protected void announce()
+    {
+        server.broadcast(messageHI());
+    }
+   
+    
+    @Override
+    public void addMembershipListener(MembershipListener listener)
+    {
+        membershipListeners.add(listener);
+    }
+   
+    
+    @Override
+    public void removeMembershipListener(MembershipListener listener)
+    {
+        membershipListeners.remove(listener);
+    }
+   
+    
+    @Override
+    public long getEpoch()
+    {
+        return epoch.get();
+    }
+   
+    
+    @Override
+    public void observeEpoch(long observed)
+    {
+        if (observed <= epoch.get())
+        {
+            return;
+        }
+       
+        refresh();
+        epoch.accumulateAndGet(observed, Math::max);
+    }
+   
+    
+    @Override
+    public void suspect(Node node)
+    {
+        unregister(node);
+    }
+   
+    
+    /**
+     * Catches up with membership changes this node may have missed, because another node has seen a higher epoch.
+     */
+    protected void refresh()
+    {
+    }
+   
+    
+    protected void fireMemberJoined(Node node)
+    {
+        epoch.incrementAndGet();
+        membershipListeners.forEach(listener -> listener.memberJoined(node));
+    }
+   
+    
+    protected void fireMemberLeft(Node node)
+    {
+        epoch.incrementAndGet();
+        membershipListeners.forEach(listener -> listener.memberLeft(node));
+    }
+   
+    
     public Message messageHI()
     {
         return HI;
@@ -0,0 +1,110 @@
+package jamsesso.meshmap;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many requests a node handles or queues at once, adapting the limit to how long requests wait in the
+ * queue.
+ * <p/>
+ * The limit follows additive increase, multiplicative decrease: it grows by one for every limit's worth of requests that
+ * waited less than the target delay, and shrinks by a tenth when one waited longer, at most once per target delay so
+ * that a single burst counts once. Queueing delay is used rather than latency, since it only grows when the node is
+ * overloaded, whatever the requests cost to handle. Requests over the limit are turned away at once instead of
+ * queueing behind work the node cannot keep up with.
+ */
+public class AdaptiveLimiter
+{
+    protected static final double DECREASE_RATIO = 0.9;
+    
+    protected final int minimum;
+    
+    protected final int maximum;
+    
+    protected final long targetNanos;
+    
+    protected double limit;
+    
+    protected int inFlight = 0;
+    
+    protected long decreasedAt = 0L;
+    
+    
+    /**
+     * @param target the queueing delay, in milliseconds, above which the limit shrinks
+     */
+    public AdaptiveLimiter(int initial, int minimum, int maximum, long target)
+    {
+        this.limit = initial;
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(target);
+    }
+    
+    
+    /**
+     * Returns true if a request may be handled now. Every request that is let through must be followed by a call to
+     * {@link #release(long)}, or to {@link #cancel()} if it is not handled after all.
+     */
+    public synchronized boolean tryAcquire()
+    {
+        if (inFlight >= (int) limit)
+        {
+            return false;
+        }
+        
+        inFlight++;
+        return true;
+    }
+    
+    
+    /**
+     * @param queueNanos how long the request waited before it was handled
+     */
+    public synchronized void release(long queueNanos)
+    {
+        inFlight--;
+        
+        if (queueNanos <= targetNanos)
+        {
+            limit = Math.min(maximum, limit + 1.0 / limit);
+            return;
+        }
+        
+        long now = System.nanoTime();
+        
+        if (now - decreasedAt >= targetNanos)
+        {
+            decreasedAt = now;
+            limit = Math.max(minimum, limit * DECREASE_RATIO);
+        }
+    }
+    
+    
+    /**
+     * Gives back the slot of a request that was let through but not handled, without taking it as a sign of how
+     * loaded the node is.
+     */
+    public synchronized void cancel()
+    {
+        inFlight--;
+    }
+    
+    
+    public synchronized int getLimit()
+    {
+        return (int) limit;
+    }
+    
+    
+    public synchronized int getInFlight()
+    {
+        return inFlight;
+    }
+    
+    
+    @java.lang.Override
+    public synchronized String toString()
+    {
+        return "AdaptiveLimiter(Limit=" + (int) limit + ", InFlight=" + inFlight + ", Minimum=" + minimum + ", Maximum=" + maximum + ")";
+    }
+}
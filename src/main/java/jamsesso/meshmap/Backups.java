@@ -0,0 +1,519 @@
+package jamsesso.meshmap;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import jamsesso.meshmap.metrics.Counter;
+import jamsesso.meshmap.metrics.Metrics;
+
+/**
+* Keeps a backup of the local partition of a node on its successor, and holds the backups of its predecessor, so that
+* a node takes over the entries of its predecessor when it dies.
+* <p/>
+* Writes are copied to the successor in the background, a batch at a time. Copies lost on the way, and the ones left
+* behind when the ring changes, are repaired by anti-entropy: both sides keep a {@link MerkleTree} whose leaves cover
+* ranges of key hashes, and each node periodically walks down from the root to the ranges where its tree and the one
+* of its backups differ, then sends only the entries of those ranges that differ. A round where nothing differs costs
+* one message; otherwise the cost grows with the number of differing entries, not with the size of the partition.
+* <p/>
+* Writes only note the key and value. Digests are computed, and the tree is updated, on the backup thread when the
+* writes are copied, so that backups add no serialization and no shared lock to a write.
+* <p/>
+* The backups take no part in reads. A write acknowledged by an owner that dies before copying it is lost, and a
+* removal that was not copied comes back when the backup is taken over.
+*/
+public class Backups implements PartitionListener, MembershipListener, Handler<Message>, AutoCloseable
+{
+    private static final Logger LOG = Logger.getLogger(Backups.class.getName());
+
+    // 1024 leaves, so that each leaf of a partition of a million entries holds about a thousand of them.
+    protected static final int DEPTH = 10;
+
+    protected static final int BATCH_SIZE = 512;
+
+    protected static final int LEAVES_PER_REQUEST = 32;
+
+    protected static final long LINGER = 10L;
+
+    // Stands for a removal among the pending writes, which cannot hold null values.
+    protected static final Object REMOVED = new Object();
+
+    protected final Node self;
+
+    protected final MeshMapCluster cluster;
+
+    protected final MeshMapServer server;
+
+    protected final LocalPartition partition;
+
+    protected final long interval;
+
+    protected final MerkleTree tree = new MerkleTree(DEPTH);
+
+    // The writes of the local partition not copied yet, by key. Only the backup thread updates the tree from them.
+    protected final Map<Object, Object> pending = new ConcurrentHashMap<>();
+
+    protected final Map<Object, Object> backups = new ConcurrentHashMap<>();
+
+    protected final MerkleTree backupTree = new MerkleTree(DEPTH);
+
+    protected final Counter copied;
+
+    protected final Counter failed;
+
+    protected final Counter rounds;
+
+    protected final Counter repaired;
+
+    protected final Counter promoted;
+
+    protected ScheduledExecutorService executor;
+
+
+    /**
+     * @param interval how often, in milliseconds, the partition is compared with its backup
+     */
+    public Backups(Node self, MeshMapCluster cluster, MeshMapServer server, LocalPartition partition, long interval, Metrics metrics)
+    {
+        this.self = self;
+        this.cluster = cluster;
+        this.server = server;
+        this.partition = partition;
+        this.interval = interval;
+        this.copied = metrics.counter("backups.copied");
+        this.failed = metrics.counter("backups.failed");
+        this.promoted = metrics.counter("backups.promoted");
+        this.rounds = metrics.counter("antiEntropy.rounds");
+        this.repaired = metrics.counter("antiEntropy.repaired");
+
+        metrics.gauge("backups.size", backups::size);
+        metrics.gauge("backups.pending", pending::size);
+    }
+
+
+    public synchronized void start()
+    {
+        if (executor != null)
+        {
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MeshMap Backups");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Copies and repairs run on the same thread, so that the successor receives them in order.
+        executor.scheduleWithFixedDelay(this::copy, LINGER, LINGER, TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(this::synchronize, interval, interval, TimeUnit.MILLISECONDS);
+        cluster.addMembershipListener(this);
+    }
+
+
+    @Override
+    public void updated(Object key, Object value)
+    {
+        // Called under the lock of the key in the partition, so it does no more than note the write.
+        pending.put(key, value == null ? REMOVED : value);
+    }
+
+
+    /**
+     * The partition is only cleared along with the whole map, so the backups it holds are cleared too.
+     */
+    @Override
+    public void cleared()
+    {
+        pending.clear();
+        tree.clear();
+
+        synchronized (backups)
+        {
+            backups.clear();
+            backupTree.clear();
+        }
+    }
+
+
+    @Override
+    public void memberJoined(Node node)
+    {
+        // The ranges of the ring changed. Anti-entropy repairs the backups that moved.
+    }
+
+
+    /**
+     * Takes over the backups of the keys that this node owns now that the node left.
+     */
+    @Override
+    public void memberLeft(Node node)
+    {
+        ScheduledExecutorService executor = this.executor;
+
+        if (executor != null && !executor.isShutdown())
+        {
+            executor.execute(this::promote);
+        }
+    }
+
+
+    @Override
+    public Message handle(Message message)
+    {
+        switch (message.getType())
+        {
+            case MeshMap.TYPE_BACKUP:
+            {
+                apply(message.getPayload(Copy[].class));
+                return cluster.messageACK();
+            }
+            case MeshMap.TYPE_MERKLE:
+            {
+                return new Message(MeshMap.TYPE_MERKLE, backupTree.getDigests(message.getPayload(int[].class)));
+            }
+            case MeshMap.TYPE_MERKLE_LEAVES:
+            {
+                HashMap<Object, Long> entries = new HashMap<>();
+
+                for (int leaf : message.getPayload(int[].class))
+                {
+                    entries.putAll(backupTree.getEntries(leaf));
+                }
+
+                return new Message(MeshMap.TYPE_MERKLE_LEAVES, entries);
+            }
+            default:
+            {
+                throw new IllegalArgumentException("Not a backup message: " + message.getType());
+            }
+        }
+    }
+
+
+    protected void apply(Copy[] copies)
+    {
+        synchronized (backups)
+        {
+            for (Copy copy : copies)
+            {
+                if (copy.value == null)
+                {
+                    backups.remove(copy.key);
+                    backupTree.remove(copy.key);
+                } else
+                {
+                    backups.put(copy.key, copy.value);
+                    backupTree.update(copy.key, copy.digest);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Records the writes not copied yet in the tree and sends them to the successor. The ones that cannot be sent are
+     * left to anti-entropy.
+     */
+    protected void copy()
+    {
+        if (pending.isEmpty())
+        {
+            return;
+        }
+
+        // Without a successor there is nowhere to keep a backup; the next one receives everything through anti-entropy.
+        Node successor = cluster.getSuccessorNode();
+        boolean sending = successor != null;
+        List<Copy> batch = new ArrayList<>(BATCH_SIZE);
+
+        for (Object key : pending.keySet())
+        {
+            Object value = pending.remove(key);
+
+            if (value == null)
+            {
+                continue;
+            }
+
+            Copy copy = record(key, value == REMOVED ? null : value);
+
+            if (sending)
+            {
+                batch.add(copy);
+
+                if (batch.size() == BATCH_SIZE)
+                {
+                    sending = send(successor, batch);
+                    batch.clear();
+                }
+            }
+        }
+
+        if (sending && !batch.isEmpty())
+        {
+            send(successor, batch);
+        }
+    }
+
+
+    /**
+     * Brings the tree up to date with the value of the key, {@code null} if it was removed, and returns its copy.
+     */
+    protected Copy record(Object key, Object value)
+    {
+        if (value == null)
+        {
+            tree.remove(key);
+            return new Copy(key, null, 0L);
+        }
+
+        long digest = MerkleTree.digest(key, value);
+        tree.update(key, digest);
+        return new Copy(key, value, digest);
+    }
+
+
+    /**
+     * Compares the partition with its backup on the successor and repairs the entries that differ.
+     */
+    protected void synchronize()
+    {
+        Node successor = cluster.getSuccessorNode();
+
+        if (successor == null)
+        {
+            return;
+        }
+
+        // Pending copies would otherwise show up as differences.
+        copy();
+
+        try
+        {
+            int[] indexes = { MerkleTree.ROOT };
+            int[] leaves = new int[0];
+
+            while (indexes.length > 0)
+            {
+                long[] theirs = request(successor, new Message(MeshMap.TYPE_MERKLE, indexes)).getPayload(long[].class);
+                int[] differing = differing(indexes, tree.getDigests(indexes), theirs);
+
+                if (differing.length == 0 || tree.isLeaf(differing[0]))
+                {
+                    leaves = differing;
+                    break;
+                }
+
+                indexes = children(differing);
+            }
+
+            for (int from = 0; from < leaves.length; from += LEAVES_PER_REQUEST)
+            {
+                repair(successor, Arrays.copyOfRange(leaves, from, Math.min(from + LEAVES_PER_REQUEST, leaves.length)));
+            }
+
+            rounds.increment();
+        } catch (IOException | RuntimeException e)
+        {
+            LOG.log(Level.WARNING, "Unable to compare the partition with its backup on node " + successor, e);
+        }
+    }
+
+
+    protected void repair(Node successor, int[] leaves)
+    throws IOException
+    {
+        @SuppressWarnings("unchecked")
+        Map<Object, Long> theirs = request(successor, new Message(MeshMap.TYPE_MERKLE_LEAVES, leaves)).getPayload(HashMap.class);
+        Set<Object> differing = new HashSet<>();
+
+        for (int leaf : leaves)
+        {
+            for (Map.Entry<Object, Long> entry : tree.getEntries(leaf).entrySet())
+            {
+                if (!entry.getValue().equals(theirs.remove(entry.getKey())))
+                {
+                    differing.add(entry.getKey());
+                }
+            }
+        }
+
+        // What is left is backed up but not in the tree.
+        differing.addAll(theirs.keySet());
+        List<Copy> repairs = new ArrayList<>();
+
+        for (Object key : differing)
+        {
+            // Keys written since the copies were sent differ until their copy is sent too.
+            if (pending.containsKey(key))
+            {
+                continue;
+            }
+
+            // The copy is made of what the partition holds now, which also repairs the tree if it missed a write.
+            repairs.add(record(key, partition.peek(key)));
+        }
+
+        for (int from = 0; from < repairs.size(); from += BATCH_SIZE)
+        {
+            if (!send(successor, repairs.subList(from, Math.min(from + BATCH_SIZE, repairs.size()))))
+            {
+                return;
+            }
+        }
+
+        repaired.add(repairs.size());
+    }
+
+
+    protected boolean send(Node successor, List<Copy> batch)
+    {
+        try
+        {
+            request(successor, new Message(MeshMap.TYPE_BACKUP, batch.toArray(new Copy[0])));
+            copied.add(batch.size());
+            return true;
+        } catch (IOException | MeshMapRuntimeException e)
+        {
+            LOG.log(Level.FINE, "Unable to copy " + batch.size() + " entries to node " + successor + ", leaving them to anti-entropy", e);
+            failed.add(batch.size());
+            return false;
+        }
+    }
+
+
+    protected Message request(Node node, Message message)
+    throws IOException
+    {
+        Message response = server.message(node, message);
+
+        if (Message.TYPE_ERR.equals(response.getType()))
+        {
+            throw new MeshMapRuntimeException("Node " + node + " answered " + message.getType() + " with an error, are backups enabled on it?");
+        }
+
+        return response;
+    }
+
+
+    /**
+     * Moves the backups of the keys this node owns into its partition, without overwriting the keys written since.
+     */
+    protected void promote()
+    {
+        int count = 0;
+
+        synchronized (backups)
+        {
+            for (Iterator<Map.Entry<Object, Object>> entries = backups.entrySet().iterator(); entries.hasNext(); )
+            {
+                Map.Entry<Object, Object> entry = entries.next();
+
+                if (self.equals(cluster.getNodeForKey(entry.getKey())))
+                {
+                    partition.putIfAbsent(entry.getKey(), entry.getValue());
+                    backupTree.remove(entry.getKey());
+                    entries.remove();
+                    count++;
+                }
+            }
+        }
+
+        if (count > 0)
+        {
+            LOG.log(Level.INFO, "Took over " + count + " backed up entries");
+            promoted.add(count);
+        }
+    }
+
+
+    protected static int[] differing(int[] indexes, long[] ours, long[] theirs)
+    {
+        return IntStream.range(0, indexes.length).filter(i -> ours[i] != theirs[i]).map(i -> indexes[i]).toArray();
+    }
+
+
+    protected static int[] children(int[] indexes)
+    {
+        int[] children = new int[indexes.length * 2];
+
+        for (int i = 0; i < indexes.length; i++)
+        {
+            children[2 * i] = 2 * indexes[i];
+            children[2 * i + 1] = 2 * indexes[i] + 1;
+        }
+
+        return children;
+    }
+
+
+    public int size()
+    {
+        return backups.size();
+    }
+
+
+    @Override
+    public synchronized void close()
+    {
+        cluster.removeMembershipListener(this);
+
+        if (executor != null)
+        {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @java.lang.Override
+    public String toString()
+    {
+        return "Backups(Interval=" + interval + ", Entries=" + tree.size() + ", Backups=" + backups.size() + ", Pending=" + pending.size() + ")";
+    }
+
+
+    /**
+     * The entry of a key with the digest of its owner, or no value if the key was removed.
+     */
+    protected static class Copy implements Serializable
+    {
+        private static final long serialVersionUID = 202610191500L;
+
+        protected final Object key;
+
+        protected final Object value;
+
+        protected final long digest;
+
+
+        protected Copy(Object key, Object value, long digest)
+        {
+            this.key = key;
+            this.value = value;
+            this.digest = digest;
+        }
+
+
+        @java.lang.Override
+        public String toString()
+        {
+            return "Copy(Key=" + key + ", Value=" + value + ", Digest=" + Long.toHexString(digest) + ")";
+        }
+    }
+}
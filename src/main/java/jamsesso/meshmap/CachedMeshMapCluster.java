@@ -1,6 +1,5 @@
 package jamsesso.meshmap;
  
-import java.io.File;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.locks.ReentrantLock;
@@ -22,6 +21,30 @@ public class CachedMeshMapCluster extends AbstractMeshMapCluster implements Mesh
     {
         super(cluster.getSelf());
         this.delegate = cluster;
+       
+        // Membership can change without going through this cache, for example through gossip.
+        cluster.addMembershipListener(new MembershipListener()
+        {
+            @Override
+            public void memberJoined(Node node)
+            {
+                clearCache();
+            }
+           
+            
+            @Override
+            public void memberLeft(Node node)
+            {
+                clearCache();
+            }
+        });
+    }
+   
+    
+    @Override
+    public MeshMapConfig getConfig()
+    {
+        return delegate.getConfig();
     }
    
     
@@ -60,6 +83,38 @@ public class CachedMeshMapCluster extends AbstractMeshMapCluster implements Mesh
     }
    
     
+    @Override
+    public void addMembershipListener(MembershipListener listener)
+    {
+        delegate.addMembershipListener(listener);
+    }
+   
+    
+    @Override
+    public void removeMembershipListener(MembershipListener listener)
+    {
+        delegate.removeMembershipListener(listener);
+    }
+   
+    
+    @Override
+    public long getEpoch()
+    {
+        return delegate.getEpoch();
+    }
+   
+    
+    @Override
+    public void observeEpoch(long observed)
+    {
+        if (observed > delegate.getEpoch())
+        {
+            delegate.observeEpoch(observed);
+            clearCache();
+        }
+    }
+   
+    
     public void clearCache()
     {
         lock.lock();
@@ -77,7 +132,7 @@ public class CachedMeshMapCluster extends AbstractMeshMapCluster implements Mesh
  
     @Override
     @SuppressWarnings("unchecked")
-    public File register(Node node)
+    public <T> T register(Node node)
     throws MeshMapException
     {
         lock.lock();
@@ -94,7 +149,7 @@ public class CachedMeshMapCluster extends AbstractMeshMapCluster implements Mesh
  
     @Override
     @SuppressWarnings("unchecked")
-    public File unregister(Node node)
+    public <T> T unregister(Node node)
     {
         lock.lock();
         try
@@ -108,6 +163,21 @@ public class CachedMeshMapCluster extends AbstractMeshMapCluster implements Mesh
     }
  
  
+    @Override
+    public void suspect(Node node)
+    {
+        lock.lock();
+        try
+        {
+            clearCache();
+            delegate.suspect(node);
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+ 
+ 
     @Override
     public Node getNodeForKey(Object key)
     {
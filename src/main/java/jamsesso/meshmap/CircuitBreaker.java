@@ -0,0 +1,115 @@
+package jamsesso.meshmap;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stops sending requests to an unhealthy node for a while.
+ * <p/>
+ * The breaker is closed while requests succeed. After a number of consecutive failures it opens, and every request is
+ * refused at once. Once the open period has passed it lets a single request through (half-open): if that request
+ * succeeds the breaker closes, otherwise it opens again.
+ */
+public class CircuitBreaker
+{
+    private static final Logger LOG = Logger.getLogger(CircuitBreaker.class.getName());
+    
+    public enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+    
+    
+    protected final String name;
+    
+    protected final int failureThreshold;
+    
+    protected final long openMillis;
+    
+    protected State state = State.CLOSED;
+    
+    protected int failures = 0;
+    
+    protected long openedAt = 0L;
+    
+    protected boolean probing = false;
+    
+    
+    public CircuitBreaker(String name, int failureThreshold, long openMillis)
+    {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+    
+    
+    /**
+     * Returns true if a request may be sent now. Every request that is let through must be followed by a call to
+     * {@link #onSuccess()} or {@link #onFailure()}.
+     */
+    public synchronized boolean tryAcquire()
+    {
+        switch (state)
+        {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openMillis)
+                {
+                    return false;
+                }
+                
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+            default:
+                // Half-open: only one request at a time probes the node.
+                if (probing)
+                {
+                    return false;
+                }
+                
+                probing = true;
+                return true;
+        }
+    }
+    
+    
+    public synchronized void onSuccess()
+    {
+        if (state != State.CLOSED)
+        {
+            LOG.log(Level.INFO, "Circuit breaker for " + name + " closed");
+        }
+        
+        state = State.CLOSED;
+        failures = 0;
+        probing = false;
+    }
+    
+    
+    public synchronized void onFailure()
+    {
+        probing = false;
+        
+        if (state == State.HALF_OPEN || (state == State.CLOSED && ++failures >= failureThreshold))
+        {
+            LOG.log(Level.WARNING, "Circuit breaker for " + name + " opened after " + failures + " consecutive failures");
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+    
+    
+    public synchronized State getState()
+    {
+        return state;
+    }
+    
+    
+    @java.lang.Override
+    public synchronized String toString()
+    {
+        return "CircuitBreaker(Name=" + name + ", State=" + state + ", Failures=" + failures + ")";
+    }
+}
@@ -0,0 +1,17 @@
+package jamsesso.meshmap;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of contacting a node whose circuit breaker is open.
+ */
+public class CircuitBreakerOpenException extends IOException
+{
+    private static final long serialVersionUID = 202610191002L;
+    
+    
+    public CircuitBreakerOpenException(String msg)
+    {
+        super(msg);
+    }
+}
@@ -0,0 +1,211 @@
+package jamsesso.meshmap;
+ 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+ 
+/**
+* Compresses message payloads above a size threshold with {@link Deflater} at its fastest level, and keeps count of
+* what it saved and what it cost.
+* <p/>
+* A compressed payload starts with its 4 byte uncompressed size, followed by the deflated bytes. Payloads that do not
+* shrink are sent as they are.
+*/
+public class Compression
+{
+    public static final Compression NONE = new Compression(false, Integer.MAX_VALUE);
+   
+    protected final boolean enabled;
+   
+    protected final int threshold;
+   
+    protected final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+   
+    protected final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+   
+    protected final LongAdder uncompressedBytes = new LongAdder();
+   
+    protected final LongAdder compressedBytes = new LongAdder();
+   
+    protected final LongAdder compressedMessages = new LongAdder();
+   
+    protected final LongAdder incompressibleMessages = new LongAdder();
+   
+    protected final LongAdder decompressedMessages = new LongAdder();
+   
+    protected final LongAdder compressNanos = new LongAdder();
+   
+    protected final LongAdder decompressNanos = new LongAdder();
+   
+    
+    public Compression(boolean enabled, int threshold)
+    {
+        this.enabled = enabled;
+        this.threshold = threshold;
+    }
+   
+    
+    public boolean isEnabled()
+    {
+        return this.enabled;
+    }
+   
+    
+    public int getThreshold()
+    {
+        return this.threshold;
+    }
+   
+    
+    /**
+     * Returns the compressed form of the payload, or {@code null} if the payload is below the threshold or does not
+     * shrink.
+     */
+    public byte[] compress(byte[] payload)
+    {
+        if (!enabled || payload.length < threshold)
+        {
+            return null;
+        }
+       
+        long start = System.nanoTime();
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(payload);
+        deflater.finish();
+       
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 2 + 16);
+        byte[] buffer = new byte[8192];
+        out.write(ByteBuffer.allocate(4).putInt(payload.length).array(), 0, 4);
+       
+        while (!deflater.finished())
+        {
+            int length = deflater.deflate(buffer);
+            out.write(buffer, 0, length);
+        }
+       
+        byte[] compressed = out.toByteArray();
+        compressNanos.add(System.nanoTime() - start);
+       
+        if (compressed.length >= payload.length)
+        {
+            incompressibleMessages.increment();
+            return null;
+        }
+       
+        compressedMessages.increment();
+        uncompressedBytes.add(payload.length);
+        compressedBytes.add(compressed.length);
+        return compressed;
+    }
+   
+    
+    public byte[] decompress(byte[] compressed)
+    throws IOException
+    {
+        if (compressed.length < 4)
+        {
+            throw new IOException("Compressed payload is truncated");
+        }
+       
+        long start = System.nanoTime();
+        int size = ByteBuffer.wrap(compressed, 0, 4).getInt();
+       
+        if (size < 0)
+        {
+            throw new IOException("Compressed payload has an invalid size: " + size);
+        }
+       
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(compressed, 4, compressed.length - 4);
+       
+        byte[] payload = new byte[size];
+        int offset = 0;
+       
+        try
+        {
+            while (offset < size)
+            {
+                int length = inflater.inflate(payload, offset, size - offset);
+               
+                if (length == 0 && (inflater.finished() || inflater.needsInput()))
+                {
+                    throw new IOException("Compressed payload is truncated");
+                }
+               
+                offset += length;
+            }
+        } catch (DataFormatException e)
+        {
+            throw new IOException("Compressed payload is corrupt", e);
+        }
+       
+        decompressedMessages.increment();
+        decompressNanos.add(System.nanoTime() - start);
+        return payload;
+    }
+   
+    
+    public long getUncompressedBytes()
+    {
+        return uncompressedBytes.sum();
+    }
+   
+    
+    public long getCompressedBytes()
+    {
+        return compressedBytes.sum();
+    }
+   
+    
+    /**
+     * Returns the compressed size of the compressed payloads as a fraction of their uncompressed size.
+     */
+    public double getCompressionRatio()
+    {
+        long uncompressed = uncompressedBytes.sum();
+        return uncompressed == 0 ? 1.0 : (double) compressedBytes.sum() / uncompressed;
+    }
+   
+    
+    public long getCompressedMessages()
+    {
+        return compressedMessages.sum();
+    }
+   
+    
+    public long getIncompressibleMessages()
+    {
+        return incompressibleMessages.sum();
+    }
+   
+    
+    public long getDecompressedMessages()
+    {
+        return decompressedMessages.sum();
+    }
+   
+    
+    public long getCompressNanos()
+    {
+        return compressNanos.sum();
+    }
+   
+    
+    public long getDecompressNanos()
+    {
+        return decompressNanos.sum();
+    }
+   
+    
+    @java.lang.Override
+    public String toString()
+    {
+        return "Compression(Enabled=" + enabled + ", Threshold=" + threshold + ", Compressed=" + getCompressedMessages() + ", Ratio=" + getCompressionRatio() + ", CompressMillis=" + getCompressNanos() / 1000000 + ", DecompressMillis=" + getDecompressNanos() / 1000000 + ")";
+    }
+}
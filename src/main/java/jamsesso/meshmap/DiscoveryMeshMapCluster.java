@@ -127,6 +127,7 @@ public class DiscoveryMeshMapCluster extends LocalMeshMapCluster
         }
        
         this.mesh.put(node, file);
+        added(file.getName(), node);
         return file;
     }
    
@@ -139,6 +140,7 @@ public class DiscoveryMeshMapCluster extends LocalMeshMapCluster
         if (file != null)
         {
             file.delete();
+            removed(file.getName());
         }
         return file;
     }
@@ -162,6 +164,8 @@ public class DiscoveryMeshMapCluster extends LocalMeshMapCluster
     public void close()
     throws Exception
     {
+        stopWatching();
+       
         if (server != null)
         {
             server.broadcast(messageBYE());
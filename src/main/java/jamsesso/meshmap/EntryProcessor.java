@@ -0,0 +1,13 @@
+package jamsesso.meshmap;
+ 
+import java.io.Serializable;
+ 
+/**
+* Logic that is shipped to the node owning a key and run atomically against its entry. The processor and its result
+* are transferred using Java serialization, so the class of the processor must be available on every node.
+*/
+@FunctionalInterface
+public interface EntryProcessor<K, V, R> extends Serializable
+{
+    public R process(MutableEntry<K, V> entry);
+}
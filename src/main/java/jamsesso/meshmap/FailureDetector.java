@@ -0,0 +1,287 @@
+package jamsesso.meshmap;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+* A phi-accrual failure detector (Hayashibara et al.) fed by the heartbeats of the other nodes.
+* <p/>
+* For every node it keeps a window of the intervals between heartbeats. Instead of a yes/no answer, it computes phi,
+* the suspicion that the node is down given how long it has been silent compared to the intervals seen so far: a phi
+* of 1 means a 10% chance of being wrong when declaring the node down, 2 means 1%, 3 means 0.1% and so on. A node is
+* suspect above one threshold and dead above another. Nodes that do not heartbeat regularly, such as ones that just
+* joined, are judged against the configured heartbeat interval.
+*/
+public class FailureDetector
+{
+    public enum Status
+    {
+        ALIVE, SUSPECT, DEAD
+    }
+
+
+    public interface Listener
+    {
+        public void statusChanged(Node node, Status previous, Status current);
+    }
+
+
+    protected static final int WINDOW_SIZE = 100;
+
+    protected final long expectedInterval;
+
+    protected final long acceptablePause;
+
+    protected final double suspectPhi;
+
+    protected final double deadPhi;
+
+    protected final Map<Node, History> histories = new ConcurrentHashMap<>();
+
+    protected final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+
+    /**
+     * @param expectedInterval the interval, in milliseconds, at which nodes heartbeat
+     * @param suspectPhi the phi above which a node is suspect
+     * @param deadPhi the phi above which a node is dead
+     */
+    public FailureDetector(long expectedInterval, double suspectPhi, double deadPhi)
+    {
+        this.expectedInterval = expectedInterval;
+        // Gossip relays heartbeats through other nodes, so a few missed rounds are normal.
+        this.acceptablePause = 2 * expectedInterval;
+        this.suspectPhi = suspectPhi;
+        this.deadPhi = deadPhi;
+    }
+
+
+    public void addListener(Listener listener)
+    {
+        listeners.add(listener);
+    }
+
+
+    public void removeListener(Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+
+    /**
+     * Starts watching a node, as if it had just sent a heartbeat, unless it is already watched.
+     */
+    public void watch(Node node, long now)
+    {
+        histories.computeIfAbsent(node, n -> new History(now));
+    }
+
+
+    /**
+     * Records a heartbeat of a node. Heartbeats with a version that is not newer than the last one seen, for example
+     * relayed by a node with an outdated view, are ignored.
+     */
+    public void heartbeat(Node node, long version, long now)
+    {
+        History history = histories.computeIfAbsent(node, n -> new History(now));
+        Status previous;
+
+        synchronized (history)
+        {
+            if (version <= history.version)
+            {
+                return;
+            }
+
+            if (history.version != Long.MIN_VALUE)
+            {
+                history.add(now - history.lastArrival);
+            }
+
+            history.version = version;
+            history.lastArrival = now;
+            previous = history.status;
+            history.status = Status.ALIVE;
+        }
+
+        if (previous != Status.ALIVE)
+        {
+            fire(node, previous, Status.ALIVE);
+        }
+    }
+
+
+    /**
+     * Re-evaluates every watched node and notifies the listeners of the nodes whose status changed.
+     */
+    public void check(long now)
+    {
+        for (Map.Entry<Node, History> entry : histories.entrySet())
+        {
+            History history = entry.getValue();
+            Status previous;
+            Status current;
+
+            synchronized (history)
+            {
+                double phi = phi(history, now);
+                previous = history.status;
+                current = phi >= deadPhi ? Status.DEAD : phi >= suspectPhi ? Status.SUSPECT : Status.ALIVE;
+
+                // Only a heartbeat brings a dead node back.
+                if (previous == Status.DEAD)
+                {
+                    continue;
+                }
+
+                history.status = current;
+            }
+
+            if (previous != current)
+            {
+                fire(entry.getKey(), previous, current);
+            }
+        }
+    }
+
+
+    /**
+     * Stops watching a node, for example because it left the cluster.
+     */
+    public void forget(Node node)
+    {
+        histories.remove(node);
+    }
+
+
+    /**
+     * Stops watching every node that is not one of the given members and has not been declared dead. Dead nodes are
+     * remembered so that their return is noticed.
+     */
+    public void retain(Collection<Node> members)
+    {
+        histories.entrySet().removeIf(entry -> !members.contains(entry.getKey()) && entry.getValue().status != Status.DEAD);
+    }
+
+
+    public double phi(Node node, long now)
+    {
+        History history = histories.get(node);
+
+        if (history == null)
+        {
+            return 0.0;
+        }
+
+        synchronized (history)
+        {
+            return phi(history, now);
+        }
+    }
+
+
+    public Status getStatus(Node node)
+    {
+        History history = histories.get(node);
+        return history == null ? Status.ALIVE : history.status;
+    }
+
+
+    public boolean isDead(Node node)
+    {
+        return getStatus(node) == Status.DEAD;
+    }
+
+
+    protected double phi(History history, long now)
+    {
+        double mean = (history.count == 0 ? expectedInterval : history.mean()) + acceptablePause;
+        double deviation = Math.max(history.count < 2 ? expectedInterval / 4.0 : history.deviation(), expectedInterval / 4.0);
+        double y = (now - history.lastArrival - mean) / deviation;
+
+        // Logistic approximation of the cumulative normal distribution.
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        double p = y > 0 ? e / (1.0 + e) : 1.0 - 1.0 / (1.0 + e);
+        return -Math.log10(Math.max(p, Double.MIN_NORMAL));
+    }
+
+
+    protected void fire(Node node, Status previous, Status current)
+    {
+        for (Listener listener : listeners)
+        {
+            listener.statusChanged(node, previous, current);
+        }
+    }
+
+
+    @java.lang.Override
+    public String toString()
+    {
+        return "FailureDetector(ExpectedInterval=" + expectedInterval + ", SuspectPhi=" + suspectPhi + ", DeadPhi=" + deadPhi + ", Watching=" + histories.size() + ")";
+    }
+
+
+    /**
+     * The last heartbeats of a node, guarded by its own monitor.
+     */
+    protected static class History
+    {
+        protected final long[] intervals = new long[WINDOW_SIZE];
+
+        protected int count = 0;
+
+        protected int next = 0;
+
+        protected long sum = 0L;
+
+        protected long sumOfSquares = 0L;
+
+        protected long version = Long.MIN_VALUE;
+
+        protected long lastArrival;
+
+        protected Status status = Status.ALIVE;
+
+
+        protected History(long now)
+        {
+            this.lastArrival = now;
+        }
+
+
+        protected void add(long interval)
+        {
+            if (count == WINDOW_SIZE)
+            {
+                long oldest = intervals[next];
+                sum -= oldest;
+                sumOfSquares -= oldest * oldest;
+            } else
+            {
+                count++;
+            }
+
+            intervals[next] = interval;
+            next = (next + 1) % WINDOW_SIZE;
+            sum += interval;
+            sumOfSquares += interval * interval;
+        }
+
+
+        protected double mean()
+        {
+            return (double) sum / count;
+        }
+
+
+        protected double deviation()
+        {
+            double mean = mean();
+            return Math.sqrt(Math.max(0.0, (double) sumOfSquares / count - mean * mean));
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package jamsesso.meshmap;
+ 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+ 
+/**
+* Periodically exchanges {@link NodeState}s with a few random peers (push-pull gossip). Every node bumps the version
+* of its own state on each beat, and the newest version of every state spreads through the cluster in O(log N)
+* rounds. This lets a node answer cluster-wide questions, such as the number of entries, from local state.
+* <p/>
+* Every version advance is a heartbeat of its node for the {@link FailureDetector}, which is checked after each round.
+*/
+public class Heartbeat implements AutoCloseable
+{
+    private static final Logger LOG = Logger.getLogger(Heartbeat.class.getName());
+   
+    protected final Node self;
+   
+    protected final MeshMapCluster cluster;
+   
+    protected final MeshMapServer server;
+   
+    protected final FailureDetector failureDetector;
+   
+    protected final LongSupplier entryCount;
+   
+    protected final long interval;
+   
+    protected final int fanout;
+   
+    protected final Map<Node, NodeState> states = new ConcurrentHashMap<>();
+   
+    protected final Map<Node, Long> updatedAt = new ConcurrentHashMap<>();
+   
+    // Seeded from the clock so that a restarted node always gossips a higher version than before.
+    protected long version = System.currentTimeMillis();
+   
+    protected ScheduledExecutorService executor;
+   
+    
+    public Heartbeat(Node self, MeshMapCluster cluster, MeshMapServer server, LongSupplier entryCount, MeshMapConfig config)
+    {
+        this.self = self;
+        this.cluster = cluster;
+        this.server = server;
+        this.failureDetector = server.getFailureDetector();
+        this.entryCount = entryCount;
+        this.interval = config.getHeartbeatInterval();
+        this.fanout = config.getGossipFanout();
+    }
+   
+    
+    public synchronized void start()
+    {
+        if (executor != null)
+        {
+            return;
+        }
+       
+        beat();
+       
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MeshMap Heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::tick, interval, interval, TimeUnit.MILLISECONDS);
+    }
+   
+    
+    @Override
+    public synchronized void close()
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+   
+    
+    /**
+     * Answers a heartbeat from a peer with every state this node knows of.
+     */
+    public Message handle(Message message)
+    {
+        merge(message.getPayload(NodeState[].class));
+        return new Message(Message.TYPE_HEARTBEAT, snapshot());
+    }
+   
+    
+    /**
+     * Returns the sum of the entry counts gossiped by every member other than this node, or -1 if the state of any
+     * member is unknown or has not been refreshed within the staleness bound.
+     */
+    public long remoteEntryCount(List<Node> members, long maxStaleness)
+    {
+        long now = System.currentTimeMillis();
+        long count = 0L;
+       
+        for (Node node : members)
+        {
+            if (node.equals(self))
+            {
+                continue;
+            }
+           
+            NodeState state = states.get(node);
+            Long refreshedAt = updatedAt.get(node);
+           
+            if (state == null || refreshedAt == null || now - refreshedAt > maxStaleness)
+            {
+                return -1L;
+            }
+           
+            count += state.getEntryCount();
+        }
+       
+        return count;
+    }
+   
+    
+    public NodeState getState(Node node)
+    {
+        return states.get(node);
+    }
+   
+    
+    protected void tick()
+    {
+        try
+        {
+            beat();
+           
+            List<Node> members = cluster.getAllNodes();
+            List<Node> peers = new ArrayList<>(members);
+            peers.remove(self);
+            states.keySet().retainAll(members);
+            Collections.shuffle(peers, ThreadLocalRandom.current());
+           
+            long now = System.currentTimeMillis();
+            failureDetector.retain(members);
+            peers.forEach(peer -> failureDetector.watch(peer, now));
+           
+            for (Node peer : peers.subList(0, Math.min(fanout, peers.size())))
+            {
+                try
+                {
+                    Message response = server.message(peer, new Message(Message.TYPE_HEARTBEAT, snapshot()));
+                   
+                    if (Message.TYPE_HEARTBEAT.equals(response.getType()))
+                    {
+                        merge(response.getPayload(NodeState[].class));
+                    }
+                } catch (IOException | MeshMapRuntimeException e)
+                {
+                    LOG.log(Level.FINE, "Unable to exchange heartbeat with node " + peer, e);
+                }
+            }
+           
+            failureDetector.check(System.currentTimeMillis());
+        } catch (RuntimeException e)
+        {
+            // Never let a failure cancel the periodic task.
+            LOG.log(Level.WARNING, "Heartbeat failed", e);
+        }
+    }
+   
+    
+    protected synchronized void beat()
+    {
+        states.put(self, new NodeState(self, entryCount.getAsLong(), ++version));
+        updatedAt.put(self, System.currentTimeMillis());
+    }
+   
+    
+    protected void merge(NodeState[] received)
+    {
+        if (received == null)
+        {
+            return;
+        }
+       
+        long now = System.currentTimeMillis();
+       
+        for (NodeState state : received)
+        {
+            if (state.getNode().equals(self))
+            {
+                continue;
+            }
+           
+            NodeState merged = states.merge(state.getNode(), state, (current, update) -> update.isNewerThan(current) ? update : current);
+           
+            if (merged == state)
+            {
+                updatedAt.put(state.getNode(), now);
+            }
+           
+            failureDetector.heartbeat(state.getNode(), state.getVersion(), now);
+        }
+    }
+   
+    
+    protected NodeState[] snapshot()
+    {
+        return states.values().toArray(new NodeState[0]);
+    }
+   
+    
+    @java.lang.Override
+    public String toString()
+    {
+        return "Heartbeat(Self=" + self + ", Interval=" + interval + ", Fanout=" + fanout + ", States=" + states.values() + ")";
+    }
+}
@@ -0,0 +1,83 @@
+package jamsesso.meshmap;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+* A point-in-time view of the hot keys of a node and of the read replicas of hot keys.
+*/
+public class HotKeyStats implements Serializable
+{
+    private static final long serialVersionUID = 202610191200L;
+
+    private final Map<Object, Integer> hotKeys;
+
+    private final int leasedKeys;
+
+    private final int replicas;
+
+    private final long replicaHits;
+
+    private final long invalidations;
+
+
+    public HotKeyStats(Map<Object, Integer> hotKeys, int leasedKeys, int replicas, long replicaHits, long invalidations)
+    {
+        this.hotKeys = Collections.unmodifiableMap(new LinkedHashMap<>(hotKeys));
+        this.leasedKeys = leasedKeys;
+        this.replicas = replicas;
+        this.replicaHits = replicaHits;
+        this.invalidations = invalidations;
+    }
+
+
+    /**
+     * Returns the hot keys of the local partition with their estimated recent request counts, hottest first.
+     */
+    public Map<Object, Integer> getHotKeys()
+    {
+        return hotKeys;
+    }
+
+
+    /**
+     * Returns the number of hot keys of this node that other nodes hold replicas of.
+     */
+    public int getLeasedKeys()
+    {
+        return leasedKeys;
+    }
+
+
+    /**
+     * Returns the number of replicas of hot keys of other nodes held by this node.
+     */
+    public int getReplicas()
+    {
+        return replicas;
+    }
+
+
+    public long getReplicaHits()
+    {
+        return replicaHits;
+    }
+
+
+    /**
+     * Returns the number of replicas this node invalidated on other nodes.
+     */
+    public long getInvalidations()
+    {
+        return invalidations;
+    }
+
+
+    @java.lang.Override
+    public String toString()
+    {
+        return "HotKeyStats(HotKeys=" + hotKeys + ", LeasedKeys=" + leasedKeys + ", Replicas=" + replicas + ", ReplicaHits=" + replicaHits + ", Invalidations=" + invalidations + ")";
+    }
+}
@@ -0,0 +1,140 @@
+package jamsesso.meshmap;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jamsesso.meshmap.utils.stats.CountMinSketch;
+
+/**
+* Finds the keys of the local partition that take an outsized share of the requests a node handles.
+* <p/>
+* Every request for a key is counted in a {@link CountMinSketch}. Once per window, the counts and the total are halved,
+* so they decay exponentially and reflect the last few windows. A key is hot while its count is at least the
+* configured share of the total and at least {@link #MINIMUM_COUNT}, so that a quiet node does not call every key hot.
+* At most a configured number of keys are hot at once.
+*/
+public class HotKeys
+{
+    protected static final long WINDOW = 1000L;
+
+    protected static final int MINIMUM_COUNT = 64;
+
+    protected static final int SKETCH_WIDTH = 4096;
+
+    protected final CountMinSketch sketch = new CountMinSketch(SKETCH_WIDTH);
+
+    protected final double share;
+
+    protected final int maximum;
+
+    protected final AtomicLong total = new AtomicLong();
+
+    protected final Map<Object, Integer> hot = new ConcurrentHashMap<>();
+
+    protected volatile long windowStart = System.currentTimeMillis();
+
+
+    /**
+     * @param share the share of the requests, between 0 and 1, from which a key is hot
+     * @param maximum the maximum number of keys that are hot at once
+     */
+    public HotKeys(double share, int maximum)
+    {
+        this.share = share;
+        this.maximum = maximum;
+    }
+
+
+    /**
+     * Counts a request for the key and returns whether the key is hot.
+     */
+    public boolean record(Object key)
+    {
+        if (key == null)
+        {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= WINDOW)
+        {
+            roll(now);
+        }
+
+        int estimate = sketch.add(key);
+        long threshold = threshold(total.incrementAndGet());
+
+        if (estimate < threshold)
+        {
+            return false;
+        }
+
+        if (hot.size() < maximum || hot.containsKey(key))
+        {
+            hot.put(key, estimate);
+            return true;
+        }
+
+        return false;
+    }
+
+
+    public boolean isHot(Object key)
+    {
+        return key != null && hot.containsKey(key);
+    }
+
+
+    /**
+     * Returns the hot keys with their estimated recent request counts, hottest first.
+     */
+    public Map<Object, Integer> getHotKeys()
+    {
+        Map<Object, Integer> sorted = new LinkedHashMap<>();
+        hot.entrySet().stream()
+            .sorted(Map.Entry.<Object, Integer>comparingByValue(Comparator.reverseOrder()))
+            .forEachOrdered(entry -> sorted.put(entry.getKey(), entry.getValue()));
+        return sorted;
+    }
+
+
+    public void clear()
+    {
+        sketch.clear();
+        total.set(0L);
+        hot.clear();
+    }
+
+
+    protected synchronized void roll(long now)
+    {
+        if (now - windowStart < WINDOW)
+        {
+            return;
+        }
+
+        windowStart = now;
+        sketch.halve();
+        long threshold = threshold(total.updateAndGet(count -> count / 2));
+
+        // Keys that cooled down make room for others.
+        hot.replaceAll((key, count) -> sketch.estimate(key));
+        hot.values().removeIf(count -> count < threshold);
+    }
+
+
+    protected long threshold(long total)
+    {
+        return Math.max(MINIMUM_COUNT, (long) Math.ceil(share * total));
+    }
+
+
+    @java.lang.Override
+    public String toString()
+    {
+        return "HotKeys(Share=" + share + ", Maximum=" + maximum + ", Hot=" + hot.size() + ")";
+    }
+}
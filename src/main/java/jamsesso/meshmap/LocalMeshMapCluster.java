@@ -2,20 +2,48 @@ package jamsesso.meshmap;
  
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
  
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+ 
+/**
+* A cluster whose members are the files of a shared directory, one per node, named after its address.
+* <p/>
+* Once joined, the directory is watched, so nodes are added to and removed from the ring as their files come and go,
+* without listing the directory again. The ring is published as an immutable snapshot that routing reads without
+* locking. Where the file system has no native change notifications, the JDK polls the directory instead, which delays
+* changes by a few seconds.
+*/
 public class LocalMeshMapCluster extends AbstractMeshMapCluster
 {
+    private static final Logger LOG = Logger.getLogger(LocalMeshMapCluster.class.getName());
+   
     protected final File directory;
    
-    protected List<Node> cachedNodes = null;
+    // Members by file name, so that a name is only resolved once.
+    protected final Map<String, Node> members = new ConcurrentHashMap<>();
    
-    protected long cachedAt = 0L;
+    protected volatile List<Node> nodes = Collections.emptyList();
    
-    protected long cacheFor = 60000L;
+    protected WatchService watchService;
+   
+    protected Thread watcher;
    
     
     public LocalMeshMapCluster(final Node self, final File directory)
@@ -32,19 +60,15 @@ public class LocalMeshMapCluster extends AbstractMeshMapCluster
         {
             throw new IllegalArgumentException("Directory must be readable and writable");
         }
+       
+        scan();
     }
    
     
     @Override
     public List<Node> getAllNodes()
     {
-        if (cachedNodes == null || (cachedAt + cacheFor) <= System.currentTimeMillis())
-        {
-            cachedNodes = Stream.of(directory.listFiles()).filter(File::isFile).map(File::getName).map(Node::from).sorted(Comparator.comparingInt(Node::getId)).collect(Collectors.toList());
-            cachedAt = System.currentTimeMillis();
-        }
-       
-        return cachedNodes;
+        return nodes;
     }
    
     
@@ -52,6 +76,8 @@ public class LocalMeshMapCluster extends AbstractMeshMapCluster
     public void close()
     throws Exception
     {
+        stopWatching();
+       
         File file = new File(directory.getAbsolutePath() + File.separator + self.toString());
         boolean didDeleteFile = file.delete();
        
@@ -84,7 +110,8 @@ public class LocalMeshMapCluster extends AbstractMeshMapCluster
             throw new MeshMapException("Unable to join cluster", e);
         }
  
-        cachedAt = 0L;
+        // Routing sees the node at once, the watcher will find it already known.
+        added(file.getName(), node);
         return file.exists() ? file : null;
     }
  
@@ -95,8 +122,12 @@ public class LocalMeshMapCluster extends AbstractMeshMapCluster
     {
         File file = new File(directory.getAbsolutePath() + File.separator + node.toString());
        
-        cachedAt = 0L;
-        return file.delete() ? file : null;
+        if (file.delete())
+        {
+            removed(file.getName());
+            return file;
+        }
+        return null;
     }
    
     
@@ -104,7 +135,202 @@ public class LocalMeshMapCluster extends AbstractMeshMapCluster
     public <K, V> MeshMap<K, V> join()
     throws MeshMapException
     {
-        cachedAt = 0L;
+        startWatching();
         return super.join();
     }
-}
+   
+    
+    /**
+     * Starts watching the directory for nodes that join or leave, unless it is already watched.
+     */
+    protected synchronized void startWatching()
+    throws MeshMapException
+    {
+        if (watchService != null)
+        {
+            return;
+        }
+       
+        Path path = directory.toPath();
+       
+        try
+        {
+            watchService = path.getFileSystem().newWatchService();
+            path.register(watchService, ENTRY_CREATE, ENTRY_DELETE);
+        } catch (IOException e)
+        {
+            throw new MeshMapException("Unable to watch the cluster directory " + directory, e);
+        }
+       
+        // Files that changed before the watch was registered are only seen by listing the directory.
+        scan();
+       
+        WatchService service = watchService;
+        watcher = new Thread(() -> watch(service), "MeshMap Directory Watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+   
+    
+    protected synchronized void stopWatching()
+    {
+        if (watchService == null)
+        {
+            return;
+        }
+       
+        try
+        {
+            watchService.close();
+        } catch (IOException e)
+        {
+            LOG.log(Level.WARNING, "Unable to stop watching the cluster directory", e);
+        }
+       
+        watchService = null;
+        watcher = null;
+    }
+   
+    
+    protected void watch(WatchService service)
+    {
+        try
+        {
+            while (true)
+            {
+                WatchKey key = service.take();
+               
+                for (WatchEvent<?> event : key.pollEvents())
+                {
+                    if (event.kind() == OVERFLOW)
+                    {
+                        // Events were lost, so the directory is listed again.
+                        scan();
+                    } else if (event.kind() == ENTRY_CREATE)
+                    {
+                        String name = event.context().toString();
+                       
+                        if (new File(directory, name).isFile())
+                        {
+                            added(name, null);
+                        }
+                    } else if (event.kind() == ENTRY_DELETE)
+                    {
+                        removed(event.context().toString());
+                    }
+                }
+               
+                if (!key.reset())
+                {
+                    LOG.warning("Cluster directory " + directory + " can no longer be watched");
+                    return;
+                }
+            }
+        } catch (ClosedWatchServiceException e)
+        {
+            // Watching was stopped.
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+   
+    
+    /**
+     * Lists the directory again, in case the watcher missed or has not yet delivered a change.
+     */
+    @Override
+    protected void refresh()
+    {
+        scan();
+    }
+   
+    
+    /**
+     * Lists the directory and brings the members in line with it.
+     */
+    protected void scan()
+    {
+        File[] files = directory.listFiles();
+       
+        if (files == null)
+        {
+            LOG.warning("Unable to list the cluster directory " + directory);
+            return;
+        }
+       
+        Set<String> names = new HashSet<>();
+       
+        for (File file : files)
+        {
+            if (file.isFile())
+            {
+                names.add(file.getName());
+                added(file.getName(), null);
+            }
+        }
+       
+        for (String name : members.keySet())
+        {
+            if (!names.contains(name))
+            {
+                removed(name);
+            }
+        }
+    }
+   
+    
+    /**
+     * Adds the node of a file to the members, parsing the file name unless the node is given.
+     */
+    protected void added(String name, Node node)
+    {
+        synchronized (members)
+        {
+            if (members.containsKey(name))
+            {
+                return;
+            }
+           
+            try
+            {
+                node = node != null ? node : Node.from(name);
+            } catch (RuntimeException e)
+            {
+                LOG.log(Level.FINE, "Ignoring file that does not name a node: " + name, e);
+                return;
+            }
+           
+            members.put(name, node);
+            publish();
+        }
+       
+        fireMemberJoined(node);
+    }
+   
+    
+    protected void removed(String name)
+    {
+        Node node;
+       
+        synchronized (members)
+        {
+            node = members.remove(name);
+           
+            if (node == null)
+            {
+                return;
+            }
+           
+            publish();
+        }
+       
+        fireMemberLeft(node);
+    }
+   
+    
+    protected void publish()
+    {
+        nodes = Collections.unmodifiableList(members.values().stream().sorted(Comparator.comparingInt(Node::getId)).collect(Collectors.toList()));
+    }
+}
\ No newline at end of file
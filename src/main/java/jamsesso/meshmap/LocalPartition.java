@@ -0,0 +1,329 @@
+package jamsesso.meshmap;
+ 
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+ 
+import jamsesso.meshmap.utils.cache.EvictionStats;
+import jamsesso.meshmap.utils.cache.TinyLfuMap;
+ 
+/**
+* The entries stored on this node. Every change, including evictions of a bounded partition, is reported to the
+* registered {@link PartitionListener}s after it is applied.
+* <p/>
+* Listeners are not told what a write did; they are told what the partition holds for the key once the write is done.
+* The notification re-reads the key under a lock striped by key, so when writes of the same key race, whichever
+* notification runs last still reports the final value.
+*/
+public class LocalPartition extends AbstractMap<Object, Object> implements ConcurrentMap<Object, Object>
+{
+    private static final int STRIPES = 64;
+   
+    protected final ConcurrentMap<Object, Object> store;
+   
+    protected final List<PartitionListener> listeners = new CopyOnWriteArrayList<>();
+   
+    private final Object[] locks = new Object[STRIPES];
+   
+    
+    public LocalPartition(MeshMapConfig config)
+    {
+        for (int i = 0; i < STRIPES; i++)
+        {
+            locks[i] = new Object();
+        }
+       
+        if (config.isBounded())
+        {
+            // Cache mode; the partition evicts entries once it outgrows the configured maximum.
+            this.store = new TinyLfuMap<>(config.getMaximumWeight(), config.getWeigher(), (key, value) -> changed(key));
+        } else
+        {
+            this.store = new ConcurrentHashMap<>();
+        }
+    }
+   
+    
+    /**
+     * Registers the listener and reports every entry currently in the partition to it.
+     */
+    public void addListener(PartitionListener listener)
+    {
+        listeners.add(listener);
+       
+        for (Object key : store.keySet())
+        {
+            synchronized (lockFor(key))
+            {
+                listener.updated(key, peek(key));
+            }
+        }
+    }
+   
+    
+    public void removeListener(PartitionListener listener)
+    {
+        listeners.remove(listener);
+    }
+   
+    
+    public EvictionStats getEvictionStats()
+    {
+        if (store instanceof TinyLfuMap)
+        {
+            return ((TinyLfuMap<Object, Object>) store).stats();
+        }
+       
+        return EvictionStats.EMPTY;
+    }
+   
+    
+    /**
+     * Returns the value of the key without counting it as an access of a bounded partition.
+     */
+    public Object peek(Object key)
+    {
+        if (store instanceof TinyLfuMap)
+        {
+            return ((TinyLfuMap<Object, Object>) store).peek(key);
+        }
+       
+        return store.get(key);
+    }
+   
+    
+    @Override
+    public int size()
+    {
+        return store.size();
+    }
+   
+    
+    @Override
+    public boolean isEmpty()
+    {
+        return store.isEmpty();
+    }
+   
+    
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return store.containsKey(key);
+    }
+   
+    
+    @Override
+    public boolean containsValue(Object value)
+    {
+        return store.containsValue(value);
+    }
+   
+    
+    @Override
+    public Object get(Object key)
+    {
+        return store.get(key);
+    }
+   
+    
+    @Override
+    public Object put(Object key, Object value)
+    {
+        Object previous = store.put(key, value);
+        changed(key);
+        return previous;
+    }
+   
+    
+    @Override
+    public Object putIfAbsent(Object key, Object value)
+    {
+        Object previous = store.putIfAbsent(key, value);
+       
+        if (previous == null)
+        {
+            changed(key);
+        }
+       
+        return previous;
+    }
+   
+    
+    @Override
+    public Object remove(Object key)
+    {
+        Object previous = store.remove(key);
+       
+        if (previous != null)
+        {
+            changed(key);
+        }
+       
+        return previous;
+    }
+   
+    
+    @Override
+    public boolean remove(Object key, Object value)
+    {
+        boolean removed = store.remove(key, value);
+       
+        if (removed)
+        {
+            changed(key);
+        }
+       
+        return removed;
+    }
+   
+    
+    @Override
+    public boolean replace(Object key, Object oldValue, Object newValue)
+    {
+        boolean replaced = store.replace(key, oldValue, newValue);
+       
+        if (replaced)
+        {
+            changed(key);
+        }
+       
+        return replaced;
+    }
+   
+    
+    @Override
+    public Object replace(Object key, Object value)
+    {
+        Object previous = store.replace(key, value);
+       
+        if (previous != null)
+        {
+            changed(key);
+        }
+       
+        return previous;
+    }
+   
+    
+    @Override
+    public Object computeIfAbsent(Object key, Function<? super Object, ? extends Object> mappingFunction)
+    {
+        Object value = store.computeIfAbsent(key, mappingFunction);
+        changed(key);
+        return value;
+    }
+   
+    
+    @Override
+    public Object computeIfPresent(Object key, BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction)
+    {
+        Object value = store.computeIfPresent(key, remappingFunction);
+        changed(key);
+        return value;
+    }
+   
+    
+    @Override
+    public Object compute(Object key, BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction)
+    {
+        Object value = store.compute(key, remappingFunction);
+        changed(key);
+        return value;
+    }
+   
+    
+    @Override
+    public Object merge(Object key, Object value, BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction)
+    {
+        Object merged = store.merge(key, value, remappingFunction);
+        changed(key);
+        return merged;
+    }
+   
+    
+    @Override
+    public void clear()
+    {
+        store.clear();
+       
+        if (listeners.isEmpty())
+        {
+            return;
+        }
+       
+        listeners.forEach(PartitionListener::cleared);
+       
+        // Report whatever was written while the partition was being cleared.
+        store.keySet().forEach(this::changed);
+    }
+   
+    
+    @Override
+    public void forEach(BiConsumer<? super Object, ? super Object> action)
+    {
+        store.forEach(action);
+    }
+   
+    
+    @Override
+    public Set<Object> keySet()
+    {
+        return Collections.unmodifiableSet(store.keySet());
+    }
+   
+    
+    @Override
+    public Collection<Object> values()
+    {
+        return Collections.unmodifiableCollection(store.values());
+    }
+   
+    
+    @Override
+    public Set<Entry<Object, Object>> entrySet()
+    {
+        return Collections.unmodifiableMap(store).entrySet();
+    }
+   
+    
+    protected void changed(Object key)
+    {
+        if (listeners.isEmpty())
+        {
+            return;
+        }
+       
+        synchronized (lockFor(key))
+        {
+            Object value = peek(key);
+           
+            for (PartitionListener listener : listeners)
+            {
+                listener.updated(key, value);
+            }
+        }
+    }
+   
+    
+    private Object lockFor(Object key)
+    {
+        int hash = key.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+   
+    
+    @Override
+    public String toString()
+    {
+        return "LocalPartition(Size=" + store.size() + ", Listeners=" + listeners.size() + ")";
+    }
+}
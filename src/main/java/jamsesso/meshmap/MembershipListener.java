@@ -0,0 +1,12 @@
+package jamsesso.meshmap;
+ 
+/**
+* Notified when nodes join or leave the cluster, as seen by this node.
+*/
+public interface MembershipListener
+{
+    public void memberJoined(Node node);
+   
+    
+    public void memberLeft(Node node);
+}
@@ -0,0 +1,235 @@
+package jamsesso.meshmap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+* A Merkle tree over the entries of a map, kept up to date one entry at a time. Each leaf covers an equal range of key
+* hashes, so that a subtree covers a contiguous arc of the ring, and holds the sum of the digests of the entries in its
+* range. Each inner node holds a digest of its two children.
+* <p/>
+* Two maps hold the same entries in a range when the digests of the node covering it are equal. Walking down from the
+* root to the nodes whose digests differ finds the ranges holding differing entries in a number of comparisons that
+* grows with the number of differences, not with the number of entries.
+* <p/>
+* Nodes are numbered as in a binary heap: the root is 1, and the children of node {@code i} are {@code 2i} and
+* {@code 2i + 1}.
+*/
+public class MerkleTree
+{
+    public static final int ROOT = 1;
+
+    protected final int depth;
+
+    protected final int leafCount;
+
+    protected final long[] nodes;
+
+    protected final Map<Object, Long>[] leaves;
+
+    protected int size = 0;
+
+
+    /**
+     * @param depth the number of levels below the root, so that the tree has {@code 2^depth} leaves
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public MerkleTree(int depth)
+    {
+        if (depth < 0 || depth > 20)
+        {
+            throw new IllegalArgumentException("Depth must be between 0 and 20");
+        }
+
+        this.depth = depth;
+        this.leafCount = 1 << depth;
+        this.nodes = new long[leafCount * 2];
+        this.leaves = new Map[leafCount];
+    }
+
+
+    /**
+     * Sets the digest of the entry of the key, as returned by {@link #digest}.
+     */
+    public synchronized void update(Object key, long digest)
+    {
+        int leaf = leafOf(key);
+        Map<Object, Long> entries = leaves[leaf];
+
+        if (entries == null)
+        {
+            entries = leaves[leaf] = new HashMap<>();
+        }
+
+        Long previous = entries.put(key, digest);
+
+        if (previous == null)
+        {
+            size++;
+        }
+
+        change(leaf, digest - (previous == null ? 0L : previous));
+    }
+
+
+    public synchronized void remove(Object key)
+    {
+        int leaf = leafOf(key);
+        Map<Object, Long> entries = leaves[leaf];
+        Long previous = entries == null ? null : entries.remove(key);
+
+        if (previous != null)
+        {
+            size--;
+            change(leaf, -previous);
+        }
+    }
+
+
+    public synchronized void clear()
+    {
+        Arrays.fill(nodes, 0L);
+        Arrays.fill(leaves, null);
+        size = 0;
+    }
+
+
+    public synchronized long getRoot()
+    {
+        return nodes[ROOT];
+    }
+
+
+    /**
+     * Returns the digests of the given nodes, in the same order.
+     */
+    public synchronized long[] getDigests(int[] indexes)
+    {
+        long[] digests = new long[indexes.length];
+
+        for (int i = 0; i < indexes.length; i++)
+        {
+            digests[i] = nodes[check(indexes[i])];
+        }
+
+        return digests;
+    }
+
+
+    /**
+     * Returns the digests of the entries whose keys fall in the range of the given leaf node.
+     */
+    public synchronized Map<Object, Long> getEntries(int index)
+    {
+        if (!isLeaf(check(index)))
+        {
+            throw new IllegalArgumentException("Node " + index + " is not a leaf");
+        }
+
+        Map<Object, Long> entries = leaves[index - leafCount];
+        return entries == null ? new HashMap<>() : new HashMap<>(entries);
+    }
+
+
+    public boolean isLeaf(int index)
+    {
+        return index >= leafCount;
+    }
+
+
+    public int getDepth()
+    {
+        return depth;
+    }
+
+
+    public synchronized int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * Returns the digest of an entry. Values are digested in their serialized form, so that equal entries have equal
+     * digests on every node, and fall back to their hash code if they cannot be serialized.
+     */
+    public static long digest(Object key, Object value)
+    {
+        long hash;
+
+        try
+        {
+            hash = fnv(fnv(0xCBF29CE484222325L, Message.toBytes(key)), Message.toBytes(value));
+        } catch (MeshMapMarshallException e)
+        {
+            hash = Objects.hash(key, value);
+        }
+
+        return mix(hash);
+    }
+
+
+    protected int leafOf(Object key)
+    {
+        return (key.hashCode() & Integer.MAX_VALUE) >>> (31 - depth);
+    }
+
+
+    // Adds the change of a leaf to it and recomputes the digests on its path to the root.
+    protected void change(int leaf, long delta)
+    {
+        int index = leafCount + leaf;
+        nodes[index] += delta;
+
+        for (index >>>= 1; index >= ROOT; index >>>= 1)
+        {
+            long left = nodes[2 * index];
+            long right = nodes[2 * index + 1];
+            nodes[index] = left == 0L && right == 0L ? 0L : mix(left ^ mix(right + 0x9E3779B97F4A7C15L));
+        }
+    }
+
+
+    protected int check(int index)
+    {
+        if (index < ROOT || index >= nodes.length)
+        {
+            throw new IllegalArgumentException("No node " + index + " in a tree of depth " + depth);
+        }
+
+        return index;
+    }
+
+
+    protected static long fnv(long hash, byte[] bytes)
+    {
+        for (byte b : bytes)
+        {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+
+        return hash;
+    }
+
+
+    // The finalizer of MurmurHash3.
+    protected static long mix(long hash)
+    {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+
+    @java.lang.Override
+    public String toString()
+    {
+        return "MerkleTree(Depth=" + depth + ", Size=" + size() + ", Root=" + Long.toHexString(getRoot()) + ")";
+    }
+}
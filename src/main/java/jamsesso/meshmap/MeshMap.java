@@ -1,8 +1,13 @@
 package jamsesso.meshmap;
  
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
  
-public interface MeshMap<K, V> extends Map<K, V>, AutoCloseable
+import jamsesso.meshmap.utils.cache.EvictionStats;
+ 
+public interface MeshMap<K, V> extends ConcurrentMap<K, V>, AutoCloseable
 {
     static final String TYPE_PUT = "PUT";
    
@@ -21,4 +26,118 @@ public interface MeshMap<K, V> extends Map<K, V>, AutoCloseable
     static final String TYPE_CONTAINS_VALUE = "CONTAINS_VALUE";
    
     static final String TYPE_DUMP_ENTRIES = "DUMP_ENTRIES";
+   
+    static final String TYPE_EXECUTE_ON_KEY = "EXECUTE_ON_KEY";
+   
+    static final String TYPE_PUT_IF_ABSENT = "PUT_IF_ABSENT";
+   
+    static final String TYPE_REPLACE = "REPLACE";
+   
+    static final String TYPE_CAS_REPLACE = "CAS_REPLACE";
+   
+    static final String TYPE_CAS_REMOVE = "CAS_REMOVE";
+   
+    static final String TYPE_QUERY = "QUERY";
+   
+    static final String TYPE_AGGREGATE = "AGGREGATE";
+   
+    static final String TYPE_ADD_INDEX = "ADD_INDEX";
+   
+    static final String TYPE_INDEX_QUERY = "INDEX_QUERY";
+   
+    static final String TYPE_GET_INDEX = "GET_INDEX";
+   
+    static final String TYPE_MOVED = "MOVED";
+   
+    static final String TYPE_MEMBERS = "MEMBERS";
+   
+    static final String TYPE_GET_REPLICA = "GET_REPLICA";
+   
+    static final String TYPE_INVALIDATE = "INVALIDATE";
+   
+    static final String TYPE_PUT_ALL = "PUT_ALL";
+   
+    static final String TYPE_BACKUP = "BACKUP";
+   
+    static final String TYPE_MERKLE = "MERKLE";
+   
+    static final String TYPE_MERKLE_LEAVES = "MERKLE_LEAVES";
+   
+    
+    /**
+     * Returns the hit, miss and eviction counters of the local partition of this node. An unbounded node reports
+     * {@link EvictionStats#EMPTY}.
+     */
+    public EvictionStats getEvictionStats();
+   
+    
+    /**
+     * Returns the keys of the local partition of this node that get an outsized share of its requests, and the
+     * counters of the read replicas of hot keys handed out and held by this node.
+     */
+    public HotKeyStats getHotKeyStats();
+   
+    
+    /**
+     * Returns the number of entries across all nodes. When {@code strict} is false, the entry counts the other nodes
+     * gossip on their heartbeats are used, which costs no network calls but may be slightly out of date; this is what
+     * {@link #size()} does. When {@code strict} is true, every node is asked for its exact count.
+     */
+    public int size(boolean strict);
+   
+    
+    /**
+     * Ships the processor to the node owning the key and runs it atomically against the entry there. Only the
+     * result of the processor travels back, so a read-modify-write costs a single round trip.
+     */
+    public <R> R executeOnKey(K key, EntryProcessor<K, V, R> processor);
+   
+    
+    /**
+     * Waits until every put buffered by this node for write-behind was delivered to the nodes owning the keys. Does
+     * nothing without write-behind.
+     *
+     * @throws WriteBehindException if buffered puts could not be delivered since the previous flush
+     */
+    public void flush();
+   
+    
+    /**
+     * Returns the entries matching the predicate. The predicate is sent to every node, which scans its local entries
+     * in parallel and sends back only the matches.
+     */
+    public Set<Map.Entry<K, V>> query(SerializablePredicate<K, V> predicate);
+   
+    
+    /**
+     * Aggregates every entry of the map. Each node maps its local entries to partial results and combines them in
+     * parallel; only the combined partial result of each node is sent back, where the partial results are combined
+     * once more and handed to the reducer.
+     *
+     * @param mapper Maps an entry to a partial result, or to {@code null} to skip the entry
+     * @param combiner Combines two partial results; it must be associative
+     * @param reducer Turns the combined result of the whole map into the final result, on the calling node. It is
+     *        given {@code null} if no entry was mapped.
+     */
+    public <A, R> R aggregate(SerializableBiFunction<K, V, A> mapper, SerializableBinaryOperator<A> combiner, Function<A, R> reducer);
+   
+    
+    /**
+     * Registers a named index on an attribute of the values. Every node indexes its local entries and keeps the index
+     * up to date as entries change, so lookups by the attribute no longer scan the map.
+     */
+    public void addIndex(String name, SerializableFunction<V, ?> extractor);
+   
+    
+    /**
+     * Returns the entries whose indexed attribute equals the given value.
+     */
+    public Set<Map.Entry<K, V>> findByIndex(String name, Object value);
+   
+    
+    /**
+     * Returns the entries whose indexed attribute lies between the bounds, both inclusive. A {@code null} bound is
+     * unbounded.
+     */
+    public Set<Map.Entry<K, V>> findByIndexRange(String name, Comparable<?> from, Comparable<?> to);
 }
\ No newline at end of file
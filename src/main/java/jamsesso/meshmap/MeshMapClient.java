@@ -0,0 +1,219 @@
+package jamsesso.meshmap;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+* A client of a cluster, for processes that use the map without storing any of it, such as short-lived jobs.
+* <p/>
+* The client learns the nodes of the cluster from the seed nodes, keeps them up to date by asking a node for its view
+* every heartbeat interval, and sends every request straight to the owner of its key. It is not a member: it runs no
+* server, takes no keys, and its coming and going moves no data. When a node answers that a key moved and knows of a
+* newer epoch, the client asks for the membership at once.
+*/
+public class MeshMapClient extends AbstractMeshMapCluster
+{
+    private static final Logger LOG = Logger.getLogger(MeshMapClient.class.getName());
+
+    // A client has no address of its own. The wildcard address tells the nodes that it cannot be called back.
+    protected static final Node CLIENT = new Node(new InetSocketAddress("0.0.0.0", 0));
+
+    protected final List<Node> seeds;
+
+    protected volatile List<Node> nodes = Collections.emptyList();
+
+    protected ScheduledExecutorService executor;
+
+
+    public MeshMapClient(final Collection<Node> seeds)
+    {
+        super(CLIENT);
+
+        if (seeds == null || seeds.isEmpty())
+        {
+            throw new IllegalArgumentException("Cannot initialize MeshMap Client, at least one seed node must be provided");
+        }
+
+        this.seeds = new ArrayList<>(seeds);
+    }
+
+
+    public MeshMapClient(final Node... seeds)
+    {
+        this(Arrays.asList(seeds));
+    }
+
+
+    @Override
+    public List<Node> getAllNodes()
+    {
+        return nodes;
+    }
+
+
+    /**
+     * Connects to the cluster. Unlike a node, the client does not register itself nor take any keys.
+     */
+    @Override
+    @SuppressWarnings({"cast", "unchecked"})
+    public synchronized <K, V> MeshMap<K, V> join()
+    throws MeshMapException
+    {
+        if (this.map != null)
+        {
+            return (MeshMap<K, V>) this.map;
+        }
+
+        // The server is only used to send requests, it never listens.
+        server = new MeshMapServer(this, self, getConfig());
+        server.getMetrics().start(getConfig().getMetricsReporter(), getConfig().getMetricsReportInterval());
+        MeshMapImpl<K, V> map = new MeshMapImpl<>(this, server, self, getConfig());
+
+        refresh();
+
+        if (nodes.isEmpty())
+        {
+            server.close();
+            server = null;
+            throw new MeshMapException("Unable to connect to the cluster, no seed node answered: " + seeds);
+        }
+
+        this.map = map;
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MeshMap Client");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::refresh, getConfig().getHeartbeatInterval(), getConfig().getHeartbeatInterval(), TimeUnit.MILLISECONDS);
+
+        return map;
+    }
+
+
+    @Override
+    public <T> T register(Node node)
+    throws MeshMapException
+    {
+        throw new MeshMapException("A client does not take part in membership and cannot register node " + node);
+    }
+
+
+    @Override
+    public <T> T unregister(Node node)
+    {
+        return null;
+    }
+
+
+    /**
+     * A client owns no keys, so it has no successor to hand them to.
+     */
+    @Override
+    public Node getSuccessorNode()
+    {
+        return null;
+    }
+
+
+    /**
+     * Asks a node of the cluster, or a seed node if none answers, for its view of the membership.
+     */
+    @Override
+    protected void refresh()
+    {
+        List<Node> candidates = new ArrayList<>(nodes);
+        Collections.shuffle(candidates, ThreadLocalRandom.current());
+        candidates.addAll(seeds);
+
+        MeshMapServer server = this.server;
+
+        if (server == null)
+        {
+            return;
+        }
+
+        for (Node candidate : candidates)
+        {
+            try
+            {
+                Message response = server.message(candidate, new Message(MeshMap.TYPE_MEMBERS));
+
+                if (MeshMap.TYPE_MEMBERS.equals(response.getType()))
+                {
+                    update(response.getPayload(MeshMapImpl.Membership.class));
+                    return;
+                }
+            } catch (IOException e)
+            {
+                LOG.log(Level.FINE, "Unable to get the membership from node " + candidate, e);
+            }
+        }
+
+        LOG.warning("Unable to get the membership from any node of the cluster");
+    }
+
+
+    protected synchronized void update(MeshMapImpl.Membership membership)
+    {
+        List<Node> previous = nodes;
+        List<Node> current = new ArrayList<>(Arrays.asList(membership.getNodes()));
+        current.sort(Comparator.comparingInt(Node::getId));
+
+        nodes = Collections.unmodifiableList(current);
+        epoch.accumulateAndGet(membership.getEpoch(), Math::max);
+
+        Set<Node> joined = new HashSet<>(current);
+        joined.removeAll(previous);
+        Set<Node> left = new HashSet<>(previous);
+        left.removeAll(current);
+
+        // The epoch is the one of the cluster, so the listeners are told without bumping it.
+        for (MembershipListener listener : membershipListeners)
+        {
+            joined.forEach(listener::memberJoined);
+            left.forEach(listener::memberLeft);
+        }
+    }
+
+
+    @Override
+    public synchronized void close()
+    throws Exception
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        if (server != null)
+        {
+            server.close();
+            server = null;
+        }
+
+        map = null;
+    }
+
+
+    @java.lang.Override
+    public String toString()
+    {
+        return "MeshMapClient(Seeds=" + seeds + ", Nodes=" + nodes.size() + ", Epoch=" + getEpoch() + ")";
+    }
+}
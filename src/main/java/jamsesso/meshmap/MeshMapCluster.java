@@ -7,6 +7,9 @@ public interface MeshMapCluster extends AutoCloseable
     public Node getSelf();
    
     
+    public MeshMapConfig getConfig();
+   
+    
     public List<Node> getAllNodes();
    
  
@@ -21,12 +24,38 @@ public interface MeshMapCluster extends AutoCloseable
     public <T> T unregister(Node node);
    
     
+    /**
+     * Tells the cluster that the failure detector of this node declared the node dead. A cluster whose membership
+     * protocol finds out on its own whether a node is down only starts to suspect it; others unregister it.
+     */
+    public void suspect(Node node);
+   
+    
     public Node getNodeForKey(Object key);
    
     
     public Node getSuccessorNode();
    
     
+    /**
+     * Returns the ring epoch of this node, which increases with every membership change it sees.
+     */
+    public long getEpoch();
+   
+    
+    /**
+     * Tells this node about the epoch of another node. A higher epoch means the other node has seen membership
+     * changes this one may have missed.
+     */
+    public void observeEpoch(long epoch);
+   
+    
+    public void addMembershipListener(MembershipListener listener);
+   
+    
+    public void removeMembershipListener(MembershipListener listener);
+   
+    
     public Message messageHI();
    
     
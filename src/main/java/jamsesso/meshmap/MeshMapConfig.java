@@ -0,0 +1,756 @@
+package jamsesso.meshmap;
+
+import java.util.function.Function;
+
+import jamsesso.meshmap.metrics.MetricsReporter;
+import jamsesso.meshmap.utils.cache.Weigher;
+
+/**
+ * Tunable settings of a node. The configuration is read when the node joins the cluster, so it must be changed
+ * before {@link MeshMapCluster#join()} is called.
+ */
+public class MeshMapConfig
+{
+    protected long maximumWeight = 0L;
+
+    protected Weigher<Object, Object> weigher = Weigher.singleton();
+
+    protected long heartbeatInterval = 1000L;
+
+    protected int gossipFanout = 3;
+
+    protected long sizeStaleness = 5000L;
+
+    protected boolean valueIndex = true;
+
+    protected boolean compression = true;
+
+    protected int compressionThreshold = 8192;
+
+    protected boolean metrics = false;
+
+    protected MetricsReporter metricsReporter = null;
+
+    protected long metricsReportInterval = 60000L;
+
+    protected double traceSampleRate = 0.0;
+
+    protected long slowOperationThreshold = 0L;
+
+    protected double suspectPhi = 5.0;
+
+    protected double deadPhi = 10.0;
+
+    protected int connectTimeout = 2000;
+
+    protected int readTimeout = 30000;
+
+    protected int serverThreads = 16;
+
+    protected int serverQueue = 64;
+
+    protected long queueDelayTarget = 5L;
+   
+    protected int controlThreads = 2;
+   
+    protected int bulkThreads = 2;
+
+    protected int retryAttempts = 3;
+
+    protected long retryBackoff = 20L;
+
+    protected long retryMaximumBackoff = 1000L;
+
+    protected long requestDeadline = 10000L;
+
+    protected int circuitBreakerThreshold = 5;
+
+    protected long circuitBreakerOpenTime = 2000L;
+
+    protected int swimIndirectProbes = 3;
+
+    protected long swimSuspicionTimeout = 5000L;
+
+    protected double hotKeyShare = 0.01;
+
+    protected int hotKeyMaximum = 16;
+
+    protected long hotKeyReplicaTtl = 0L;
+
+    protected Function<Object, Object> loader = null;
+
+    protected int writeBehindBatchSize = 0;
+
+    protected long writeBehindLinger = 1000L;
+
+    protected long antiEntropyInterval = 0L;
+
+
+    /**
+     * Bounds the local partition of the node to a maximum number of entries. Once the bound is reached, entries are
+     * evicted using the W-TinyLFU policy, turning the map into a distributed cache.
+     */
+    public MeshMapConfig maximumEntries(long maximumEntries)
+    {
+        return maximumWeight(maximumEntries, Weigher.singleton());
+    }
+
+
+    /**
+     * Bounds the local partition of the node to an estimated number of bytes of keys and values.
+     */
+    public MeshMapConfig maximumBytes(long maximumBytes)
+    {
+        return maximumWeight(maximumBytes, Weigher.estimatedBytes());
+    }
+
+
+    /**
+     * Bounds the local partition of the node to a maximum total weight, as calculated by the given weigher.
+     */
+    public MeshMapConfig maximumWeight(long maximumWeight, Weigher<Object, Object> weigher)
+    {
+        if (maximumWeight <= 0)
+        {
+            throw new IllegalArgumentException("Maximum weight must be positive");
+        }
+
+        if (weigher == null)
+        {
+            throw new IllegalArgumentException("Weigher must not be null");
+        }
+
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        return this;
+    }
+
+
+    /**
+     * Sets how often, in milliseconds, a node gossips its state to a few random peers.
+     */
+    public MeshMapConfig heartbeatInterval(long heartbeatInterval)
+    {
+        if (heartbeatInterval <= 0)
+        {
+            throw new IllegalArgumentException("Heartbeat interval must be positive");
+        }
+
+        this.heartbeatInterval = heartbeatInterval;
+        return this;
+    }
+
+
+    /**
+     * Sets the number of random peers a node gossips with on every heartbeat.
+     */
+    public MeshMapConfig gossipFanout(int gossipFanout)
+    {
+        if (gossipFanout <= 0)
+        {
+            throw new IllegalArgumentException("Gossip fanout must be positive");
+        }
+
+        this.gossipFanout = gossipFanout;
+        return this;
+    }
+
+
+    /**
+     * Sets how old, in milliseconds, the gossiped entry count of a node may be for {@link MeshMap#size()} to use it.
+     * When any count is older, size() falls back to asking every node. Zero makes size() always exact.
+     */
+    public MeshMapConfig sizeStaleness(long sizeStaleness)
+    {
+        if (sizeStaleness < 0)
+        {
+            throw new IllegalArgumentException("Size staleness must not be negative");
+        }
+
+        this.sizeStaleness = sizeStaleness;
+        return this;
+    }
+
+
+    /**
+     * Enables or disables the index of value hashes each node keeps so that {@link MeshMap#containsValue(Object)} does
+     * not scan the partition. Disabling it saves the memory of the index at the cost of a scan per call.
+     */
+    public MeshMapConfig valueIndex(boolean valueIndex)
+    {
+        this.valueIndex = valueIndex;
+        return this;
+    }
+
+
+    /**
+     * Enables or disables the compression of large payloads. Compression is negotiated between every pair of nodes,
+     * so nodes with different settings still understand each other.
+     */
+    public MeshMapConfig compression(boolean compression)
+    {
+        this.compression = compression;
+        return this;
+    }
+
+
+    /**
+     * Sets the payload size, in bytes, from which payloads are compressed.
+     */
+    public MeshMapConfig compressionThreshold(int compressionThreshold)
+    {
+        if (compressionThreshold < 0)
+        {
+            throw new IllegalArgumentException("Compression threshold must not be negative");
+        }
+
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
+
+
+    /**
+     * Enables or disables the metrics of the node. When enabled, they are published through JMX.
+     */
+    public MeshMapConfig metrics(boolean metrics)
+    {
+        this.metrics = metrics;
+        return this;
+    }
+
+
+    /**
+     * Enables the metrics of the node and hands them to the reporter every {@code interval} milliseconds.
+     */
+    public MeshMapConfig metricsReporter(MetricsReporter metricsReporter, long interval)
+    {
+        if (metricsReporter == null)
+        {
+            throw new IllegalArgumentException("Metrics reporter must not be null");
+        }
+
+        if (interval <= 0)
+        {
+            throw new IllegalArgumentException("Metrics report interval must be positive");
+        }
+
+        this.metrics = true;
+        this.metricsReporter = metricsReporter;
+        this.metricsReportInterval = interval;
+        return this;
+    }
+
+
+    /**
+     * Sets the fraction of requests, between 0 and 1, whose phases are traced across nodes, logged at FINE level and
+     * recorded as Java Flight Recorder events.
+     */
+    public MeshMapConfig traceSampleRate(double traceSampleRate)
+    {
+        if (traceSampleRate < 0.0 || traceSampleRate > 1.0)
+        {
+            throw new IllegalArgumentException("Trace sample rate must be between 0 and 1");
+        }
+
+        this.traceSampleRate = traceSampleRate;
+        return this;
+    }
+
+
+    /**
+     * Logs every request to another node that takes longer than the given number of milliseconds, with the time spent
+     * in each phase. Zero disables the log.
+     */
+    public MeshMapConfig slowOperationThreshold(long slowOperationThreshold)
+    {
+        if (slowOperationThreshold < 0)
+        {
+            throw new IllegalArgumentException("Slow operation threshold must not be negative");
+        }
+
+        this.slowOperationThreshold = slowOperationThreshold;
+        return this;
+    }
+
+
+    /**
+     * Sets how sure the failure detector must be that a node is down before it is suspected and before it is declared
+     * dead. A phi of 1 means a 10% chance of being wrong, 2 means 1%, and so on. A dead node is removed from the
+     * cluster until it sends a heartbeat again.
+     */
+    public MeshMapConfig failureDetector(double suspectPhi, double deadPhi)
+    {
+        if (suspectPhi <= 0 || deadPhi < suspectPhi)
+        {
+            throw new IllegalArgumentException("Phi thresholds must be positive and the dead threshold must not be lower than the suspect threshold");
+        }
+
+        this.suspectPhi = suspectPhi;
+        this.deadPhi = deadPhi;
+        return this;
+    }
+
+
+    /**
+     * Sets how long, in milliseconds, to wait for a connection to another node.
+     */
+    public MeshMapConfig connectTimeout(int connectTimeout)
+    {
+        if (connectTimeout <= 0)
+        {
+            throw new IllegalArgumentException("Connect timeout must be positive");
+        }
+
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+
+    /**
+     * Sets how long, in milliseconds, to wait for the next bytes of a request or of a response before giving up on
+     * the connection. Zero waits forever.
+     */
+    public MeshMapConfig readTimeout(int readTimeout)
+    {
+        if (readTimeout < 0)
+        {
+            throw new IllegalArgumentException("Read timeout must not be negative");
+        }
+
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+
+    /**
+     * Sets how many requests a node handles at once, and how many more may wait for a thread. Within that bound, the
+     * number of requests let in adapts so that they wait in the queue about {@code queueDelayTarget} milliseconds at
+     * most; the others are answered BUSY at once, and their senders back off and retry.
+     */
+    public MeshMapConfig admission(int threads, int queue, long queueDelayTarget)
+    {
+        if (threads <= 0 || queue < 0 || queueDelayTarget <= 0)
+        {
+            throw new IllegalArgumentException("Threads and queue delay target must be positive and the queue must not be negative");
+        }
+
+        this.serverThreads = threads;
+        this.serverQueue = queue;
+        this.queueDelayTarget = queueDelayTarget;
+        return this;
+    }
+
+
+    /**
+     * Sets how many threads handle control messages (membership, heartbeats and failure detection), and how many handle
+     * bulk messages (scans, and moving keys between nodes). Each lane has a pool of its own besides the one for
+     * operations on keys, so that neither waits behind the others.
+     */
+    public MeshMapConfig lanes(int controlThreads, int bulkThreads)
+    {
+        if (controlThreads <= 0 || bulkThreads <= 0)
+        {
+            throw new IllegalArgumentException("Control and bulk threads must be positive");
+        }
+       
+        this.controlThreads = controlThreads;
+        this.bulkThreads = bulkThreads;
+        return this;
+    }
+   
+    
+    /**
+     * Sets how many times a request to another node is attempted, and the range of the jittered exponential backoff
+     * between attempts in milliseconds. Requests that are not idempotent are only retried when the connection failed or the
+     * node was busy.
+     */
+    public MeshMapConfig retry(int attempts, long backoff, long maximumBackoff)
+    {
+        if (attempts <= 0 || backoff < 0 || maximumBackoff < backoff)
+        {
+            throw new IllegalArgumentException("Attempts must be positive and backoffs must not be negative");
+        }
+
+        this.retryAttempts = attempts;
+        this.retryBackoff = backoff;
+        this.retryMaximumBackoff = maximumBackoff;
+        return this;
+    }
+
+
+    /**
+     * Sets how long, in milliseconds, a request to another node keeps being retried. Zero retries without a deadline.
+     */
+    public MeshMapConfig requestDeadline(long requestDeadline)
+    {
+        if (requestDeadline < 0)
+        {
+            throw new IllegalArgumentException("Request deadline must not be negative");
+        }
+
+        this.requestDeadline = requestDeadline;
+        return this;
+    }
+
+
+    /**
+     * Sets after how many consecutive failures requests to a node are refused at once, and for how many milliseconds.
+     */
+    public MeshMapConfig circuitBreaker(int threshold, long openTime)
+    {
+        if (threshold <= 0 || openTime <= 0)
+        {
+            throw new IllegalArgumentException("Circuit breaker threshold and open time must be positive");
+        }
+
+        this.circuitBreakerThreshold = threshold;
+        this.circuitBreakerOpenTime = openTime;
+        return this;
+    }
+
+
+    /**
+     * Sets, for a {@link SwimMeshMapCluster}, how many members are asked to ping a member that did not answer, and
+     * for how many milliseconds a suspected member may refute the suspicion before it is declared dead.
+     */
+    public MeshMapConfig swim(int indirectProbes, long suspicionTimeout)
+    {
+        if (indirectProbes < 0 || suspicionTimeout <= 0)
+        {
+            throw new IllegalArgumentException("Indirect probes must not be negative and the suspicion timeout must be positive");
+        }
+
+        this.swimIndirectProbes = indirectProbes;
+        this.swimSuspicionTimeout = suspicionTimeout;
+        return this;
+    }
+
+
+    /**
+     * Sets the share of the requests a node handles, between 0 and 1, from which one of its keys is hot, and how many
+     * keys may be hot at once. Hot keys are listed by {@link MeshMap#getHotKeyStats()}.
+     */
+    public MeshMapConfig hotKeys(double share, int maximum)
+    {
+        if (share <= 0 || share > 1 || maximum <= 0)
+        {
+            throw new IllegalArgumentException("Hot key share must be between 0 and 1 and the maximum must be positive");
+        }
+
+        this.hotKeyShare = share;
+        this.hotKeyMaximum = maximum;
+        return this;
+    }
+
+
+    /**
+     * Hands a read replica of hot keys to the nodes reading them, which they keep for the given number of milliseconds
+     * unless the key is written in the meantime. Until the invalidation of a write arrives, a replica may be read with
+     * its previous value. Zero disables replicas.
+     */
+    public MeshMapConfig hotKeyReplicas(long ttl)
+    {
+        if (ttl < 0)
+        {
+            throw new IllegalArgumentException("Hot key replica TTL must not be negative");
+        }
+
+        this.hotKeyReplicaTtl = ttl;
+        return this;
+    }
+
+
+    /**
+     * Loads the keys missing from the map, such as from a database, on the node owning them. The loaded value is
+     * stored and returned by {@code get}; {@code null} means the key does not exist. Concurrent reads of the same
+     * missing key call the loader once. Every node needs the same loader.
+     */
+    public MeshMapConfig loader(Function<Object, Object> loader)
+    {
+        this.loader = loader;
+        return this;
+    }
+
+
+    /**
+     * Buffers puts to other nodes instead of waiting for them, and sends the buffer of each node as one message once it
+     * holds {@code batchSize} entries or its oldest entry waited {@code linger} microseconds. Other nodes see a put
+     * once it is delivered; {@link MeshMap#flush()} waits for delivery and reports the puts that failed. Zero
+     * disables write-behind.
+     */
+    public MeshMapConfig writeBehind(int batchSize, long linger)
+    {
+        if (batchSize < 0 || linger <= 0)
+        {
+            throw new IllegalArgumentException("Batch size must not be negative and linger must be positive");
+        }
+
+        this.writeBehindBatchSize = batchSize;
+        this.writeBehindLinger = linger;
+        return this;
+    }
+
+
+    /**
+     * Keeps a backup of every entry on the successor of its owner, which takes the entries over when the owner dies.
+     * Backups are written asynchronously, and every {@code antiEntropyInterval} milliseconds each node compares its
+     * entries with their backups and repairs the ones that differ. Zero disables backups.
+     */
+    public MeshMapConfig backups(long antiEntropyInterval)
+    {
+        if (antiEntropyInterval < 0)
+        {
+            throw new IllegalArgumentException("Anti-entropy interval must not be negative");
+        }
+
+        this.antiEntropyInterval = antiEntropyInterval;
+        return this;
+    }
+
+
+    public boolean isBounded()
+    {
+        return maximumWeight > 0;
+    }
+
+
+    public long getMaximumWeight()
+    {
+        return maximumWeight;
+    }
+
+
+    public Weigher<Object, Object> getWeigher()
+    {
+        return weigher;
+    }
+
+
+    public long getHeartbeatInterval()
+    {
+        return heartbeatInterval;
+    }
+
+
+    public int getGossipFanout()
+    {
+        return gossipFanout;
+    }
+
+
+    public long getSizeStaleness()
+    {
+        return sizeStaleness;
+    }
+
+
+    public boolean isValueIndex()
+    {
+        return valueIndex;
+    }
+
+
+    public boolean isCompression()
+    {
+        return compression;
+    }
+
+
+    public int getCompressionThreshold()
+    {
+        return compressionThreshold;
+    }
+
+
+    public boolean isMetrics()
+    {
+        return metrics;
+    }
+
+
+    public MetricsReporter getMetricsReporter()
+    {
+        return metricsReporter;
+    }
+
+
+    public long getMetricsReportInterval()
+    {
+        return metricsReportInterval;
+    }
+
+
+    public double getTraceSampleRate()
+    {
+        return traceSampleRate;
+    }
+
+
+    public long getSlowOperationThreshold()
+    {
+        return slowOperationThreshold;
+    }
+
+
+    public double getSuspectPhi()
+    {
+        return suspectPhi;
+    }
+
+
+    public double getDeadPhi()
+    {
+        return deadPhi;
+    }
+
+
+    public int getConnectTimeout()
+    {
+        return connectTimeout;
+    }
+
+
+    public int getReadTimeout()
+    {
+        return readTimeout;
+    }
+
+
+    public int getServerThreads()
+    {
+        return serverThreads;
+    }
+
+
+    public int getServerQueue()
+    {
+        return serverQueue;
+    }
+
+
+    public long getQueueDelayTarget()
+    {
+        return queueDelayTarget;
+    }
+
+
+    public int getControlThreads()
+    {
+        return controlThreads;
+    }
+   
+    
+    public int getBulkThreads()
+    {
+        return bulkThreads;
+    }
+   
+    
+    public int getRetryAttempts()
+    {
+        return retryAttempts;
+    }
+
+
+    public long getRetryBackoff()
+    {
+        return retryBackoff;
+    }
+
+
+    public long getRetryMaximumBackoff()
+    {
+        return retryMaximumBackoff;
+    }
+
+
+    public long getRequestDeadline()
+    {
+        return requestDeadline;
+    }
+
+
+    public int getCircuitBreakerThreshold()
+    {
+        return circuitBreakerThreshold;
+    }
+
+
+    public long getCircuitBreakerOpenTime()
+    {
+        return circuitBreakerOpenTime;
+    }
+
+
+    public int getSwimIndirectProbes()
+    {
+        return swimIndirectProbes;
+    }
+
+
+    public long getSwimSuspicionTimeout()
+    {
+        return swimSuspicionTimeout;
+    }
+
+
+    public double getHotKeyShare()
+    {
+        return hotKeyShare;
+    }
+
+
+    public int getHotKeyMaximum()
+    {
+        return hotKeyMaximum;
+    }
+
+
+    public long getHotKeyReplicaTtl()
+    {
+        return hotKeyReplicaTtl;
+    }
+
+
+    public Function<Object, Object> getLoader()
+    {
+        return loader;
+    }
+
+
+    public boolean isWriteBehind()
+    {
+        return writeBehindBatchSize > 0;
+    }
+
+
+    public int getWriteBehindBatchSize()
+    {
+        return writeBehindBatchSize;
+    }
+
+
+    public long getWriteBehindLinger()
+    {
+        return writeBehindLinger;
+    }
+
+
+    public boolean isBackups()
+    {
+        return antiEntropyInterval > 0;
+    }
+
+
+    public long getAntiEntropyInterval()
+    {
+        return antiEntropyInterval;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "MeshMapConfig(MaximumWeight=" + maximumWeight + ", HeartbeatInterval=" + heartbeatInterval + ", GossipFanout=" + gossipFanout + ", SizeStaleness=" + sizeStaleness + ", ValueIndex=" + valueIndex + ", Compression=" + compression + ", CompressionThreshold=" + compressionThreshold + ", Metrics=" + metrics + ", TraceSampleRate=" + traceSampleRate + ", SlowOperationThreshold=" + slowOperationThreshold + ", SuspectPhi=" + suspectPhi + ", DeadPhi=" + deadPhi + ", ConnectTimeout=" + connectTimeout + ", ReadTimeout=" + readTimeout + ", ServerThreads=" + serverThreads + ", ServerQueue=" + serverQueue + ", ControlThreads=" + controlThreads + ", BulkThreads=" + bulkThreads + ", RetryAttempts=" + retryAttempts + ", RequestDeadline=" + requestDeadline + ", HotKeyShare=" + hotKeyShare + ", HotKeyReplicaTtl=" + hotKeyReplicaTtl + ", WriteBehindBatchSize=" + writeBehindBatchSize + ", WriteBehindLinger=" + writeBehindLinger + ", AntiEntropyInterval=" + antiEntropyInterval + ")";
+    }
+}
@@ -3,17 +3,32 @@ package jamsesso.meshmap;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
  
+import jamsesso.meshmap.metrics.Counter;
+import jamsesso.meshmap.metrics.Metrics;
+import jamsesso.meshmap.metrics.Timer;
+import jamsesso.meshmap.utils.cache.EvictionStats;
+import jamsesso.meshmap.utils.concurrent.SingleFlight;
+ 
 public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
 {
     private static Logger LOG = Logger.getLogger(MeshMapImpl.class.getName());
@@ -24,20 +39,127 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
    
     protected final Node self;
    
-    protected final Map<Object, Object> delegate;
+    protected final LocalPartition delegate;
+   
+    protected final MeshMapConfig config;
+   
+    protected final Heartbeat heartbeat;
+   
+    protected final ConcurrentMap<String, SecondaryIndex> indexes = new ConcurrentHashMap<>();
+   
+    protected final SecondaryIndex valueIndex;
+   
+    protected final Metrics metrics;
+   
+    protected final HotKeys hotKeys;
+   
+    protected final ReplicaLeases replicaLeases;
+   
+    protected final ReplicaCache replicaCache;
+   
+    protected final Counter replicaHits;
+   
+    protected final Counter invalidations;
+   
+    protected final SingleFlight<Object, Object> gets = new SingleFlight<>();
+   
+    protected final SingleFlight<Object, Object> loads = new SingleFlight<>();
+   
+    protected final WriteBehind writeBehind;
+   
+    protected final Backups backups;
+   
+    static
+    {
+        // Read-only requests, and requests whose repetition leaves the map as it was. PUT, REMOVE and CLEAR are not: a
+        // repeated PUT may overwrite a newer value, a repeated REMOVE answers with the wrong previous value, and a
+        // repeated CLEAR wipes the puts made since the first one.
+        Message.idempotent(TYPE_GET, TYPE_KEY_SET, TYPE_SIZE, TYPE_CONTAINS_KEY, TYPE_CONTAINS_VALUE, TYPE_DUMP_ENTRIES, TYPE_QUERY, TYPE_AGGREGATE, TYPE_ADD_INDEX, TYPE_INDEX_QUERY, TYPE_GET_INDEX, TYPE_MEMBERS, TYPE_INVALIDATE, TYPE_BACKUP, TYPE_MERKLE, TYPE_MERKLE_LEAVES);
+        Message.lane(Message.Lane.CONTROL, TYPE_MEMBERS, TYPE_INVALIDATE);
+        Message.lane(Message.Lane.BULK, TYPE_KEY_SET, TYPE_DUMP_ENTRIES, TYPE_QUERY, TYPE_AGGREGATE, TYPE_ADD_INDEX, TYPE_INDEX_QUERY, TYPE_PUT_ALL, TYPE_BACKUP, TYPE_MERKLE, TYPE_MERKLE_LEAVES);
+    }
    
     
     public MeshMapImpl(MeshMapCluster cluster, MeshMapServer server, Node self)
+    {
+        this(cluster, server, self, new MeshMapConfig());
+    }
+   
+    
+    public MeshMapImpl(MeshMapCluster cluster, MeshMapServer server, Node self, MeshMapConfig config)
     {
         this.cluster = new CachedMeshMapCluster(cluster);
         this.server = server;
         this.self = self;
-        this.delegate = new ConcurrentHashMap<>();
+        this.config = config;
+        this.delegate = new LocalPartition(config);
+       
+        if (config.isValueIndex())
+        {
+            // Indexes the hash of every value, so containsValue looks up candidates instead of scanning.
+            this.valueIndex = new SecondaryIndex("hashCode", Object::hashCode, false);
+            this.delegate.addListener(valueIndex);
+        } else
+        {
+            this.valueIndex = null;
+        }
+        this.heartbeat = new Heartbeat(self, this.cluster, server, () -> delegate.size(), config);
+        this.metrics = server.getMetrics();
+       
+        metrics.gauge("partition.size", delegate::size);
+        metrics.gauge("partition.evictions", () -> delegate.getEvictionStats().getEvictionCount());
+        metrics.gauge("get.coalesced", gets::getCoalescedCount);
+        metrics.gauge("loader.coalesced", loads::getCoalescedCount);
+       
+        this.hotKeys = new HotKeys(config.getHotKeyShare(), config.getHotKeyMaximum());
+        this.replicaHits = metrics.counter("hotKeys.replicaHits");
+        this.invalidations = metrics.counter("hotKeys.invalidations");
+        metrics.gauge("hotKeys.count", () -> hotKeys.getHotKeys().size());
+       
+        if (config.getHotKeyReplicaTtl() > 0)
+        {
+            this.replicaLeases = new ReplicaLeases(server, config.getHotKeyReplicaTtl(), invalidations);
+            this.replicaCache = new ReplicaCache(config.getHotKeyReplicaTtl());
+            this.delegate.addListener(replicaLeases);
+            metrics.gauge("hotKeys.replicas", replicaCache::size);
+        } else
+        {
+            this.replicaLeases = null;
+            this.replicaCache = null;
+        }
+       
+        this.writeBehind = config.isWriteBehind() ? new WriteBehind(this::putAll, config.getWriteBehindBatchSize(), config.getWriteBehindLinger(), metrics) : null;
+       
+        if (config.isBackups())
+        {
+            this.backups = new Backups(self, this.cluster, server, delegate, config.getAntiEntropyInterval(), metrics);
+            this.delegate.addListener(backups);
+        } else
+        {
+            this.backups = null;
+        }
+       
+        server.getFailureDetector().addListener(this::nodeStatusChanged);
     }
    
     
     @Override
     public Message handle(Message message)
+    {
+        Timer timer = metrics.timer("handle", message.getType());
+        long start = timer.start();
+       
+        try
+        {
+            return dispatch(message);
+        } finally
+        {
+            timer.stop(start);
+        }
+    }
+   
+    
+    protected Message dispatch(Message message)
     {
         switch (message.getType())
         {
@@ -45,32 +167,80 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
             {
                 try
                 {
-                    cluster.register(message.getNode());
-                    return cluster.messageACK();
+                    if (!cluster.getAllNodes().contains(message.getNode()))
+                    {
+                        cluster.register(message.getNode());
+                    }
                 } catch (MeshMapException e)
                 {
-                    LOG.log(Level.WARNING, "Could not register node " + message.getNode(), e);
+                    // Usually the node has registered itself already.
+                    LOG.log(Level.FINE, "Could not register node " + message.getNode(), e);
                 }
+                return cluster.messageACK();
             }
             case Message.TYPE_BYE:
             {
+                server.getFailureDetector().forget(message.getNode());
                 cluster.unregister(message.getNode());
                 return cluster.messageACK();
             }
+            case Message.TYPE_HEARTBEAT:
+            {
+                return heartbeat.handle(message);
+            }
+            case TYPE_MEMBERS:
+            {
+                return new Message(TYPE_MEMBERS, new Membership(cluster.getAllNodes().toArray(new Node[0]), cluster.getEpoch()));
+            }
             case TYPE_GET:
             {
                 Object key = message.getPayload(Object.class);
-                return new Message(TYPE_GET, delegate.get(key));
+                Message moved = redirect(key, message);
+                if (moved != null)
+                {
+                    return moved;
+                }
+               
+                // The lease is granted before the read, so that any write after the read invalidates the replica.
+                boolean replicated = replicaLeases != null && hotKeys.isHot(key) && replicaLeases.grant(key, message.getNode());
+                return new Message(replicated ? TYPE_GET_REPLICA : TYPE_GET, read(key));
             }
             case TYPE_PUT:
             {
                 Entry entry = message.getPayload(Entry.class);
+                Message moved = redirect(entry.getKey(), message);
+                if (moved != null)
+                {
+                    return moved;
+                }
                 delegate.put(entry.getKey(), entry.getValue());
                 return cluster.messageACK();
             }
+            case TYPE_PUT_ALL:
+            {
+                // Entries of keys this node does not own are sent back, to be written one by one at their owner.
+                List<Entry> moved = new ArrayList<>();
+               
+                for (Entry entry : message.getPayload(Entry[].class))
+                {
+                    if (redirect(entry.getKey(), message) != null)
+                    {
+                        moved.add(entry);
+                    } else
+                    {
+                        delegate.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                return new Message(TYPE_PUT_ALL, moved.toArray(new Entry[0]));
+            }
             case TYPE_REMOVE:
             {
                 Object key = message.getPayload(Object.class);
+                Message moved = redirect(key, message);
+                if (moved != null)
+                {
+                    return moved;
+                }
                 return new Message(TYPE_REMOVE, delegate.remove(key));
             }
             case TYPE_CLEAR:
@@ -90,12 +260,17 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
             case TYPE_CONTAINS_KEY:
             {
                 Object key = message.getPayload(Object.class);
+                Message moved = redirect(key, message);
+                if (moved != null)
+                {
+                    return moved;
+                }
                 return delegate.containsKey(key) ? cluster.messageYES() : cluster.messageNO();
             }
             case TYPE_CONTAINS_VALUE:
             {
                 Object value = message.getPayload(Object.class);
-                return delegate.containsKey(value) ? cluster.messageYES() : cluster.messageNO();
+                return containsValueLocally(value) ? cluster.messageYES() : cluster.messageNO();
             }
             case TYPE_DUMP_ENTRIES:
             {
@@ -103,6 +278,155 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
                
                 return new Message(TYPE_DUMP_ENTRIES, entries);
             }
+            case TYPE_EXECUTE_ON_KEY:
+            {
+                Entry entry;
+               
+                try
+                {
+                    entry = message.getPayload(Entry.class);
+                } catch (RuntimeException e)
+                {
+                    LOG.log(Level.FINE, "Unable to read entry processor", e);
+                    return messageERR(e);
+                }
+               
+                Message moved = redirect(entry.getKey(), message);
+                if (moved != null)
+                {
+                    return moved;
+                }
+               
+                try
+                {
+                    return new Message(TYPE_EXECUTE_ON_KEY, process(entry.getKey(), entry.getValue()));
+                } catch (RuntimeException e)
+                {
+                    LOG.log(Level.FINE, "Entry processor failed for key " + entry.getKey(), e);
+                    return messageERR(e);
+                }
+            }
+            case TYPE_QUERY:
+            {
+                try
+                {
+                    return new Message(TYPE_QUERY, scan(message.getPayload(SerializablePredicate.class)));
+                } catch (RuntimeException e)
+                {
+                    LOG.log(Level.FINE, "Query failed", e);
+                    return messageERR(e);
+                }
+            }
+            case TYPE_AGGREGATE:
+            {
+                try
+                {
+                    Aggregation aggregation = message.getPayload(Aggregation.class);
+                    return new Message(TYPE_AGGREGATE, combine(aggregation.getMapper(), aggregation.getCombiner()));
+                } catch (RuntimeException e)
+                {
+                    LOG.log(Level.FINE, "Aggregation failed", e);
+                    return messageERR(e);
+                }
+            }
+            case TYPE_ADD_INDEX:
+            {
+                try
+                {
+                    index(message.getPayload(IndexDefinition.class));
+                    return cluster.messageACK();
+                } catch (RuntimeException e)
+                {
+                    LOG.log(Level.FINE, "Adding index failed", e);
+                    return messageERR(e);
+                }
+            }
+            case TYPE_INDEX_QUERY:
+            {
+                try
+                {
+                    return new Message(TYPE_INDEX_QUERY, lookup(message.getPayload(IndexQuery.class)));
+                } catch (RuntimeException e)
+                {
+                    LOG.log(Level.FINE, "Index query failed", e);
+                    return messageERR(e);
+                }
+            }
+            case TYPE_GET_INDEX:
+            {
+                try
+                {
+                    SecondaryIndex index = indexes.get(message.getPayload(String.class));
+       
+                    if (index == null)
+                    {
+                        return cluster.messageNO();
+                    }
+                    return new Message(TYPE_GET_INDEX, new IndexDefinition(index.getName(), index.getExtractor()));
+                } catch (RuntimeException e)
+                {
+                    LOG.log(Level.FINE, "Index lookup failed", e);
+                    return messageERR(e);
+                }
+            }
+            case TYPE_PUT_IF_ABSENT:
+            {
+                Entry entry = message.getPayload(Entry.class);
+                Message moved = redirect(entry.getKey(), message);
+                if (moved != null)
+                {
+                    return moved;
+                }
+                return new Message(TYPE_PUT_IF_ABSENT, delegate.putIfAbsent(entry.getKey(), entry.getValue()));
+            }
+            case TYPE_REPLACE:
+            {
+                Entry entry = message.getPayload(Entry.class);
+                Message moved = redirect(entry.getKey(), message);
+                if (moved != null)
+                {
+                    return moved;
+                }
+                return new Message(TYPE_REPLACE, delegate.replace(entry.getKey(), entry.getValue()));
+            }
+            case TYPE_CAS_REPLACE:
+            {
+                Exchange exchange = message.getPayload(Exchange.class);
+                Message moved = redirect(exchange.getKey(), message);
+                if (moved != null)
+                {
+                    return moved;
+                }
+                return delegate.replace(exchange.getKey(), exchange.getExpected(), exchange.getValue()) ? cluster.messageYES() : cluster.messageNO();
+            }
+            case TYPE_CAS_REMOVE:
+            {
+                Entry entry = message.getPayload(Entry.class);
+                Message moved = redirect(entry.getKey(), message);
+                if (moved != null)
+                {
+                    return moved;
+                }
+                return delegate.remove(entry.getKey(), entry.getValue()) ? cluster.messageYES() : cluster.messageNO();
+            }
+            case TYPE_INVALIDATE:
+            {
+                for (Object key : message.getPayload(Object[].class))
+                {
+                    invalidate(key);
+                }
+                return cluster.messageACK();
+            }
+            case TYPE_BACKUP:
+            case TYPE_MERKLE:
+            case TYPE_MERKLE_LEAVES:
+            {
+                if (backups == null)
+                {
+                    return messageERR(new MeshMapRuntimeException("Backups are not enabled on node " + self));
+                }
+                return backups.handle(message);
+            }
             default:
             {
                 return cluster.messageACK();
@@ -114,6 +438,23 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
     @Override
     public int size()
     {
+        return size(false);
+    }
+   
+    
+    @Override
+    public int size(boolean strict)
+    {
+        if (!strict && config.getSizeStaleness() > 0)
+        {
+            long remoteCount = heartbeat.remoteEntryCount(cluster.getAllNodes(), config.getSizeStaleness());
+           
+            if (remoteCount >= 0)
+            {
+                return (int) Math.min(Integer.MAX_VALUE, delegate.size() + remoteCount);
+            }
+        }
+       
         Message sizeMsg = new Message(TYPE_SIZE);
        
         return delegate.size() + server.broadcast(sizeMsg).stream().filter(response -> TYPE_SIZE.equals(response.getType())).mapToInt(Message::getPayloadAsInt).sum();
@@ -138,17 +479,14 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
             return delegate.containsKey(key);
         }
        
-        Message containsKeyMsg = new Message(TYPE_CONTAINS_KEY, key);
-        Message response;
-       
-        try
+        if (writeBehind != null && writeBehind.lookup(target, key) != null)
         {
-            response = server.message(target, containsKeyMsg);
-        } catch (IOException e)
-        {
-            throw new MeshMapRuntimeException(e);
+            return true;
         }
        
+        Message containsKeyMsg = new Message(TYPE_CONTAINS_KEY, key);
+        Message response = exchange(target, containsKeyMsg);
+       
         return Message.TYPE_YES.equals(response.getType());
     }
    
@@ -156,7 +494,7 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
     @Override
     public boolean containsValue(Object value)
     {
-        if (delegate.containsValue(value))
+        if (containsValueLocally(value))
         {
             // Check locally first.
             return true;
@@ -164,7 +502,8 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
        
         Message containsValueMsg = new Message(TYPE_CONTAINS_VALUE, value);
        
-        return server.broadcast(containsValueMsg).stream().map(Message::getType).anyMatch(Message.TYPE_YES::equals);
+        // Stop waiting as soon as any node has the value.
+        return server.broadcastAny(containsValueMsg, response -> Message.TYPE_YES.equals(response.getType())).isPresent();
     }
    
     
@@ -192,6 +531,92 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
     }
    
     
+    @SuppressWarnings("unchecked")
+    @Override
+    public V putIfAbsent(K key, V value)
+    {
+        return (V) putIfAbsent(key, value, cluster.getNodeForKey(key));
+    }
+   
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public V replace(K key, V value)
+    {
+        return (V) replace(key, value, cluster.getNodeForKey(key));
+    }
+   
+    
+    @Override
+    public boolean replace(K key, V oldValue, V newValue)
+    {
+        return replace(key, oldValue, newValue, cluster.getNodeForKey(key));
+    }
+   
+    
+    @Override
+    public boolean remove(Object key, Object value)
+    {
+        return remove(key, value, cluster.getNodeForKey(key));
+    }
+   
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public <R> R executeOnKey(K key, EntryProcessor<K, V, R> processor)
+    {
+        return (R) executeOnKey(key, processor, cluster.getNodeForKey(key));
+    }
+   
+    
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction)
+    {
+        if (!isShippable(key, remappingFunction))
+        {
+            return MeshMap.super.compute(key, remappingFunction);
+        }
+       
+        return executeOnKey(key, new ComputeProcessor<>(remappingFunction));
+    }
+   
+    
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction)
+    {
+        if (!isShippable(key, remappingFunction))
+        {
+            return MeshMap.super.computeIfPresent(key, remappingFunction);
+        }
+       
+        return executeOnKey(key, new ComputeIfPresentProcessor<>(remappingFunction));
+    }
+   
+    
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction)
+    {
+        if (!isShippable(key, mappingFunction))
+        {
+            return MeshMap.super.computeIfAbsent(key, mappingFunction);
+        }
+       
+        return executeOnKey(key, new ComputeIfAbsentProcessor<>(mappingFunction));
+    }
+   
+    
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction)
+    {
+        if (!isShippable(key, remappingFunction))
+        {
+            return MeshMap.super.merge(key, value, remappingFunction);
+        }
+       
+        return executeOnKey(key, new MergeProcessor<>(value, remappingFunction));
+    }
+   
+    
     @Override
     public void putAll(Map<? extends K, ? extends V> m)
     {
@@ -199,12 +624,30 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
     }
    
     
+    @Override
+    public void flush()
+    {
+        if (writeBehind != null)
+        {
+            writeBehind.flush();
+        }
+    }
+   
+    
     @Override
     public void clear()
     {
+        // Buffered puts were made before the clear, so they are cleared too.
+        cluster.getAllNodes().forEach(this::awaitWrites);
+       
         Message clearMsg = new Message(TYPE_CLEAR);
         server.broadcast(clearMsg);
         delegate.clear();
+       
+        if (replicaCache != null)
+        {
+            replicaCache.clear();
+        }
     }
    
     
@@ -250,29 +693,136 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
    
     
     @Override
-    public String toString()
+    public EvictionStats getEvictionStats()
     {
-        return "MeshMapImpl(Local)[" + String.join(", ", delegate.entrySet().stream().map(entry -> entry.getKey() + ":" + entry.getValue()).collect(Collectors.toList()).toArray(new String[0])) + "]";
+        return delegate.getEvictionStats();
     }
    
     
-    @SuppressWarnings("unused")
-    public void open()
-    throws MeshMapException
+    @Override
+    public HotKeyStats getHotKeyStats()
     {
-        Node successor = cluster.getSuccessorNode();
+        return new HotKeyStats(hotKeys.getHotKeys(), replicaLeases == null ? 0 : replicaLeases.size(), replicaCache == null ? 0 : replicaCache.size(), replicaHits.getCount(), invalidations.getCount());
+    }
+   
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public Set<Map.Entry<K, V>> query(SerializablePredicate<K, V> predicate)
+    {
+        Message queryMsg = new Message(TYPE_QUERY, predicate);
+        Set<Map.Entry<K, V>> entries = new HashSet<>();
        
-        // If there is no successor, there is nothing to do.
-        if (successor == null)
+        for (Entry localEntry : scan(predicate))
         {
-            return;
+            entries.add(new TypedEntry<>((K) localEntry.getKey(), (V) localEntry.getValue()));
         }
        
-        // Ask the successor for their key set.
-        Object[] keySet = keySet(successor);
-       
-        // Transfer the keys from the successor node that should live on this node.
-        List<Object> keysToTransfer = Stream.of(keySet).filter(key -> {
+        for (Message response : server.broadcast(queryMsg))
+        {
+            if (!TYPE_QUERY.equals(response.getType()))
+            {
+                throw remoteFailure(response, response.getNode());
+            }
+           
+            for (Entry remoteEntry : response.getPayload(Entry[].class))
+            {
+                entries.add(new TypedEntry<>((K) remoteEntry.getKey(), (V) remoteEntry.getValue()));
+            }
+        }
+       
+        return entries;
+    }
+   
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public <A, R> R aggregate(SerializableBiFunction<K, V, A> mapper, SerializableBinaryOperator<A> combiner, Function<A, R> reducer)
+    {
+        Message aggregateMsg = new Message(TYPE_AGGREGATE, new Aggregation(mapper, combiner));
+        A result = (A) combine(mapper, combiner);
+       
+        for (Message response : server.broadcast(aggregateMsg))
+        {
+            if (!TYPE_AGGREGATE.equals(response.getType()))
+            {
+                throw remoteFailure(response, response.getNode());
+            }
+           
+            A partial = (A) response.getPayload(Object.class);
+           
+            if (partial != null)
+            {
+                result = result == null ? partial : combiner.apply(result, partial);
+            }
+        }
+       
+        return reducer.apply(result);
+    }
+   
+    
+    @Override
+    public void addIndex(String name, SerializableFunction<V, ?> extractor)
+    {
+        IndexDefinition definition = new IndexDefinition(name, extractor);
+        index(definition);
+       
+        for (Message response : server.broadcast(new Message(TYPE_ADD_INDEX, definition)))
+        {
+            if (!Message.TYPE_ACK.equals(response.getType()))
+            {
+                // The index is created on that node by the first query that needs it.
+                LOG.warning("Could not add index " + name + " on node " + response.getNode());
+            }
+        }
+    }
+   
+    
+    @Override
+    public Set<Map.Entry<K, V>> findByIndex(String name, Object value)
+    {
+        return findByIndex(new IndexQuery(definitionOf(name), false, value, null, null));
+    }
+   
+    
+    @Override
+    public Set<Map.Entry<K, V>> findByIndexRange(String name, Comparable<?> from, Comparable<?> to)
+    {
+        return findByIndex(new IndexQuery(definitionOf(name), true, null, from, to));
+    }
+   
+    
+    @Override
+    public String toString()
+    {
+        return "MeshMapImpl(Local)[" + String.join(", ", delegate.entrySet().stream().map(entry -> entry.getKey() + ":" + entry.getValue()).collect(Collectors.toList()).toArray(new String[0])) + "]";
+    }
+   
+    
+    @SuppressWarnings("unused")
+    public void open()
+    throws MeshMapException
+    {
+        heartbeat.start();
+       
+        if (backups != null)
+        {
+            backups.start();
+        }
+       
+        Node successor = cluster.getSuccessorNode();
+       
+        // If there is no successor, there is nothing to do.
+        if (successor == null)
+        {
+            return;
+        }
+       
+        // Ask the successor for their key set.
+        Object[] keySet = keySet(successor);
+       
+        // Transfer the keys from the successor node that should live on this node.
+        List<Object> keysToTransfer = Stream.of(keySet).filter(key -> {
             int hash = key.hashCode() & Integer.MAX_VALUE;
            
             if (self.getId() > successor.getId())
@@ -284,11 +834,17 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
             return hash <= self.getId();
         }).collect(Collectors.toList());
        
-        // Store the values on the current node.
-        keysToTransfer.forEach(key -> delegate.put(key, get(key, successor)));
+        Counter transferred = metrics.counter("rebalance.transferred");
+        metrics.counter("rebalance.total").add(keysToTransfer.size());
+       
+        // Store the values on the current node. Transfers are not routed, the successor may not know this node yet.
+        keysToTransfer.forEach(key -> {
+            delegate.put(key, exchange(successor, new Message(TYPE_GET, key).assignBulk(), false).getPayload(Object.class));
+            transferred.increment();
+        });
        
         // Delete the keys from the remote node now that the keys are transferred.
-        keysToTransfer.forEach(key -> remove(key, successor));
+        keysToTransfer.forEach(key -> exchange(successor, new Message(TYPE_REMOVE, key).assignBulk(), false));
     }
    
     
@@ -296,6 +852,29 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
     public void close()
     throws Exception
     {
+        if (writeBehind != null)
+        {
+            try
+            {
+                writeBehind.close();
+            } catch (WriteBehindException e)
+            {
+                LOG.log(Level.WARNING, "Closing with " + e.getFailedCount() + " buffered writes lost", e);
+            }
+        }
+       
+        heartbeat.close();
+       
+        if (backups != null)
+        {
+            backups.close();
+        }
+       
+        if (replicaLeases != null)
+        {
+            replicaLeases.close();
+        }
+       
         Node successor = cluster.getSuccessorNode();
        
         // If there is no successor, there is nothing to do.
@@ -304,8 +883,61 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
             return;
         }
        
-        // Transfer the data from this node to the successor node.
-        delegate.forEach((key, value) -> put(key, value, successor));
+        Counter transferred = metrics.counter("rebalance.transferred");
+        metrics.counter("rebalance.total").add(delegate.size());
+       
+        // Transfer the data from this node to the successor node, which still routes the keys here.
+        delegate.forEach((key, value) -> {
+            exchange(successor, new Message(TYPE_PUT, new Entry(key, value)).assignBulk(), false);
+            transferred.increment();
+        });
+    }
+   
+    
+    protected void nodeStatusChanged(Node node, FailureDetector.Status previous, FailureDetector.Status current)
+    {
+        metrics.counter("failureDetector", current.name().toLowerCase()).increment();
+       
+        switch (current)
+        {
+            case SUSPECT:
+                LOG.log(Level.INFO, "Node " + node + " is suspected to be down");
+                break;
+            case DEAD:
+                LOG.log(Level.WARNING, "Node " + node + " is down, reporting it to the cluster");
+                nodeDown(node);
+                break;
+            case ALIVE:
+                if (previous == FailureDetector.Status.DEAD)
+                {
+                    LOG.log(Level.INFO, "Node " + node + " is back, adding it to the cluster");
+                    nodeUp(node);
+                }
+                break;
+        }
+    }
+   
+    
+    /**
+     * Reports a dead node to the cluster, which removes it from the ring so that its successor takes over its keys at
+     * once and nobody waits on it. Clusters with their own failure detection, such as SWIM, only suspect it.
+     */
+    protected void nodeDown(Node node)
+    {
+        cluster.suspect(node);
+    }
+   
+    
+    protected void nodeUp(Node node)
+    {
+        try
+        {
+            cluster.register(node);
+        } catch (MeshMapException e)
+        {
+            // It registered itself again in the meantime.
+            LOG.log(Level.FINE, "Could not register node " + node, e);
+        }
     }
    
     
@@ -314,18 +946,45 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
         if (target.equals(self))
         {
             // Value is stored on the local server.
-            return delegate.get(key);
+            return read(key);
         }
        
-        Message getMsg = new Message(TYPE_GET, key);
-        Message response;
+        Object buffered = writeBehind == null ? null : writeBehind.lookup(target, key);
        
-        try
+        if (buffered != null)
         {
-            response = server.message(target, getMsg);
-        } catch (IOException e)
+            return buffered;
+        }
+       
+        ReplicaCache.Replica replica = replicaCache == null ? null : replicaCache.lookup(key);
+       
+        if (replica != null)
         {
-            throw new MeshMapRuntimeException(e);
+            replicaHits.increment();
+            return replica.getValue();
+        }
+       
+        // Concurrent readers of the key share one request.
+        return gets.execute(key, () -> fetch(key, target));
+    }
+   
+    
+    protected Object fetch(Object key, Node target)
+    {
+        long generation = replicaCache == null ? 0L : replicaCache.generation();
+        Message getMsg = new Message(TYPE_GET, key);
+        Message response = exchange(target, getMsg);
+       
+        if (TYPE_GET_REPLICA.equals(response.getType()))
+        {
+            Object value = response.getPayload(Object.class);
+           
+            if (replicaCache != null)
+            {
+                replicaCache.store(key, value, generation);
+            }
+           
+            return value;
         }
        
         if (!TYPE_GET.equals(response.getType()))
@@ -339,23 +998,23 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
     
     protected Object put(Object key, Object value, Node target)
     {
+        invalidate(key);
+       
         if (target.equals(self))
         {
             // Value is stored on the local server.
             return delegate.put(key, value);
         }
        
-        Message putMsg = new Message(TYPE_PUT, new Entry(key, value));
-        Message response;
-       
-        try
-        {
-            response = server.message(target, putMsg);
-        } catch (IOException e)
+        if (writeBehind != null)
         {
-            throw new MeshMapRuntimeException(e);
+            writeBehind.put(target, key, value);
+            return value;
         }
        
+        Message putMsg = new Message(TYPE_PUT, new Entry(key, value));
+        Message response = exchange(target, putMsg);
+       
         if (!Message.TYPE_ACK.equals(response.getType()))
         {
             throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
@@ -367,6 +1026,9 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
     
     protected Object remove(Object key, Node target)
     {
+        invalidate(key);
+        awaitWrites(target);
+       
         if (target.equals(self))
         {
             // Value is stored on the local server.
@@ -374,15 +1036,7 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
         }
        
         Message removeMsg = new Message(TYPE_REMOVE, key);
-        Message response;
-       
-        try
-        {
-            response = server.message(target, removeMsg);
-        } catch (IOException e)
-        {
-            throw new MeshMapRuntimeException(e);
-        }
+        Message response = exchange(target, removeMsg);
        
         if (!TYPE_REMOVE.equals(response.getType()))
         {
@@ -393,96 +1047,1010 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, Handler<Message>
     }
    
     
-    protected Object[] keySet(Node target)
+    protected Object putIfAbsent(Object key, Object value, Node target)
     {
+        invalidate(key);
+        awaitWrites(target);
+       
         if (target.equals(self))
         {
-            // Key is on local server.
-            return delegate.keySet().toArray();
+            // Value is stored on the local server.
+            return delegate.putIfAbsent(key, value);
         }
        
-        Message keySetMsg = new Message(TYPE_KEY_SET);
+        Message response = exchange(target, new Message(TYPE_PUT_IF_ABSENT, new Entry(key, value)));
        
-        try
-        {
-            Message response = server.message(target, keySetMsg);
-            return response.getPayload(Object[].class);
-        } catch (IOException e)
+        if (!TYPE_PUT_IF_ABSENT.equals(response.getType()))
         {
-            throw new MeshMapRuntimeException(e);
+            throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
         }
+       
+        return response.getPayload(Object.class);
     }
    
     
-    protected static class Entry implements Serializable
+    protected Object replace(Object key, Object value, Node target)
     {
-        private static final long serialVersionUID = 201907030957L;
- 
-        private Object key;
-       
-        private Object value;
+        invalidate(key);
+        awaitWrites(target);
        
-        
-        public Entry(Object key, Object value)
+        if (target.equals(self))
         {
-            super();
-            this.key = key;
-            this.value = value;
+            // Value is stored on the local server.
+            return delegate.replace(key, value);
         }
        
-        
-        @SuppressWarnings("unchecked")
-        public <K> K getKey()
+        Message response = exchange(target, new Message(TYPE_REPLACE, new Entry(key, value)));
+       
+        if (!TYPE_REPLACE.equals(response.getType()))
         {
-            return (K) this.key;
+            throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
         }
        
-        
-        @SuppressWarnings("unchecked")
-        public <V> V getValue()
+        return response.getPayload(Object.class);
+    }
+   
+    
+    protected boolean replace(Object key, Object oldValue, Object newValue, Node target)
+    {
+        invalidate(key);
+        awaitWrites(target);
+       
+        if (target.equals(self))
         {
-            return (V) this.value;
+            // Value is stored on the local server.
+            return delegate.replace(key, oldValue, newValue);
         }
        
-        
-        @java.lang.Override
-        public boolean equals(Object o)
+        return isYes(exchange(target, new Message(TYPE_CAS_REPLACE, new Exchange(key, oldValue, newValue))));
+    }
+   
+    
+    protected boolean remove(Object key, Object value, Node target)
+    {
+        invalidate(key);
+        awaitWrites(target);
+       
+        if (target.equals(self))
         {
-            if (o == this)
-                return true;
-            if (!(o instanceof TypedEntry))
-                return false;
-            @SuppressWarnings("rawtypes")
-            final TypedEntry other = (TypedEntry) o;
-            final Object thisKey = this.getKey();
-            final Object thatKey = other.getKey();
-            if (thisKey == null ? thatKey != null : !thisKey.equals(thatKey))
-                return false;
-            final Object thisValue = this.getValue();
-            final Object thatValue = other.getValue();
-            if (thisValue == null ? thatValue != null : !thisValue.equals(thatValue))
-                return false;
-            return true;
+            // Value is stored on the local server.
+            return delegate.remove(key, value);
         }
        
-        
-        @java.lang.Override
-        public int hashCode()
+        return isYes(exchange(target, new Message(TYPE_CAS_REMOVE, new Entry(key, value))));
+    }
+   
+    
+    /**
+     * Sends a batch of buffered puts to the node owning their keys. The entries it no longer owns are put one by one.
+     */
+    protected void putAll(Node target, Map<Object, Object> batch)
+    {
+        Entry[] entries = batch.entrySet().stream().map(entry -> new Entry(entry.getKey(), entry.getValue())).toArray(Entry[]::new);
+        Message response = exchange(target, new Message(TYPE_PUT_ALL, entries));
+       
+        if (!TYPE_PUT_ALL.equals(response.getType()))
         {
-            final int PRIME = 31;
-            int result = 1;
-            final Object key = this.getKey();
-            final Object value = this.getValue();
-            result = result * PRIME + (key == null ? 0 : key.hashCode());
-            result = result * PRIME + (value == null ? 0 : value.hashCode());
-            return result;
+            throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
         }
        
-        
-        @java.lang.Override
-        public String toString()
+        for (Entry moved : response.getPayload(Entry[].class))
         {
-            return "Entry(Key=" + getKey() + "}, Value={" + getValue() + "}";
+            Node owner = cluster.getNodeForKey(moved.getKey());
+           
+            if (owner.equals(self))
+            {
+                delegate.put(moved.getKey(), moved.getValue());
+            } else if (!Message.TYPE_ACK.equals(exchange(owner, new Message(TYPE_PUT, moved)).getType()))
+            {
+                throw new MeshMapRuntimeException("Unexpected response from remote node " + owner + " to a buffered put");
+            }
+        }
+    }
+   
+    
+    /**
+     * Delivers the buffered puts to the node before another kind of write to one of its keys, so that they apply in
+     * the order they were made.
+     */
+    protected void awaitWrites(Node target)
+    {
+        if (writeBehind != null)
+        {
+            writeBehind.flush(target);
+        }
+    }
+   
+    
+    protected Message exchange(Node target, Message message)
+    {
+        return exchange(target, message, true);
+    }
+   
+    
+    /**
+     * Sends a request to another node. A routed request carries the ring epoch of this node, and if the node does not
+     * own the key it answers with the owner in its view. The request is then retried once, at that owner.
+     */
+    protected Message exchange(Node target, Message message, boolean routed)
+    {
+        try
+        {
+            if (!routed)
+            {
+                return server.message(target, message);
+            }
+           
+            Message response = server.message(target, message.assignEpoch(cluster.getEpoch()));
+           
+            if (!TYPE_MOVED.equals(response.getType()))
+            {
+                return response;
+            }
+           
+            Moved moved = response.getPayload(Moved.class);
+            metrics.counter("routing.moved").increment();
+            LOG.fine("Node " + target + " redirected " + message.getType() + " to " + moved.getOwner() + " at epoch " + moved.getEpoch());
+            cluster.observeEpoch(moved.getEpoch());
+           
+            // If the key moved here, this node's own view is behind, so it is handled without checking again.
+            response = moved.getOwner().equals(self) ? dispatch(message.assignEpoch(0L)) : server.message(moved.getOwner(), message);
+           
+            if (TYPE_MOVED.equals(response.getType()))
+            {
+                throw new MeshMapRuntimeException("Nodes " + target + " and " + moved.getOwner() + " both redirected " + message.getType() + ", the cluster does not agree on the owner yet");
+            }
+           
+            return response;
+        } catch (IOException e)
+        {
+            throw new MeshMapRuntimeException(e);
+        }
+    }
+   
+    
+    /**
+     * Returns a MOVED response if a routed request reached this node although another node owns the key in its view,
+     * or {@code null} if the request should be handled here.
+     */
+    protected Message redirect(Object key, Message message)
+    {
+        if (message.getEpoch() != 0L)
+        {
+            cluster.observeEpoch(message.getEpoch());
+            Node owner = cluster.getNodeForKey(key);
+           
+            if (!owner.equals(self))
+            {
+                return new Message(TYPE_MOVED, new Moved(owner, cluster.getEpoch()));
+            }
+        }
+       
+        // Every request for a key that is handled here counts towards its heat.
+        hotKeys.record(key);
+        return null;
+    }
+   
+    
+    /**
+     * Drops the replica of the key held by this node, if any, and stops readers from joining a request for the key
+     * already in flight, so that this node reads its own writes.
+     */
+    protected void invalidate(Object key)
+    {
+        gets.forget(key);
+       
+        if (replicaCache != null)
+        {
+            replicaCache.invalidate(key);
+        }
+    }
+   
+    
+    /**
+     * Reads the key from the local partition. A missing key is loaded with the configured loader, if any, once for
+     * all the concurrent readers of the key, and stored unless it was written in the meantime.
+     */
+    protected Object read(Object key)
+    {
+        Object value = delegate.get(key);
+        Function<Object, Object> loader = config.getLoader();
+       
+        if (value != null || loader == null || key == null)
+        {
+            return value;
+        }
+       
+        return loads.execute(key, () -> {
+            // Another reader may have loaded it just before.
+            Object current = delegate.get(key);
+           
+            if (current != null)
+            {
+                return current;
+            }
+           
+            Object loaded = loader.apply(key);
+           
+            if (loaded == null)
+            {
+                return null;
+            }
+           
+            Object previous = delegate.putIfAbsent(key, loaded);
+            return previous != null ? previous : loaded;
+        });
+    }
+   
+    
+    protected boolean isYes(Message response)
+    {
+        if (Message.TYPE_YES.equals(response.getType()))
+        {
+            return true;
+        }
+       
+        if (!Message.TYPE_NO.equals(response.getType()))
+        {
+            throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
+        }
+       
+        return false;
+    }
+   
+    
+    protected Object executeOnKey(Object key, EntryProcessor<?, ?, ?> processor, Node target)
+    {
+        invalidate(key);
+        awaitWrites(target);
+       
+        if (target.equals(self))
+        {
+            // Entry is stored on the local server.
+            return process(key, processor);
+        }
+       
+        Message executeMsg = new Message(TYPE_EXECUTE_ON_KEY, new Entry(key, processor));
+        Message response = exchange(target, executeMsg);
+       
+        if (Message.TYPE_ERR.equals(response.getType()))
+        {
+            throw remoteFailure(response, target);
+        }
+       
+        if (!TYPE_EXECUTE_ON_KEY.equals(response.getType()))
+        {
+            throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
+        }
+       
+        return response.getPayload(Object.class);
+    }
+   
+    
+    /**
+     * Runs the processor atomically against the local entry of the key.
+     */
+    @SuppressWarnings("unchecked")
+    protected Object process(Object key, EntryProcessor<?, ?, ?> processor)
+    {
+        EntryProcessor<Object, Object, Object> entryProcessor = (EntryProcessor<Object, Object, Object>) processor;
+        Object[] result = new Object[1];
+       
+        delegate.compute(key, (k, value) -> {
+            ProcessorEntry<Object, Object> entry = new ProcessorEntry<>(k, value);
+            result[0] = entryProcessor.process(entry);
+            return entry.getValue();
+        });
+       
+        return result[0];
+    }
+   
+    
+    /**
+     * Returns the local entries matching the predicate, scanning the partition in parallel.
+     */
+    @SuppressWarnings("unchecked")
+    protected Entry[] scan(BiPredicate<?, ?> predicate)
+    {
+        BiPredicate<Object, Object> condition = (BiPredicate<Object, Object>) predicate;
+       
+        return delegate.entrySet().parallelStream().filter(entry -> condition.test(entry.getKey(), entry.getValue())).map(entry -> new Entry(entry.getKey(), entry.getValue())).toArray(Entry[]::new);
+    }
+   
+    
+    /**
+     * Maps and combines the local entries into a single partial result on the fork/join pool, or returns null if no
+     * entry was mapped.
+     */
+    @SuppressWarnings("unchecked")
+    protected Object combine(BiFunction<?, ?, ?> mapper, BinaryOperator<?> combiner)
+    {
+        BiFunction<Object, Object, Object> map = (BiFunction<Object, Object, Object>) mapper;
+        BinaryOperator<Object> combine = (BinaryOperator<Object>) combiner;
+       
+        return delegate.entrySet().parallelStream().map(entry -> map.apply(entry.getKey(), entry.getValue())).filter(Objects::nonNull).reduce(combine).orElse(null);
+    }
+   
+    
+    protected boolean containsValueLocally(Object value)
+    {
+        if (valueIndex == null)
+        {
+            return delegate.containsValue(value);
+        }
+       
+        for (Object key : valueIndex.keys(value.hashCode()))
+        {
+            if (value.equals(delegate.peek(key)))
+            {
+                return true;
+            }
+        }
+       
+        return false;
+    }
+   
+    
+    @SuppressWarnings("unchecked")
+    protected Set<Map.Entry<K, V>> findByIndex(IndexQuery query)
+    {
+        Message queryMsg = new Message(TYPE_INDEX_QUERY, query);
+        Set<Map.Entry<K, V>> entries = new HashSet<>();
+       
+        for (Entry localEntry : lookup(query))
+        {
+            entries.add(new TypedEntry<>((K) localEntry.getKey(), (V) localEntry.getValue()));
+        }
+       
+        for (Message response : server.broadcast(queryMsg))
+        {
+            if (!TYPE_INDEX_QUERY.equals(response.getType()))
+            {
+                throw remoteFailure(response, response.getNode());
+            }
+           
+            for (Entry remoteEntry : response.getPayload(Entry[].class))
+            {
+                entries.add(new TypedEntry<>((K) remoteEntry.getKey(), (V) remoteEntry.getValue()));
+            }
+        }
+       
+        return entries;
+    }
+   
+    
+    /**
+     * Returns the local index with the definition's name, building it over the local partition if it does not exist.
+     */
+    protected SecondaryIndex index(IndexDefinition definition)
+    {
+        SecondaryIndex index = indexes.get(definition.getName());
+       
+        if (index != null)
+        {
+            return index;
+        }
+       
+        // Built outside of the map, since adding the listener scans the whole partition.
+        SecondaryIndex built = new SecondaryIndex(definition.getName(), definition.getExtractor(), true);
+        delegate.addListener(built);
+        index = indexes.putIfAbsent(definition.getName(), built);
+       
+        if (index != null)
+        {
+            // Another request built it meanwhile.
+            delegate.removeListener(built);
+            return index;
+        }
+       
+        return built;
+    }
+   
+    
+    /**
+     * Returns the definition of the index from the local index, or else from another node, since nodes that joined
+     * after the index was added, and clients, only build it once they query it.
+     */
+    protected IndexDefinition definitionOf(String name)
+    {
+        SecondaryIndex index = indexes.get(name);
+       
+        if (index != null)
+        {
+            return new IndexDefinition(name, index.getExtractor());
+        }
+       
+        Message getIndexMsg = new Message(TYPE_GET_INDEX, name);
+        Optional<Message> response = server.broadcastAny(getIndexMsg, answer -> TYPE_GET_INDEX.equals(answer.getType()));
+       
+        if (!response.isPresent())
+        {
+            throw new IllegalArgumentException("No index named " + name);
+        }
+       
+        return response.get().getPayload(IndexDefinition.class);
+    }
+   
+    
+    /**
+     * Answers an index query from the local index, so the cost is proportional to the number of matches.
+     */
+    protected Entry[] lookup(IndexQuery query)
+    {
+        SecondaryIndex index = index(query.getDefinition());
+        Set<Object> keys = query.isRange() ? index.keys(query.getFrom(), query.getTo()) : index.keys(query.getValue());
+        List<Entry> entries = new ArrayList<>(keys.size());
+       
+        for (Object key : keys)
+        {
+            Object value = delegate.get(key);
+           
+            if (value != null)
+            {
+                entries.add(new Entry(key, value));
+            }
+        }
+       
+        return entries.toArray(new Entry[0]);
+    }
+   
+    
+    /**
+     * Functions can be run on the owner node only if they can be serialized; otherwise the default implementation of
+     * {@link ConcurrentMap} is used, which retries the atomic putIfAbsent, replace and remove operations.
+     */
+    protected boolean isShippable(Object key, Object function)
+    {
+        return function instanceof Serializable || self.equals(cluster.getNodeForKey(key));
+    }
+   
+    
+    protected Message messageERR(Throwable cause)
+    {
+        try
+        {
+            return new Message(Message.TYPE_ERR, cause);
+        } catch (MeshMapMarshallException e)
+        {
+            // The cause could not be serialized; send its description instead.
+            return new Message(Message.TYPE_ERR, String.valueOf(cause));
+        }
+    }
+   
+    
+    protected MeshMapRuntimeException remoteFailure(Message response, Node target)
+    {
+        Object cause = response.getLength() == 0 ? null : response.getPayload(Object.class);
+       
+        if (cause instanceof Throwable)
+        {
+            return new MeshMapRuntimeException("Remote node " + target + " failed to process the request", (Throwable) cause);
+        }
+       
+        return new MeshMapRuntimeException("Remote node " + target + " failed to process the request: " + cause);
+    }
+   
+    
+    protected Object[] keySet(Node target)
+    {
+        if (target.equals(self))
+        {
+            // Key is on local server.
+            return delegate.keySet().toArray();
+        }
+       
+        Message keySetMsg = new Message(TYPE_KEY_SET);
+       
+        try
+        {
+            Message response = server.message(target, keySetMsg);
+            return response.getPayload(Object[].class);
+        } catch (IOException e)
+        {
+            throw new MeshMapRuntimeException(e);
+        }
+    }
+   
+    
+    protected static class Entry implements Serializable
+    {
+        private static final long serialVersionUID = 201907030957L;
+ 
+        private Object key;
+       
+        private Object value;
+       
+        
+        public Entry(Object key, Object value)
+        {
+            super();
+            this.key = key;
+            this.value = value;
+        }
+       
+        
+        @SuppressWarnings("unchecked")
+        public <K> K getKey()
+        {
+            return (K) this.key;
+        }
+       
+        
+        @SuppressWarnings("unchecked")
+        public <V> V getValue()
+        {
+            return (V) this.value;
+        }
+       
+        
+        @java.lang.Override
+        public boolean equals(Object o)
+        {
+            if (o == this)
+                return true;
+            if (!(o instanceof TypedEntry))
+                return false;
+            @SuppressWarnings("rawtypes")
+            final TypedEntry other = (TypedEntry) o;
+            final Object thisKey = this.getKey();
+            final Object thatKey = other.getKey();
+            if (thisKey == null ? thatKey != null : !thisKey.equals(thatKey))
+                return false;
+            final Object thisValue = this.getValue();
+            final Object thatValue = other.getValue();
+            if (thisValue == null ? thatValue != null : !thisValue.equals(thatValue))
+                return false;
+            return true;
+        }
+       
+        
+        @java.lang.Override
+        public int hashCode()
+        {
+            final int PRIME = 31;
+            int result = 1;
+            final Object key = this.getKey();
+            final Object value = this.getValue();
+            result = result * PRIME + (key == null ? 0 : key.hashCode());
+            result = result * PRIME + (value == null ? 0 : value.hashCode());
+            return result;
+        }
+       
+        
+        @java.lang.Override
+        public String toString()
+        {
+            return "Entry(Key=" + getKey() + "}, Value={" + getValue() + "}";
+        }
+    }
+   
+    
+    protected static class Exchange implements Serializable
+    {
+        private static final long serialVersionUID = 202610190920L;
+ 
+        private Object key;
+       
+        private Object expected;
+       
+        private Object value;
+       
+        
+        public Exchange(Object key, Object expected, Object value)
+        {
+            super();
+            this.key = key;
+            this.expected = expected;
+            this.value = value;
+        }
+       
+        
+        public Object getKey()
+        {
+            return this.key;
+        }
+       
+        
+        public Object getExpected()
+        {
+            return this.expected;
+        }
+       
+        
+        public Object getValue()
+        {
+            return this.value;
+        }
+       
+        
+        @java.lang.Override
+        public String toString()
+        {
+            return "Exchange(Key=" + getKey() + "}, Expected={" + getExpected() + "}, Value={" + getValue() + "}";
+        }
+    }
+   
+    
+    /**
+     * The answer of a node to a routed request for a key it does not own: the owner in its view, and its epoch.
+     */
+    protected static class Moved implements Serializable
+    {
+        private static final long serialVersionUID = 202610191040L;
+ 
+        private Node owner;
+       
+        private long epoch;
+       
+        
+        public Moved(Node owner, long epoch)
+        {
+            super();
+            this.owner = owner;
+            this.epoch = epoch;
+        }
+       
+        
+        public Node getOwner()
+        {
+            return this.owner;
+        }
+       
+        
+        public long getEpoch()
+        {
+            return this.epoch;
+        }
+       
+        
+        @java.lang.Override
+        public String toString()
+        {
+            return "Moved(Owner=" + getOwner() + ", Epoch=" + getEpoch() + ")";
+        }
+    }
+   
+    
+    /**
+     * The nodes of the cluster as seen by one node, with its epoch, for clients that do not take part in membership.
+     */
+    protected static class Membership implements Serializable
+    {
+        private static final long serialVersionUID = 202610191120L;
+ 
+        private Node[] nodes;
+       
+        private long epoch;
+       
+        
+        public Membership(Node[] nodes, long epoch)
+        {
+            super();
+            this.nodes = nodes;
+            this.epoch = epoch;
+        }
+       
+        
+        public Node[] getNodes()
+        {
+            return this.nodes;
+        }
+       
+        
+        public long getEpoch()
+        {
+            return this.epoch;
+        }
+       
+        
+        @java.lang.Override
+        public String toString()
+        {
+            return "Membership(Nodes=" + Arrays.toString(getNodes()) + ", Epoch=" + getEpoch() + ")";
+        }
+    }
+   
+    
+    protected static class Aggregation implements Serializable
+    {
+        private static final long serialVersionUID = 202610190940L;
+ 
+        private BiFunction<?, ?, ?> mapper;
+       
+        private BinaryOperator<?> combiner;
+       
+        
+        public Aggregation(SerializableBiFunction<?, ?, ?> mapper, SerializableBinaryOperator<?> combiner)
+        {
+            super();
+            this.mapper = mapper;
+            this.combiner = combiner;
+        }
+       
+        
+        public BiFunction<?, ?, ?> getMapper()
+        {
+            return this.mapper;
+        }
+       
+        
+        public BinaryOperator<?> getCombiner()
+        {
+            return this.combiner;
+        }
+       
+        
+        @java.lang.Override
+        public String toString()
+        {
+            return "Aggregation(Mapper=" + getMapper() + "}, Combiner={" + getCombiner() + "}";
+        }
+    }
+   
+    
+    protected static class IndexDefinition implements Serializable
+    {
+        private static final long serialVersionUID = 202610190950L;
+ 
+        private String name;
+       
+        private Function<?, ?> extractor;
+       
+        
+        public IndexDefinition(String name, Function<?, ?> extractor)
+        {
+            super();
+            this.name = name;
+            this.extractor = extractor;
+        }
+       
+        
+        public String getName()
+        {
+            return this.name;
+        }
+       
+        
+        @SuppressWarnings("unchecked")
+        public Function<Object, Object> getExtractor()
+        {
+            return (Function<Object, Object>) this.extractor;
+        }
+       
+        
+        @java.lang.Override
+        public String toString()
+        {
+            return "IndexDefinition(Name=" + getName() + "}, Extractor={" + extractor + "}";
+        }
+    }
+   
+    
+    protected static class IndexQuery implements Serializable
+    {
+        private static final long serialVersionUID = 202610190951L;
+ 
+        private IndexDefinition definition;
+       
+        private boolean range;
+       
+        private Object value;
+       
+        private Object from;
+       
+        private Object to;
+       
+        
+        public IndexQuery(IndexDefinition definition, boolean range, Object value, Object from, Object to)
+        {
+            super();
+            this.definition = definition;
+            this.range = range;
+            this.value = value;
+            this.from = from;
+            this.to = to;
+        }
+       
+        
+        public IndexDefinition getDefinition()
+        {
+            return this.definition;
+        }
+       
+        
+        public boolean isRange()
+        {
+            return this.range;
+        }
+       
+        
+        public Object getValue()
+        {
+            return this.value;
+        }
+       
+        
+        public Object getFrom()
+        {
+            return this.from;
+        }
+       
+        
+        public Object getTo()
+        {
+            return this.to;
+        }
+       
+        
+        @java.lang.Override
+        public String toString()
+        {
+            return "IndexQuery(Definition=" + getDefinition() + "}, Range=" + range + ", Value={" + value + "}, From={" + from + "}, To={" + to + "}";
+        }
+    }
+   
+    
+    protected static class ProcessorEntry<K, V> implements MutableEntry<K, V>
+    {
+        private final K key;
+       
+        private V value;
+       
+        
+        public ProcessorEntry(K key, V value)
+        {
+            super();
+            this.key = key;
+            this.value = value;
+        }
+       
+        
+        @Override
+        public K getKey()
+        {
+            return this.key;
+        }
+       
+        
+        @Override
+        public V getValue()
+        {
+            return this.value;
+        }
+       
+        
+        @Override
+        public V setValue(V value)
+        {
+            V previous = this.value;
+            this.value = value;
+            return previous;
+        }
+       
+        
+        @Override
+        public boolean exists()
+        {
+            return this.value != null;
+        }
+       
+        
+        @Override
+        public void remove()
+        {
+            this.value = null;
+        }
+       
+        
+        @java.lang.Override
+        public String toString()
+        {
+            return "ProcessorEntry(Key=" + getKey() + "}, Value={" + getValue() + "}";
+        }
+    }
+   
+    
+    protected static class ComputeProcessor<K, V> implements EntryProcessor<K, V, V>
+    {
+        private static final long serialVersionUID = 202610190910L;
+       
+        private final BiFunction<? super K, ? super V, ? extends V> function;
+       
+        
+        public ComputeProcessor(BiFunction<? super K, ? super V, ? extends V> function)
+        {
+            this.function = function;
+        }
+       
+        
+        @Override
+        public V process(MutableEntry<K, V> entry)
+        {
+            V value = function.apply(entry.getKey(), entry.getValue());
+            entry.setValue(value);
+            return value;
+        }
+    }
+   
+    
+    protected static class ComputeIfPresentProcessor<K, V> implements EntryProcessor<K, V, V>
+    {
+        private static final long serialVersionUID = 202610190911L;
+       
+        private final BiFunction<? super K, ? super V, ? extends V> function;
+       
+        
+        public ComputeIfPresentProcessor(BiFunction<? super K, ? super V, ? extends V> function)
+        {
+            this.function = function;
+        }
+       
+        
+        @Override
+        public V process(MutableEntry<K, V> entry)
+        {
+            if (!entry.exists())
+            {
+                return null;
+            }
+           
+            V value = function.apply(entry.getKey(), entry.getValue());
+            entry.setValue(value);
+            return value;
+        }
+    }
+   
+    
+    protected static class ComputeIfAbsentProcessor<K, V> implements EntryProcessor<K, V, V>
+    {
+        private static final long serialVersionUID = 202610190912L;
+       
+        private final Function<? super K, ? extends V> function;
+       
+        
+        public ComputeIfAbsentProcessor(Function<? super K, ? extends V> function)
+        {
+            this.function = function;
+        }
+       
+        
+        @Override
+        public V process(MutableEntry<K, V> entry)
+        {
+            if (entry.exists())
+            {
+                return entry.getValue();
+            }
+           
+            V value = function.apply(entry.getKey());
+            entry.setValue(value);
+            return value;
+        }
+    }
+   
+    
+    protected static class MergeProcessor<K, V> implements EntryProcessor<K, V, V>
+    {
+        private static final long serialVersionUID = 202610190913L;
+       
+        private final V value;
+       
+        private final BiFunction<? super V, ? super V, ? extends V> function;
+       
+        
+        public MergeProcessor(V value, BiFunction<? super V, ? super V, ? extends V> function)
+        {
+            this.value = value;
+            this.function = function;
+        }
+       
+        
+        @Override
+        public V process(MutableEntry<K, V> entry)
+        {
+            V merged = entry.exists() ? function.apply(entry.getValue(), value) : value;
+            entry.setValue(merged);
+            return merged;
         }
     }
    
@@ -7,18 +7,74 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+
+import jamsesso.meshmap.metrics.Counter;
+import jamsesso.meshmap.metrics.CountingInputStream;
+import jamsesso.meshmap.metrics.CountingOutputStream;
+import jamsesso.meshmap.metrics.Metrics;
+import jamsesso.meshmap.metrics.Timer;
  
 public class MeshMapServer implements Runnable, AutoCloseable
 {
     private static final Logger LOG = Logger.getLogger(MeshMapServer.class.getName());
    
+    protected static final int CONTROL_QUEUE = 1024;
+   
+    protected static final int BULK_QUEUE = 32;
+   
+    protected static final int MAXIMUM_READERS = 256;
+   
     protected final MeshMapCluster cluster;
    
     protected final Node self;
    
+    protected final Compression compression;
+   
+    protected final Map<Node, Boolean> acceptsCompression = new ConcurrentHashMap<>();
+   
+    protected final MeshMapConfig config;
+   
+    protected final Metrics metrics;
+   
+    protected final Counter bytesSent;
+   
+    protected final Counter bytesReceived;
+   
+    protected final Counter retries;
+   
+    protected final Tracer tracer;
+   
+    protected final FailureDetector failureDetector;
+   
+    protected final Map<Node, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+   
+    protected final AdaptiveLimiter limiter;
+   
+    protected final Counter rejected;
+   
+    // Sends of broadcasts, which block on the network. Clients broadcast too, so it is not started with the server.
+    protected final ExecutorService broadcasts;
+   
     protected Handler<Message> handler;
    
     protected volatile boolean started = false;
@@ -29,11 +85,68 @@ public class MeshMapServer implements Runnable, AutoCloseable
  
     protected Thread thread;
    
+    protected ThreadPoolExecutor readers;
+   
+    protected ThreadPoolExecutor workers;
+   
+    protected ThreadPoolExecutor control;
+   
+    protected ThreadPoolExecutor bulk;
+   
     
     public MeshMapServer(MeshMapCluster cluster, Node self)
+    {
+        this(cluster, self, new MeshMapConfig());
+    }
+   
+    
+    public MeshMapServer(MeshMapCluster cluster, Node self, MeshMapConfig config)
     {
         this.cluster = cluster;
         this.self = self;
+        this.compression = new Compression(config.isCompression(), config.getCompressionThreshold());
+        this.config = config;
+        this.metrics = config.isMetrics() ? new Metrics(self.toString()) : Metrics.NOOP;
+        this.bytesSent = metrics.counter("bytes.sent");
+        this.bytesReceived = metrics.counter("bytes.received");
+        this.retries = metrics.counter("retries");
+        this.tracer = new Tracer(config.getTraceSampleRate(), config.getSlowOperationThreshold());
+        this.failureDetector = new FailureDetector(config.getHeartbeatInterval(), config.getSuspectPhi(), config.getDeadPhi());
+        this.limiter = new AdaptiveLimiter(config.getServerThreads(), 1, config.getServerThreads() + config.getServerQueue(), config.getQueueDelayTarget());
+        this.rejected = metrics.counter("admission.rejected");
+       
+        AtomicInteger broadcastCount = new AtomicInteger();
+        this.broadcasts = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "MeshMap Broadcast " + broadcastCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+       
+        metrics.gauge("admission.limit", limiter::getLimit);
+        metrics.gauge("admission.inFlight", limiter::getInFlight);
+        metrics.gauge("lanes.control.queued", () -> control == null ? 0 : control.getQueue().size());
+        metrics.gauge("lanes.bulk.queued", () -> bulk == null ? 0 : bulk.getQueue().size());
+        metrics.gauge("compression.uncompressedBytes", compression::getUncompressedBytes);
+        metrics.gauge("compression.compressedBytes", compression::getCompressedBytes);
+        metrics.gauge("compression.ratio", compression::getCompressionRatio);
+    }
+   
+    
+    public Compression getCompression()
+    {
+        return this.compression;
+    }
+   
+    
+    public Metrics getMetrics()
+    {
+        return this.metrics;
+    }
+   
+    
+    public FailureDetector getFailureDetector()
+    {
+        return this.failureDetector;
     }
    
     
@@ -57,7 +170,19 @@ public class MeshMapServer implements Runnable, AutoCloseable
             this.handler = handler;
         }
        
-        this.thread = new Thread(new ThreadGroup("MeshMap Threads"), this, "MeshMap Main Thread");
+        metrics.start(config.getMetricsReporter(), config.getMetricsReportInterval());
+       
+        ThreadGroup threads = new ThreadGroup("MeshMap Threads");
+        this.readers = new ThreadPoolExecutor(0, MAXIMUM_READERS, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), threads(threads, "MeshMap Reader"));
+        BlockingQueue<Runnable> queue = config.getServerQueue() == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(config.getServerQueue());
+        this.workers = pool(threads, "MeshMap Worker", config.getServerThreads(), queue);
+        this.control = pool(threads, "MeshMap Control", config.getControlThreads(), new LinkedBlockingQueue<>(CONTROL_QUEUE));
+        this.bulk = pool(threads, "MeshMap Bulk", config.getBulkThreads(), new ArrayBlockingQueue<>(BULK_QUEUE));
+       
+        // Control messages are never turned away: once their queue is full, the reader thread handles them itself.
+        control.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+       
+        this.thread = new Thread(threads, this, "MeshMap Main Thread");
         thread.start();
        
         // Wait for the server to start.
@@ -93,25 +218,31 @@ public class MeshMapServer implements Runnable, AutoCloseable
  
             while (!serverSocket.isClosed())
             {
-                try (Socket socket = serverSocket.accept();
-                InputStream inputStream = socket.getInputStream();
-                OutputStream outputStream = socket.getOutputStream())
+                Socket socket;
+       
+                try
                 {
-                    Message response = handler.handle(Message.read(inputStream));
-                   
-                    if (response == null)
-                    {
-                       response = cluster.messageACK();
-                    }
-                   
-                    response.write(outputStream);
-                    outputStream.flush();
+                    socket = serverSocket.accept();
                 } catch (SocketException e)
                 {
                     // Socket was closed. Nothing to do here. Node is going down.
+                    continue;
                 } catch (IOException e)
                 {
                     LOG.log(Level.SEVERE, "Unable to accept connection", e);
+                    continue;
+                }
+       
+                long accepted = System.nanoTime();
+       
+                try
+                {
+                    // Requests are read off the accept thread, so that a slow or stalled sender holds up no one else.
+                    readers.execute(() -> dispatch(socket, accepted));
+                } catch (RejectedExecutionException e)
+                {
+                    LOG.log(Level.WARNING, "Unable to read more than " + MAXIMUM_READERS + " requests at once, dropping a connection");
+                    closeQuietly(socket);
                 }
             }
         } catch (IOException e)
@@ -134,44 +265,349 @@ public class MeshMapServer implements Runnable, AutoCloseable
     }
    
     
+    /**
+     * Reads a request on a reader thread and hands it to the threads of its lane.
+     */
+    protected void dispatch(Socket socket, long accepted)
+    {
+        try
+        {
+            socket.setSoTimeout(config.getReadTimeout());
+            Message request = Message.read(new CountingInputStream(socket.getInputStream(), bytesReceived), compression);
+            long read = System.nanoTime();
+            Message.Lane lane = request.getLane();
+       
+            if (lane == Message.Lane.CONTROL)
+            {
+                // Not subject to admission, so that a node too busy for data still looks alive.
+                control.execute(() -> serve(socket, request, accepted, read, false));
+            } else if (lane == Message.Lane.BULK)
+            {
+                // A bounded pool of its own, so that scans and transfers do not hold up operations on keys.
+                try
+                {
+                    bulk.execute(() -> serve(socket, request, accepted, read, false));
+                } catch (RejectedExecutionException e)
+                {
+                    reject(socket, request);
+                }
+            } else if (!limiter.tryAcquire())
+            {
+                reject(socket, request);
+            } else
+            {
+                try
+                {
+                    workers.execute(() -> serve(socket, request, accepted, read, true));
+                } catch (RejectedExecutionException e)
+                {
+                    limiter.cancel();
+                    reject(socket, request);
+                }
+            }
+        } catch (IOException e)
+        {
+            LOG.log(Level.SEVERE, "Unable to read request", e);
+            closeQuietly(socket);
+        }
+    }
+   
+    
+    /**
+     * Handles a request on a thread of its lane and answers it. An admitted request is released from the limiter once
+     * answered.
+     */
+    protected void serve(Socket socket, Message request, long accepted, long read, boolean admitted)
+    {
+        long queued = System.nanoTime() - read;
+       
+        try (Socket connection = socket;
+        OutputStream outputStream = new CountingOutputStream(connection.getOutputStream(), bytesSent))
+        {
+            Message response = handler.handle(request);
+       
+            if (response == null)
+            {
+               response = cluster.messageACK();
+            }
+       
+            // Responses may be shared instances, so the trace is handed to write instead of set on them.
+            Trace trace = request.getTrace() == null ? null : Trace.reply(request.getTrace(), read - accepted, System.nanoTime() - read);
+            response.write(outputStream, compression, request.acceptsCompression(), trace);
+            outputStream.flush();
+        } catch (IOException e)
+        {
+            LOG.log(Level.WARNING, "Unable to answer " + request.getType() + " from " + request.getNode(), e);
+        } catch (RuntimeException e)
+        {
+            LOG.log(Level.SEVERE, "Unable to handle " + request.getType() + " from " + request.getNode(), e);
+        } finally
+        {
+            if (admitted)
+            {
+                limiter.release(queued);
+            }
+        }
+    }
+   
+    
+    /**
+     * Answers BUSY without handling the request, so that the sender backs off instead of waiting in the queue.
+     */
+    protected void reject(Socket socket, Message request)
+    {
+        rejected.increment();
+       
+        try (Socket connection = socket;
+        OutputStream outputStream = new CountingOutputStream(connection.getOutputStream(), bytesSent))
+        {
+            new Message(Message.TYPE_BUSY).write(outputStream, compression, request.acceptsCompression());
+            outputStream.flush();
+        } catch (IOException e)
+        {
+            LOG.log(Level.FINE, "Unable to turn away " + request.getType() + " from " + request.getNode(), e);
+        }
+    }
+   
+    
+    protected static ThreadPoolExecutor pool(ThreadGroup group, String name, int threads, BlockingQueue<Runnable> queue)
+    {
+        return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, queue, threads(group, name));
+    }
+   
+    
+    protected static ThreadFactory threads(ThreadGroup group, String name)
+    {
+        AtomicInteger count = new AtomicInteger();
+       
+        return runnable -> {
+            Thread thread = new Thread(group, runnable, name + " " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+   
+    
+    protected static void closeQuietly(Socket socket)
+    {
+        try
+        {
+            socket.close();
+        } catch (IOException e)
+        {
+            // Nothing left to do with it.
+        }
+    }
+   
+    
     public Message message(Node node, Message message)
     throws IOException
     {
+        if (failureDetector.isDead(node))
+        {
+            // Fail fast instead of waiting for connect timeouts.
+            throw new IOException("Node is down: " + node);
+        }
+       
+        Timer timer = metrics.timer("message", message.getType());
+        Trace trace = tracer.start(message);
+        long start = trace == null ? timer.start() : System.nanoTime();
+       
         try
         {
             return Retryable.retry(() -> {
                 try (Socket socket = new Socket())
                 {
-                    socket.connect(node.getAddress());
+                    long connecting = trace == null ? 0L : System.nanoTime();
                    
-                    try (OutputStream outputStream = socket.getOutputStream();
-                    InputStream inputStream = socket.getInputStream())
+                    try
+                    {
+                        socket.connect(node.getAddress(), config.getConnectTimeout());
+                    } catch (IOException e)
                     {
-                        message.assignNode(self).write(outputStream);
+                        throw new NodeUnreachableException("Unable to connect to node " + node, e);
+                    }
+       
+                    socket.setSoTimeout(config.getReadTimeout());
+       
+                    try (OutputStream outputStream = new CountingOutputStream(socket.getOutputStream(), bytesSent);
+                    InputStream inputStream = new CountingInputStream(socket.getInputStream(), bytesReceived))
+                    {
+                        long writing = trace == null ? 0L : System.nanoTime();
+                        message.write(outputStream, compression, acceptsCompression.getOrDefault(node, false), trace, self);
                         outputStream.flush();
-                        return Message.read(inputStream).assignNode(node);
+                        long waiting = trace == null ? 0L : System.nanoTime();
+                       
+                        Message response = Message.read(inputStream, compression).assignNode(node);
+                        acceptsCompression.put(node, response.acceptsCompression());
+       
+                        if (Message.TYPE_BUSY.equals(response.getType()))
+                        {
+                            throw new NodeBusyException("Node " + node + " is busy");
+                        }
+       
+                        if (trace != null)
+                        {
+                            trace.connectNanos += writing - connecting;
+                            trace.writeNanos = waiting - writing;
+                            trace.responseNanos = System.nanoTime() - waiting;
+                           
+                            if (response.getTrace() != null)
+                            {
+                                trace.remoteReadNanos = response.getTrace().getRemoteReadNanos();
+                                trace.remoteHandleNanos = response.getTrace().getRemoteHandleNanos();
+                            }
+                        }
+                       
+                        return response;
+                    }
+                } finally
+                {
+                    if (trace != null)
+                    {
+                        trace.attempts++;
                     }
                 }
-            }).on(IOException.class).times(3);
+            })
+            // Nothing was handled if the connection failed or the node was busy, so any request may be retried then.
+            .on(message.isIdempotent() ? IOException.class : NodeUnreachableException.class, NodeBusyException.class)
+            .answers(NodeBusyException.class)
+            .through(breakers.computeIfAbsent(node, n -> new CircuitBreaker(n.toString(), config.getCircuitBreakerThreshold(), config.getCircuitBreakerOpenTime())))
+            .backoff(config.getRetryBackoff(), config.getRetryMaximumBackoff())
+            .deadline(config.getRequestDeadline())
+            .onRetry(e -> retries.increment())
+            .times(config.getRetryAttempts());
         } catch (Exception e)
         {
             throw new IOException(e);
+        } finally
+        {
+            if (trace == null)
+            {
+                timer.stop(start);
+            } else
+            {
+                trace.node = node;
+                trace.totalNanos = System.nanoTime() - start;
+                timer.record(trace.totalNanos);
+                tracer.finish(trace);
+            }
+        }
+    }
+   
+    
+    /**
+     * Returns the error response standing for a node that could not be reached, carrying the node and the cause, so
+     * that callers of a broadcast can tell which node failed and why.
+     */
+    protected Message failure(Node node, IOException cause)
+    {
+        Message response;
+       
+        try
+        {
+            response = new Message(Message.TYPE_ERR, cause);
+        } catch (MeshMapMarshallException e)
+        {
+            // The cause could not be serialized; keep its description instead.
+            response = new Message(Message.TYPE_ERR, String.valueOf(cause));
         }
+       
+        return response.assignNode(node);
     }
    
     
     public List<Message> broadcast(Message message)
     {
-        return cluster.getAllNodes().parallelStream().filter(node -> !node.equals(self)).map(node -> {
-            try
-            {
-                return message(node, message);
-            } catch (IOException e)
+        Timer timer = metrics.timer("broadcast", message.getType());
+        long start = timer.start();
+       
+        try
+        {
+            return cluster.getAllNodes().parallelStream().filter(node -> !node.equals(self) && !failureDetector.isDead(node)).map(node -> {
+                try
+                {
+                    return message(node, message);
+                } catch (IOException e)
+                {
+                    LOG.log(Level.SEVERE, "Unable to broadcast message to node: " + node, e);
+                    return failure(node, e);
+                }
+            }).collect(Collectors.toList());
+        } finally
+        {
+            timer.stop(start);
+        }
+    }
+   
+    
+    /**
+     * Sends the message to every other node in parallel and returns the first response accepted by the predicate,
+     * without waiting for the remaining nodes to answer. If the predicate throws, so does this method.
+     */
+    public Optional<Message> broadcastAny(Message message, Predicate<Message> accept)
+    {
+        List<Node> nodes = cluster.getAllNodes().stream().filter(node -> !node.equals(self) && !failureDetector.isDead(node)).collect(Collectors.toList());
+       
+        if (nodes.isEmpty())
+        {
+            return Optional.empty();
+        }
+       
+        Timer timer = metrics.timer("broadcast", message.getType());
+        long start = timer.start();
+        CompletableFuture<Message> first = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(nodes.size());
+       
+        // Records the latency seen by the caller, up to the first accepted response, not that of the slowest node.
+        first.whenComplete((response, e) -> timer.stop(start));
+       
+        for (Node node : nodes)
+        {
+            broadcasts.execute(() -> {
+                try
+                {
+                    Message response;
+       
+                    try
+                    {
+                        response = message(node, message);
+                    } catch (IOException e)
+                    {
+                        LOG.log(Level.SEVERE, "Unable to broadcast message to node: " + node, e);
+                        response = failure(node, e);
+                    }
+       
+                    if (accept.test(response))
+                    {
+                        first.complete(response);
+                    }
+                } catch (RuntimeException e)
+                {
+                    first.completeExceptionally(e);
+                } finally
+                {
+                    // Counted whatever happened, so that the caller is never left waiting. Completing does nothing if
+                    // a response was accepted already; otherwise, every node answered and none was accepted.
+                    if (remaining.decrementAndGet() == 0)
+                    {
+                        first.complete(null);
+                    }
+                }
+            });
+        }
+       
+        try
+        {
+            return Optional.ofNullable(first.join());
+        } catch (CompletionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
             {
-                LOG.log(Level.SEVERE, "Unable to broadcast message to node: " + node, e);
-                return cluster.messageERR();
+                throw (RuntimeException) e.getCause();
             }
-        }).collect(Collectors.toList());
+            throw e;
+        }
     }
    
     
@@ -185,6 +621,20 @@ public class MeshMapServer implements Runnable, AutoCloseable
     @Override
     public void close()
     {
+        metrics.close();
+        broadcasts.shutdown();
+       
+        if (serverSocket == null)
+        {
+            // Never started, as for a client.
+            return;
+        }
+       
+        readers.shutdown();
+        workers.shutdown();
+        control.shutdown();
+        bulk.shutdown();
+       
         try
         {
             serverSocket.close();
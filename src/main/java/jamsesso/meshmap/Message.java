@@ -2,6 +2,7 @@ package jamsesso.meshmap;
  
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInput;
@@ -9,16 +10,32 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
-import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
  
 /**
 * Messages have the following byte format.
 *
-* +--------------+-----------------+------------------+----------------+
-* | MAGIC NUMBER | 16 byte type ID | 4 byte size (=X) | X byte payload |
-* +--------------+-----------------+------------------+----------------+
+* +--------------+-----------------+--------------+------------------------+-------------------------+-----------------------+------------------+----------------+
+* | MAGIC NUMBER | 16 byte type ID | 1 byte flags | 24 byte trace (if set) | sender address (if set) | 8 byte epoch (if set) | 4 byte size (=X) | X byte payload |
+* +--------------+-----------------+--------------+------------------------+-------------------------+-----------------------+------------------+----------------+
+*
+* The sender address is the "host:port" of the sending node, prefixed by its 2 byte length, so that the receiving node
+* knows who sent a request.
+*
+* A request routed to the owner of a key carries the ring epoch of the sender, so that a node that does not own the
+* key answers with where it moved instead of handling it. Requests without an epoch are handled wherever they land.
+*
+* The flags tell whether the sender is able to read compressed payloads and whether this payload is compressed. A node
+* only compresses a request once the peer has shown it can read compressed payloads, and only compresses a response
+* if the request said so; compression is thereby negotiated on every connection.
+*
+* A sampled request carries a trace section (the 8 byte trace id and two 8 byte zeros), which the response echoes with
+* the nanoseconds the receiving node spent reading and handling the request. See {@link Trace}.
 */
 public class Message
 {
@@ -38,10 +55,44 @@ public class Message
    
     public static final String TYPE_NOOP = "NOOP";
    
+    public static final String TYPE_HEARTBEAT = "HEARTBEAT";
+   
+    public static final String TYPE_BUSY = "BUSY";
+   
+    public static final byte FLAG_COMPRESSED = 0x01;
+   
+    public static final byte FLAG_ACCEPTS_COMPRESSION = 0x02;
+   
+    public static final byte FLAG_TRACED = 0x04;
+   
+    public static final byte FLAG_SENDER = 0x08;
+   
+    public static final byte FLAG_EPOCH = 0x10;
+   
+    public static final byte FLAG_BULK = 0x20;
+   
+    protected static final int MESSAGE_MAGIC = 4;
+   
     protected static final int MESSAGE_TYPE = 16;
    
+    protected static final int MESSAGE_FLAGS = 1;
+   
+    protected static final int MESSAGE_TRACE = 24;
+   
+    protected static final int MESSAGE_EPOCH = 8;
+   
     protected static final int MESSAGE_SIZE = 4;
    
+    protected static final Set<String> IDEMPOTENT_TYPES = ConcurrentHashMap.newKeySet();
+   
+    protected static final Map<String, Lane> LANES = new ConcurrentHashMap<>();
+   
+    static
+    {
+        idempotent(TYPE_BYE, TYPE_ACK, TYPE_NOOP, TYPE_HEARTBEAT);
+        lane(Lane.CONTROL, TYPE_HI, TYPE_BYE, TYPE_NOOP, TYPE_HEARTBEAT);
+    }
+   
     protected Node node = null;
    
     protected final String type;
@@ -50,6 +101,16 @@ public class Message
    
     protected final byte[] payload;
    
+    protected byte flags = 0;
+   
+    protected Trace trace = null;
+   
+    protected long serializeNanos = 0L;
+   
+    protected long epoch = 0L;
+   
+    protected boolean bulk = false;
+   
     
     public Message(String type)
     {
@@ -58,8 +119,15 @@ public class Message
    
     
     public Message(String type, Object payload)
+    {
+        this(type, payload, System.nanoTime());
+    }
+   
+    
+    private Message(String type, Object payload, long start)
     {
         this(type, toBytes(payload));
+        this.serializeNanos = System.nanoTime() - start;
     }
    
     
@@ -85,6 +153,22 @@ public class Message
     }
    
     
+    /**
+     * Sets the ring epoch the message is routed with. Zero sends it without an epoch.
+     */
+    public Message assignEpoch(long epoch)
+    {
+        this.epoch = epoch;
+        return this;
+    }
+   
+    
+    public long getEpoch()
+    {
+        return this.epoch;
+    }
+   
+    
     public String getType()
     {
         return this.type;
@@ -109,10 +193,112 @@ public class Message
     }
    
     
+    /**
+     * Declares that handling a message of one of the given types twice has the same effect as handling it once, so
+     * that it may be sent again when the response is lost.
+     */
+    public static void idempotent(String... types)
+    {
+        IDEMPOTENT_TYPES.addAll(Arrays.asList(types));
+    }
+   
+    
+    public boolean isIdempotent()
+    {
+        return IDEMPOTENT_TYPES.contains(type);
+    }
+   
+    
+    /**
+     * Declares the lane messages of the given types are handled on by the receiving node.
+     */
+    public static void lane(Lane lane, String... types)
+    {
+        for (String type : types)
+        {
+            LANES.put(type, lane);
+        }
+    }
+   
+    
+    /**
+     * Sends the message on the bulk lane whatever its type, such as for the requests that move keys between nodes.
+     */
+    public Message assignBulk()
+    {
+        this.bulk = true;
+        return this;
+    }
+   
+    
+    public Lane getLane()
+    {
+        return bulk ? Lane.BULK : LANES.getOrDefault(type, Lane.DATA);
+    }
+   
+    
+    /**
+     * Returns the trace the message arrived with, or {@code null} if it was not sampled.
+     */
+    public Trace getTrace()
+    {
+        return this.trace;
+    }
+   
+    
+    /**
+     * Returns how long it took to serialize the payload, or 0 if the message was created from bytes.
+     */
+    public long getSerializeNanos()
+    {
+        return this.serializeNanos;
+    }
+   
+    
+    /**
+     * Returns true if the sender of this message is able to read compressed payloads.
+     */
+    public boolean acceptsCompression()
+    {
+        return (flags & FLAG_ACCEPTS_COMPRESSION) != 0;
+    }
+   
+    
     public void write(OutputStream outputStream)
     throws IOException
     {
-        ByteBuffer buffer = ByteBuffer.allocate(MESSAGE_TYPE + MESSAGE_SIZE + length);
+        write(outputStream, Compression.NONE, false);
+    }
+   
+    
+    /**
+     * Writes the message, compressing the payload if the receiver is able to read compressed payloads and the
+     * payload is large enough to be worth it.
+     */
+    public void write(OutputStream outputStream, Compression compression, boolean receiverAcceptsCompression)
+    throws IOException
+    {
+        write(outputStream, compression, receiverAcceptsCompression, null);
+    }
+   
+    
+    /**
+     * Writes the message with a trace section if the trace is sampled.
+     */
+    public void write(OutputStream outputStream, Compression compression, boolean receiverAcceptsCompression, Trace trace)
+    throws IOException
+    {
+        write(outputStream, compression, receiverAcceptsCompression, trace, null);
+    }
+   
+    
+    /**
+     * Writes the message with a trace section if the trace is sampled, and the address of the sender if there is one.
+     * Messages may be shared instances, so the sender is handed to write instead of set on them.
+     */
+    public void write(OutputStream outputStream, Compression compression, boolean receiverAcceptsCompression, Trace trace, Node sender)
+    throws IOException
+    {
         byte[] typeBytes = type.getBytes();
  
         int remaining = MESSAGE_TYPE - typeBytes.length;
@@ -122,11 +308,61 @@ public class Message
         }
         byte[] remainingBytes = new byte[remaining];
        
-        buffer.put(BigInteger.valueOf(MAGIC).toByteArray());
+        byte flags = compression.isEnabled() ? FLAG_ACCEPTS_COMPRESSION : 0;
+        byte[] body = receiverAcceptsCompression ? compression.compress(payload) : null;
+       
+        if (body == null)
+        {
+            body = payload;
+        } else
+        {
+            flags |= FLAG_COMPRESSED;
+        }
+       
+        boolean traced = trace != null && trace.isSampled();
+        if (traced)
+        {
+            flags |= FLAG_TRACED;
+        }
+       
+        byte[] address = sender == null ? null : sender.toString().getBytes(StandardCharsets.UTF_8);
+        if (address != null)
+        {
+            flags |= FLAG_SENDER;
+        }
+       
+        if (epoch != 0L)
+        {
+            flags |= FLAG_EPOCH;
+        }
+       
+        if (bulk)
+        {
+            flags |= FLAG_BULK;
+        }
+       
+        ByteBuffer buffer = ByteBuffer.allocate(MESSAGE_MAGIC + MESSAGE_TYPE + MESSAGE_FLAGS + (traced ? MESSAGE_TRACE : 0) + (address == null ? 0 : 2 + address.length) + (epoch != 0L ? MESSAGE_EPOCH : 0) + MESSAGE_SIZE + body.length);
+        buffer.putInt(MAGIC);
         buffer.put(typeBytes);
         buffer.put(remainingBytes);
-        buffer.putInt(length);
-        buffer.put(payload);
+        buffer.put(flags);
+        if (traced)
+        {
+            buffer.putLong(trace.getId());
+            buffer.putLong(Math.max(0L, trace.getRemoteReadNanos()));
+            buffer.putLong(Math.max(0L, trace.getRemoteHandleNanos()));
+        }
+        if (address != null)
+        {
+            buffer.putShort((short) address.length);
+            buffer.put(address);
+        }
+        if (epoch != 0L)
+        {
+            buffer.putLong(epoch);
+        }
+        buffer.putInt(body.length);
+        buffer.put(body);
        
         outputStream.write(buffer.array());
     }
@@ -135,27 +371,72 @@ public class Message
     public static Message read(InputStream inputStream)
     throws IOException
     {
-        byte[] msgMagic = new byte[4];
+        return read(inputStream, Compression.NONE);
+    }
+   
+    
+    public static Message read(InputStream inputStream, Compression compression)
+    throws IOException
+    {
+        DataInputStream in = new DataInputStream(inputStream);
         byte[] msgType = new byte[MESSAGE_TYPE];
-        byte[] msgSize = new byte[MESSAGE_SIZE];
        
-        inputStream.read(msgMagic);
-        BigInteger magic = new BigInteger(msgMagic);
-        if (magic.intValue() != MAGIC)
+        int magic = in.readInt();
+        if (magic != MAGIC)
         {
             throw new IOException("Message Magic number \"" + magic + "\" does not match expected value \"" + MAGIC + "\"");
         }
        
-        inputStream.read(msgType);
-        inputStream.read(msgSize);
+        in.readFully(msgType);
+        byte flags = in.readByte();
+       
+        Trace trace = null;
+        if ((flags & FLAG_TRACED) != 0)
+        {
+            trace = new Trace(in.readLong(), true);
+            trace.remoteReadNanos = in.readLong();
+            trace.remoteHandleNanos = in.readLong();
+        }
+       
+        Node sender = null;
+        if ((flags & FLAG_SENDER) != 0)
+        {
+            byte[] address = new byte[in.readUnsignedShort()];
+            in.readFully(address);
+           
+            try
+            {
+                sender = Node.from(new String(address, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e)
+            {
+                throw new IOException("Message sender is invalid", e);
+            }
+        }
+       
+        long epoch = (flags & FLAG_EPOCH) != 0 ? in.readLong() : 0L;
        
         // Create a buffer for the payload
-        int size = ByteBuffer.wrap(msgSize).getInt();
+        int size = in.readInt();
+        if (size < 0)
+        {
+            throw new IOException("Message size \"" + size + "\" is invalid");
+        }
         byte[] msgPayload = new byte[size];
        
-        inputStream.read(msgPayload);
+        in.readFully(msgPayload);
+       
+        if ((flags & FLAG_COMPRESSED) != 0)
+        {
+            msgPayload = compression.decompress(msgPayload);
+        }
        
-        return new Message(new String(msgType).trim(), msgPayload);
+        Message message = new Message(new String(msgType).trim(), msgPayload);
+        message.flags = flags;
+        message.trace = trace;
+        message.node = sender;
+        message.epoch = epoch;
+        message.bulk = (flags & FLAG_BULK) != 0;
+        return message;
     }
    
     
@@ -249,4 +530,15 @@ public class Message
     {
         return "Message(Node = " + node + ", Type=" + type + ", Length=" + length + ")";
     }
+   
+    
+    /**
+     * The lanes a node handles requests on, so that a backlog on one does not delay the others. Control messages keep
+     * the cluster healthy and are never turned away; data messages are the latency-sensitive operations on keys; bulk
+     * messages scan or move many entries.
+     */
+    public enum Lane
+    {
+        CONTROL, DATA, BULK
+    }
 }
\ No newline at end of file
@@ -0,0 +1,15 @@
+package jamsesso.meshmap;
+ 
+import java.util.Map;
+ 
+/**
+* The entry handed to an {@link EntryProcessor}. Changes made through it are applied to the map once the processor
+* returns. A {@code null} value means the key is absent; setting the value to {@code null} removes the entry.
+*/
+public interface MutableEntry<K, V> extends Map.Entry<K, V>
+{
+    public boolean exists();
+   
+    
+    public void remove();
+}
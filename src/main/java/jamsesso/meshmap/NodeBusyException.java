@@ -0,0 +1,18 @@
+package jamsesso.meshmap;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a node turned a request away because it is overloaded. The request was not handled, so it can be
+ * retried even if it is not idempotent, preferably after backing off.
+ */
+public class NodeBusyException extends IOException
+{
+    private static final long serialVersionUID = 202610191400L;
+    
+    
+    public NodeBusyException(String msg)
+    {
+        super(msg);
+    }
+}
@@ -0,0 +1,57 @@
+package jamsesso.meshmap;
+ 
+import java.io.Serializable;
+ 
+/**
+* The state a node gossips about itself on every heartbeat. The version only ever grows, so the most recent state of
+* a node can always be told apart from a relayed, older copy.
+*/
+public class NodeState implements Serializable
+{
+    private static final long serialVersionUID = 202610190930L;
+ 
+    private final Node node;
+   
+    private final long entryCount;
+   
+    private final long version;
+   
+    
+    public NodeState(Node node, long entryCount, long version)
+    {
+        this.node = node;
+        this.entryCount = entryCount;
+        this.version = version;
+    }
+   
+    
+    public Node getNode()
+    {
+        return this.node;
+    }
+   
+    
+    public long getEntryCount()
+    {
+        return this.entryCount;
+    }
+   
+    
+    public long getVersion()
+    {
+        return this.version;
+    }
+   
+    
+    public boolean isNewerThan(NodeState other)
+    {
+        return other == null || this.version > other.version;
+    }
+   
+    
+    @java.lang.Override
+    public String toString()
+    {
+        return "NodeState(Node=" + node + ", EntryCount=" + entryCount + ", Version=" + version + ")";
+    }
+}
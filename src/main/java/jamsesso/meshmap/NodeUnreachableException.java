@@ -0,0 +1,18 @@
+package jamsesso.meshmap;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a connection to a node could not be opened. Nothing has been sent to the node, so the request can be
+ * retried even if it is not idempotent.
+ */
+public class NodeUnreachableException extends IOException
+{
+    private static final long serialVersionUID = 202610191001L;
+    
+    
+    public NodeUnreachableException(String msg, Throwable cause)
+    {
+        super(msg, cause);
+    }
+}
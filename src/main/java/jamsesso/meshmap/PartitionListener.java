@@ -0,0 +1,20 @@
+package jamsesso.meshmap;
+ 
+/**
+* Observes the changes made to the local partition of a node.
+*/
+public interface PartitionListener
+{
+    /**
+     * Called after the entry of a key has changed, with the value the partition holds for it now, or {@code null} if
+     * the key is no longer present. Calls for the same key are never concurrent, and the last call for a key always
+     * reflects its latest value, even if several writes raced.
+     */
+    public void updated(Object key, Object value);
+   
+    
+    /**
+     * Called after the partition was cleared, before the keys written since are reported again.
+     */
+    public void cleared();
+}
@@ -0,0 +1,142 @@
+package jamsesso.meshmap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* The read replicas of hot keys of other nodes that a node was handed along with their values, so that it reads them
+* locally instead of from their owner.
+* <p/>
+* A replica is dropped when its owner invalidates it, when this node writes the key, and at the latest once it
+* expires. A replica is not stored if any invalidation arrived while its value was being fetched, since it could have
+* been for the same key.
+*/
+public class ReplicaCache
+{
+    protected static final int MAXIMUM_SIZE = 4096;
+
+    protected final long ttl;
+
+    protected final Map<Object, Replica> replicas = new ConcurrentHashMap<>();
+
+    protected final AtomicLong generation = new AtomicLong();
+
+
+    /**
+     * @param ttl how long, in milliseconds, a replica is kept
+     */
+    public ReplicaCache(long ttl)
+    {
+        this.ttl = ttl;
+    }
+
+
+    /**
+     * Returns the replica of the key, or {@code null} if there is none or it expired.
+     */
+    public Replica lookup(Object key)
+    {
+        Replica replica = replicas.get(key);
+
+        if (replica == null)
+        {
+            return null;
+        }
+
+        if (replica.expiresAt <= System.currentTimeMillis())
+        {
+            replicas.remove(key, replica);
+            return null;
+        }
+
+        return replica;
+    }
+
+
+    /**
+     * Returns the number of invalidations so far, to be handed to {@link #store} once the value is fetched.
+     */
+    public long generation()
+    {
+        return generation.get();
+    }
+
+
+    public void store(Object key, Object value, long fetchedAt)
+    {
+        if (generation.get() != fetchedAt)
+        {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (replicas.size() >= MAXIMUM_SIZE)
+        {
+            replicas.values().removeIf(replica -> replica.expiresAt <= now);
+
+            if (replicas.size() >= MAXIMUM_SIZE)
+            {
+                return;
+            }
+        }
+
+        Replica replica = new Replica(value, now + ttl);
+        replicas.put(key, replica);
+
+        // An invalidation may have arrived between the check and the put.
+        if (generation.get() != fetchedAt)
+        {
+            replicas.remove(key, replica);
+        }
+    }
+
+
+    public void invalidate(Object key)
+    {
+        generation.incrementAndGet();
+        replicas.remove(key);
+    }
+
+
+    public void clear()
+    {
+        generation.incrementAndGet();
+        replicas.clear();
+    }
+
+
+    public int size()
+    {
+        return replicas.size();
+    }
+
+
+    @java.lang.Override
+    public String toString()
+    {
+        return "ReplicaCache(Ttl=" + ttl + ", Size=" + replicas.size() + ")";
+    }
+
+
+    public static class Replica
+    {
+        protected final Object value;
+
+        protected final long expiresAt;
+
+
+        protected Replica(Object value, long expiresAt)
+        {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+
+        public Object getValue()
+        {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package jamsesso.meshmap;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jamsesso.meshmap.metrics.Counter;
+
+/**
+* Keeps track, on the owner of hot keys, of the nodes holding a read replica of them, and invalidates the replicas when
+* the keys change.
+* <p/>
+* A replica is leased for twice as long as the node holding it keeps it, so that the owner never stops invalidating
+* a replica that may still be read. Invalidations are sent in the background: until one arrives, the holder may read
+* the previous value, and if it is lost, the replica expires with its lease.
+*/
+public class ReplicaLeases implements PartitionListener, AutoCloseable
+{
+    private static final Logger LOG = Logger.getLogger(ReplicaLeases.class.getName());
+
+    protected final MeshMapServer server;
+
+    protected final long duration;
+
+    protected final Counter invalidations;
+
+    protected final Map<Object, Map<Node, Long>> leases = new ConcurrentHashMap<>();
+
+    protected final ExecutorService executor;
+
+    protected volatile long prunedAt = System.currentTimeMillis();
+
+
+    /**
+     * @param ttl how long, in milliseconds, holders keep a replica
+     */
+    public ReplicaLeases(MeshMapServer server, long ttl, Counter invalidations)
+    {
+        this.server = server;
+        this.duration = 2 * ttl;
+        this.invalidations = invalidations;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MeshMap Replica Invalidator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Leases a replica of the key to the node, unless the node cannot be called back to invalidate it, such as a
+     * client. Must be called before the value is read, so that any later write invalidates it.
+     */
+    public boolean grant(Object key, Node node)
+    {
+        if (node == null || isClient(node))
+        {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+
+        // Leased inside compute, so that the holders cannot be taken away by a write or a prune in between.
+        leases.compute(key, (k, holders) -> {
+            Map<Node, Long> leased = holders == null ? new ConcurrentHashMap<>() : holders;
+            leased.put(node, now + duration);
+            return leased;
+        });
+
+        if (now - prunedAt > duration)
+        {
+            prune(now);
+        }
+
+        return true;
+    }
+
+
+    public int size()
+    {
+        return leases.size();
+    }
+
+
+    @Override
+    public void updated(Object key, Object value)
+    {
+        Map<Node, Long> holders = leases.remove(key);
+
+        if (holders != null)
+        {
+            long now = System.currentTimeMillis();
+            holders.forEach((node, expiresAt) -> {
+                if (expiresAt > now)
+                {
+                    invalidate(node, new Object[] { key });
+                }
+            });
+        }
+    }
+
+
+    @Override
+    public void cleared()
+    {
+        long now = System.currentTimeMillis();
+        Map<Node, List<Object>> keysByNode = new HashMap<>();
+
+        for (Object key : new ArrayList<>(leases.keySet()))
+        {
+            Map<Node, Long> holders = leases.remove(key);
+
+            if (holders != null)
+            {
+                holders.forEach((node, expiresAt) -> {
+                    if (expiresAt > now)
+                    {
+                        keysByNode.computeIfAbsent(node, n -> new ArrayList<>()).add(key);
+                    }
+                });
+            }
+        }
+
+        keysByNode.forEach((node, keys) -> invalidate(node, keys.toArray()));
+    }
+
+
+    protected void invalidate(Node node, Object[] keys)
+    {
+        executor.execute(() -> {
+            try
+            {
+                server.message(node, new Message(MeshMap.TYPE_INVALIDATE, keys));
+                invalidations.add(keys.length);
+            } catch (IOException e)
+            {
+                LOG.log(Level.FINE, "Unable to invalidate the replicas of node " + node + ", they expire with their lease", e);
+            }
+        });
+    }
+
+
+    protected void prune(long now)
+    {
+        prunedAt = now;
+
+        for (Object key : leases.keySet())
+        {
+            leases.computeIfPresent(key, (k, holders) -> {
+                holders.values().removeIf(expiresAt -> expiresAt <= now);
+                return holders.isEmpty() ? null : holders;
+            });
+        }
+    }
+
+
+    protected static boolean isClient(Node node)
+    {
+        InetSocketAddress address = node.getAddress();
+        return address.getPort() == 0 || (address.getAddress() != null && address.getAddress().isAnyLocalAddress());
+    }
+
+
+    @Override
+    public void close()
+    {
+        executor.shutdown();
+    }
+
+
+    @java.lang.Override
+    public String toString()
+    {
+        return "ReplicaLeases(Duration=" + duration + ", Keys=" + leases.size() + ")";
+    }
+}
@@ -1,12 +1,37 @@
 package jamsesso.meshmap;
 
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
+/**
+ * Runs a task until it succeeds, fails with an exception that is not retryable, runs out of attempts or passes its
+ * deadline.
+ * <p/>
+ * Retries wait for an exponentially growing delay with full jitter, so that clients which failed together do not
+ * retry together. With a {@link CircuitBreaker}, every attempt is reported to it and no attempt is made while it is
+ * open.
+ */
 public final class Retryable<T> 
 {
     private final Task<T> task;
   
-    private Class<? extends Exception>[] causes;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Class<? extends Exception>[] causes = new Class[0];
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Class<? extends Exception>[] answers = new Class[0];
+    
+    private Consumer<Exception> onRetry = e -> {};
+    
+    private CircuitBreaker breaker = null;
+    
+    private long initialBackoff = 0L;
+    
+    private long maximumBackoff = 0L;
+    
+    private long deadline = 0L;
     
 
     private Retryable(Task<T> task) 
@@ -29,28 +54,125 @@ public final class Retryable<T>
     }
     
 
+    public final Retryable<T> onRetry(Consumer<Exception> onRetry)
+    {
+        this.onRetry = onRetry;
+        return this;
+    }
+    
+    
+    /**
+     * Waits a random time between 0 and {@code initial * 2^(attempt - 1)} milliseconds, at most {@code maximum}, before
+     * each retry.
+     */
+    public final Retryable<T> backoff(long initial, long maximum)
+    {
+        this.initialBackoff = initial;
+        this.maximumBackoff = maximum;
+        return this;
+    }
+    
+    
+    /**
+     * Gives up retrying once the given number of milliseconds have passed since the first attempt.
+     */
+    public final Retryable<T> deadline(long deadline)
+    {
+        this.deadline = deadline;
+        return this;
+    }
+    
+    
+    public final Retryable<T> through(CircuitBreaker breaker)
+    {
+        this.breaker = breaker;
+        return this;
+    }
+    
+    
+    /**
+     * Exceptions that mean the node answered, only not with a result, such as when it is busy. They are retried like
+     * any other, but reported to the circuit breaker as successes, since the node is up.
+     */
+    @SafeVarargs
+    @SuppressWarnings("varargs")
+    public final Retryable<T> answers(Class<? extends Exception>... answers)
+    {
+        this.answers = answers;
+        return this;
+    }
+    
+
     public final T times(int times) 
     throws Exception 
     {
-        // Performs the action times-1 times.
-        for (int i = 1; i < times; i++) 
+        long deadlineAt = deadline > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadline) : Long.MAX_VALUE;
+        
+        for (int attempt = 1; ; attempt++) 
         {
+            if (breaker != null && !breaker.tryAcquire())
+            {
+                throw new CircuitBreakerOpenException("Circuit breaker is open: " + breaker);
+            }
+            
             try 
             {
-                return task.apply();
+                T result = task.apply();
+                
+                if (breaker != null)
+                {
+                    breaker.onSuccess();
+                }
+                
+                return result;
             } catch (Exception e) 
             {
-                boolean shouldRetry = Stream.of(causes).anyMatch(cause -> cause.isInstance(e));
+                if (breaker != null)
+                {
+                    if (Stream.of(answers).anyMatch(answer -> answer.isInstance(e)))
+                    {
+                        breaker.onSuccess();
+                    } else
+                    {
+                        breaker.onFailure();
+                    }
+                }
+                
+                boolean shouldRetry = attempt < times && Stream.of(causes).anyMatch(cause -> cause.isInstance(e));
+                long delay = delay(attempt);
 
-                if (!shouldRetry) 
+                if (!shouldRetry || System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) >= deadlineAt) 
                 {
                     throw e;
                 }
+
+                onRetry.accept(e);
+                
+                if (delay > 0)
+                {
+                    try
+                    {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException interrupted)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw e;
+                    }
+                }
             }
         }
-
-        // Last try.
-        return task.apply();
+    }
+    
+    
+    private long delay(int attempt)
+    {
+        if (initialBackoff <= 0)
+        {
+            return 0L;
+        }
+        
+        long ceiling = Math.min(maximumBackoff, initialBackoff << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
     }
 
 
@@ -0,0 +1,200 @@
+package jamsesso.meshmap;
+ 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+ 
+/**
+* Indexes the keys of the local partition by an attribute extracted from their values. Every attribute is kept in a
+* hash index for equality lookups, and {@link Comparable} attributes are also kept in a sorted index for range
+* lookups. Values the extractor cannot handle, or maps to {@code null}, are not indexed.
+*/
+public class SecondaryIndex implements PartitionListener
+{
+    protected final String name;
+   
+    protected final Function<Object, Object> extractor;
+   
+    protected final boolean sorted;
+   
+    protected final Map<Object, Set<Object>> hash = new ConcurrentHashMap<>();
+   
+    protected final NavigableMap<Object, Set<Object>> range = new ConcurrentSkipListMap<>();
+   
+    protected final Map<Object, Object> attributes = new ConcurrentHashMap<>();
+   
+    
+    public SecondaryIndex(String name, Function<Object, Object> extractor, boolean sorted)
+    {
+        this.name = name;
+        this.extractor = extractor;
+        this.sorted = sorted;
+    }
+   
+    
+    public String getName()
+    {
+        return this.name;
+    }
+   
+    
+    public Function<Object, Object> getExtractor()
+    {
+        return this.extractor;
+    }
+   
+    
+    @Override
+    public synchronized void updated(Object key, Object value)
+    {
+        Object previous = attributes.get(key);
+        Object attribute = value == null ? null : extract(value);
+       
+        if (Objects.equals(previous, attribute))
+        {
+            return;
+        }
+       
+        if (previous != null)
+        {
+            attributes.remove(key);
+            unindex(hash, previous, key);
+           
+            if (isRanged(previous))
+            {
+                unindex(range, previous, key);
+            }
+        }
+       
+        if (attribute != null)
+        {
+            attributes.put(key, attribute);
+            index(hash, attribute, key);
+           
+            if (isRanged(attribute))
+            {
+                index(range, attribute, key);
+            }
+        }
+    }
+   
+    
+    @Override
+    public synchronized void cleared()
+    {
+        hash.clear();
+        range.clear();
+        attributes.clear();
+    }
+   
+    
+    /**
+     * Returns the keys whose attribute equals the given value.
+     */
+    public Set<Object> keys(Object attribute)
+    {
+        Set<Object> keys = hash.get(attribute);
+        return keys == null ? Collections.emptySet() : new HashSet<>(keys);
+    }
+   
+    
+    /**
+     * Returns the keys whose attribute lies between the bounds, both inclusive. A {@code null} bound is unbounded.
+     */
+    public Set<Object> keys(Object from, Object to)
+    {
+        if (!sorted)
+        {
+            throw new UnsupportedOperationException("Index " + name + " does not support range lookups");
+        }
+       
+        NavigableMap<Object, Set<Object>> matches = range;
+       
+        try
+        {
+            if (from != null)
+            {
+                matches = matches.tailMap(from, true);
+            }
+           
+            if (to != null)
+            {
+                matches = matches.headMap(to, true);
+            }
+           
+            Set<Object> keys = new HashSet<>();
+            matches.values().forEach(keys::addAll);
+            return keys;
+        } catch (ClassCastException e)
+        {
+            // The bounds are not comparable with the indexed attributes, so nothing can match.
+            return Collections.emptySet();
+        }
+    }
+   
+    
+    protected Object extract(Object value)
+    {
+        try
+        {
+            return extractor.apply(value);
+        } catch (RuntimeException e)
+        {
+            // Values of other shapes are simply left out of the index.
+            return null;
+        }
+    }
+   
+    
+    protected boolean isRanged(Object attribute)
+    {
+        return sorted && attribute instanceof Comparable;
+    }
+   
+    
+    protected static void index(Map<Object, Set<Object>> index, Object attribute, Object key)
+    {
+        try
+        {
+            index.computeIfAbsent(attribute, a -> ConcurrentHashMap.newKeySet()).add(key);
+        } catch (ClassCastException e)
+        {
+            // Attribute is not comparable with the attributes already in the sorted index.
+        }
+    }
+   
+    
+    protected static void unindex(Map<Object, Set<Object>> index, Object attribute, Object key)
+    {
+        try
+        {
+            Set<Object> keys = index.get(attribute);
+           
+            if (keys != null)
+            {
+                keys.remove(key);
+               
+                if (keys.isEmpty())
+                {
+                    index.remove(attribute);
+                }
+            }
+        } catch (ClassCastException e)
+        {
+            // Attribute was never added to the sorted index.
+        }
+    }
+   
+    
+    @java.lang.Override
+    public String toString()
+    {
+        return "SecondaryIndex(Name=" + name + ", Sorted=" + sorted + ", Attributes=" + hash.size() + ", Keys=" + attributes.size() + ")";
+    }
+}
@@ -0,0 +1,12 @@
+package jamsesso.meshmap;
+ 
+import java.io.Serializable;
+import java.util.function.BiFunction;
+ 
+/**
+* A function of two arguments that can be shipped to other nodes and evaluated there.
+*/
+@FunctionalInterface
+public interface SerializableBiFunction<T, U, R> extends BiFunction<T, U, R>, Serializable
+{
+}
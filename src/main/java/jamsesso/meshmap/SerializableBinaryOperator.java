@@ -0,0 +1,12 @@
+package jamsesso.meshmap;
+ 
+import java.io.Serializable;
+import java.util.function.BinaryOperator;
+ 
+/**
+* An operator combining two values of the same type that can be shipped to other nodes and evaluated there.
+*/
+@FunctionalInterface
+public interface SerializableBinaryOperator<T> extends BinaryOperator<T>, Serializable
+{
+}
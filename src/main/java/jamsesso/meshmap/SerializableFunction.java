@@ -0,0 +1,12 @@
+package jamsesso.meshmap;
+ 
+import java.io.Serializable;
+import java.util.function.Function;
+ 
+/**
+* A function that can be shipped to other nodes and evaluated there.
+*/
+@FunctionalInterface
+public interface SerializableFunction<T, R> extends Function<T, R>, Serializable
+{
+}
@@ -0,0 +1,12 @@
+package jamsesso.meshmap;
+ 
+import java.io.Serializable;
+import java.util.function.BiPredicate;
+ 
+/**
+* A condition on the key and value of an entry that can be shipped to other nodes and evaluated there.
+*/
+@FunctionalInterface
+public interface SerializablePredicate<K, V> extends BiPredicate<K, V>, Serializable
+{
+}
@@ -0,0 +1,758 @@
+package jamsesso.meshmap;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import jamsesso.meshmap.FailureDetector.Status;
+
+/**
+* A cluster whose membership is kept by the SWIM protocol (Das et al., "SWIM: Scalable Weakly-consistent
+* Infection-style Process Group Membership Protocol") instead of a shared directory.
+* <p/>
+* A node joins through any of a few seed nodes, which hands it the membership. Once a protocol period (the heartbeat
+* interval), every node pings one member, taken in a shuffled round-robin order. If the member does not answer in time,
+* a few other members are asked to ping it, and only if none of them gets an answer is it suspected. A suspect that
+* does not refute the suspicion, by announcing a higher incarnation number, within the suspicion timeout is declared
+* dead. Membership updates are piggybacked on the pings and acknowledgements, each a few times log(N), so that they
+* reach every node in O(log N) periods while every node sends a constant number of messages per period.
+*/
+public class SwimMeshMapCluster extends AbstractMeshMapCluster
+{
+    private static final Logger LOG = Logger.getLogger(SwimMeshMapCluster.class.getName());
+
+    public static final String TYPE_SWIM_JOIN = "SWIM_JOIN";
+
+    public static final String TYPE_SWIM_PING = "SWIM_PING";
+
+    public static final String TYPE_SWIM_PING_REQ = "SWIM_PING_REQ";
+
+    public static final String TYPE_SWIM_ACK = "SWIM_ACK";
+
+    // An update is piggybacked RETRANSMIT_MULTIPLIER * log2(N + 1) times.
+    protected static final int RETRANSMIT_MULTIPLIER = 3;
+
+    protected static final int MAXIMUM_PIGGYBACK = 8;
+
+    // How long dead members are remembered, so that outdated updates about them are not taken for new ones.
+    protected static final long TOMBSTONE_TIME = 60000L;
+
+    static
+    {
+        Message.idempotent(TYPE_SWIM_JOIN, TYPE_SWIM_PING, TYPE_SWIM_PING_REQ, TYPE_SWIM_ACK);
+        Message.lane(Message.Lane.CONTROL, TYPE_SWIM_JOIN, TYPE_SWIM_PING, TYPE_SWIM_PING_REQ, TYPE_SWIM_ACK);
+    }
+
+    protected final List<Node> seeds;
+
+    protected final Map<Node, Member> members = new ConcurrentHashMap<>();
+
+    // Pending updates by node, so that a newer update about a node replaces the older one.
+    protected final Map<Node, Rumor> rumors = new LinkedHashMap<>();
+
+    protected final List<Node> probeOrder = new ArrayList<>();
+
+    protected volatile List<Node> nodes;
+
+    // Seeded from the clock so that a restarted node always has a higher incarnation than before.
+    protected long incarnation = System.currentTimeMillis();
+
+    protected ScheduledExecutorService executor;
+
+    protected ExecutorService requests;
+
+
+    public SwimMeshMapCluster(final Node self, final Collection<Node> seeds)
+    {
+        super(self);
+
+        this.seeds = seeds == null ? Collections.emptyList() : seeds.stream().filter(seed -> !seed.equals(self)).collect(Collectors.toList());
+        this.nodes = Collections.singletonList(self);
+    }
+
+
+    public SwimMeshMapCluster(final Node self, final Node... seeds)
+    {
+        this(self, Arrays.asList(seeds));
+    }
+
+
+    @Override
+    public List<Node> getAllNodes()
+    {
+        return nodes;
+    }
+
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Node register(Node node)
+    throws MeshMapException
+    {
+        if (node == null)
+        {
+            throw new MeshMapException("A Node must be provided for cluster registration");
+        }
+
+        if (!node.equals(self))
+        {
+            Member member = members.get(node);
+            long known = member == null ? 0L : member.incarnation;
+
+            // Registering is a local decision, so it is forced even if the incarnation is not newer.
+            if (member != null && member.status == Status.DEAD)
+            {
+                members.remove(node);
+            }
+
+            apply(new MemberUpdate(node, Status.ALIVE, known));
+        }
+
+        return node;
+    }
+
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Node unregister(Node node)
+    {
+        Member member = members.get(node);
+
+        if (member == null || member.status == Status.DEAD)
+        {
+            return null;
+        }
+
+        apply(new MemberUpdate(node, Status.DEAD, member.incarnation));
+        return node;
+    }
+
+
+    /**
+     * Suspects the node as an unanswered probe does, instead of declaring it dead: the view of a single node, after a
+     * pause or over a one-way link, is not enough. The node is removed only if it does not refute the suspicion within
+     * the suspicion timeout.
+     */
+    @Override
+    public void suspect(Node node)
+    {
+        Member member = members.get(node);
+
+        if (member != null && member.status == Status.ALIVE)
+        {
+            LOG.fine("Suspecting node " + node + " on the report of the failure detector");
+            apply(new MemberUpdate(node, Status.SUSPECT, member.incarnation));
+        }
+    }
+
+
+    @Override
+    protected Message handle(Message message)
+    {
+        switch (message.getType())
+        {
+            case TYPE_SWIM_JOIN:
+            {
+                receive(message);
+
+                // The joining node is handed the whole membership, including this node.
+                List<MemberUpdate> updates = new ArrayList<>();
+                updates.add(new MemberUpdate(self, Status.ALIVE, currentIncarnation()));
+                members.forEach((node, member) -> {
+                    if (member.status != Status.DEAD)
+                    {
+                        updates.add(new MemberUpdate(node, member.status, member.incarnation));
+                    }
+                });
+                return new Message(TYPE_SWIM_ACK, new Gossip(null, updates.toArray(new MemberUpdate[0])));
+            }
+            case TYPE_SWIM_PING:
+            {
+                receive(message);
+                return ack(message.getNode());
+            }
+            case TYPE_SWIM_PING_REQ:
+            {
+                Gossip gossip = receive(message);
+
+                if (gossip == null || gossip.target == null || !ping(gossip.target, config.getHeartbeatInterval() / 2))
+                {
+                    return messageNO();
+                }
+                return ack(message.getNode());
+            }
+            default:
+            {
+                return null;
+            }
+        }
+    }
+
+
+    @Override
+    protected void discover()
+    throws MeshMapException
+    {
+        requests = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "MeshMap SWIM Request");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Message join = new Message(TYPE_SWIM_JOIN, new Gossip(null, new MemberUpdate[] { new MemberUpdate(self, Status.ALIVE, currentIncarnation()) }));
+        boolean joined = seeds.isEmpty();
+
+        for (Node seed : seeds)
+        {
+            Message response = request(seed, join, config.getRequestDeadline());
+
+            if (response != null && TYPE_SWIM_ACK.equals(response.getType()))
+            {
+                joined = true;
+                break;
+            }
+        }
+
+        if (!joined)
+        {
+            LOG.config("No seed node answered. Initial Node in Cluster.");
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MeshMap SWIM");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::probe, config.getHeartbeatInterval(), config.getHeartbeatInterval(), TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Joining is disseminated by the seed node, so there is nothing to broadcast.
+     */
+    @Override
+    protected void announce()
+    {
+    }
+
+
+    /**
+     * Runs one protocol period: expires suspicions and probes the next member.
+     */
+    protected void probe()
+    {
+        try
+        {
+            long now = System.currentTimeMillis();
+
+            for (Map.Entry<Node, Member> entry : members.entrySet())
+            {
+                Member member = entry.getValue();
+
+                if (member.status == Status.SUSPECT && member.changedAt + config.getSwimSuspicionTimeout() <= now)
+                {
+                    apply(new MemberUpdate(entry.getKey(), Status.DEAD, member.incarnation));
+                } else if (member.status == Status.DEAD && member.changedAt + TOMBSTONE_TIME <= now)
+                {
+                    members.remove(entry.getKey(), member);
+                }
+            }
+
+            Node target = nextTarget();
+
+            if (target == null)
+            {
+                return;
+            }
+
+            long timeout = config.getHeartbeatInterval() / 2;
+
+            if (ping(target, timeout) || pingIndirectly(target, timeout))
+            {
+                return;
+            }
+
+            Member member = members.get(target);
+
+            if (member != null && member.status == Status.ALIVE)
+            {
+                LOG.fine("Suspecting node " + target);
+                apply(new MemberUpdate(target, Status.SUSPECT, member.incarnation));
+            }
+        } catch (RuntimeException e)
+        {
+            LOG.log(Level.WARNING, "Unable to probe members", e);
+        }
+    }
+
+
+    protected Node nextTarget()
+    {
+        synchronized (probeOrder)
+        {
+            while (!probeOrder.isEmpty())
+            {
+                Node node = probeOrder.remove(probeOrder.size() - 1);
+                Member member = members.get(node);
+
+                if (member != null && member.status != Status.DEAD)
+                {
+                    return node;
+                }
+            }
+
+            // Every member is probed once per round, in a new random order each round.
+            members.forEach((node, member) -> {
+                if (member.status != Status.DEAD)
+                {
+                    probeOrder.add(node);
+                }
+            });
+            Collections.shuffle(probeOrder, ThreadLocalRandom.current());
+
+            return probeOrder.isEmpty() ? null : probeOrder.remove(probeOrder.size() - 1);
+        }
+    }
+
+
+    protected boolean ping(Node target, long timeout)
+    {
+        Message response = request(target, new Message(TYPE_SWIM_PING, gossip(target)), timeout);
+        return response != null && TYPE_SWIM_ACK.equals(response.getType());
+    }
+
+
+    /**
+     * Asks a few other members to ping the target, and waits for the first of them that reaches it.
+     */
+    protected boolean pingIndirectly(Node target, long timeout)
+    {
+        List<Node> helpers = members.entrySet().stream()
+            .filter(entry -> entry.getValue().status == Status.ALIVE && !entry.getKey().equals(target))
+            .map(Map.Entry::getKey)
+            .collect(Collectors.toList());
+        Collections.shuffle(helpers, ThreadLocalRandom.current());
+
+        if (helpers.isEmpty())
+        {
+            return false;
+        }
+
+        CompletableFuture<Boolean> reached = new CompletableFuture<>();
+        List<CompletableFuture<Message>> pending = new ArrayList<>();
+
+        for (Node helper : helpers.subList(0, Math.min(config.getSwimIndirectProbes(), helpers.size())))
+        {
+            pending.add(send(helper, new Message(TYPE_SWIM_PING_REQ, gossip(target))).thenApply(response -> {
+                receive(response);
+
+                if (TYPE_SWIM_ACK.equals(response.getType()))
+                {
+                    reached.complete(true);
+                }
+                return response;
+            }));
+        }
+
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).whenComplete((result, e) -> reached.complete(false));
+
+        try
+        {
+            // The helpers ping the target with the same timeout, so they are given twice as long.
+            return reached.get(2 * timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e)
+        {
+            return false;
+        }
+    }
+
+
+    /**
+     * Sends a message and waits at most the given number of milliseconds for the response, whose updates are
+     * applied. Returns {@code null} if there is no response in time.
+     */
+    protected Message request(Node node, Message message, long timeout)
+    {
+        try
+        {
+            Message response = send(node, message).get(timeout, TimeUnit.MILLISECONDS);
+            receive(response);
+            return response;
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e)
+        {
+            LOG.log(Level.FINE, "No response from node " + node + " to " + message.getType(), e);
+            return null;
+        }
+    }
+
+
+    protected CompletableFuture<Message> send(Node node, Message message)
+    {
+        MeshMapServer server = this.server;
+
+        if (server == null)
+        {
+            CompletableFuture<Message> closed = new CompletableFuture<>();
+            closed.completeExceptionally(new IOException("Node is not running"));
+            return closed;
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            try
+            {
+                return server.message(node, message);
+            } catch (IOException e)
+            {
+                throw new CompletionException(e);
+            }
+        }, requests);
+    }
+
+
+    protected Message ack(Node sender)
+    {
+        Gossip gossip = gossip(sender);
+        Member member = sender == null ? null : members.get(sender);
+
+        // A node that was declared dead by mistake learns about it from any node it talks to, and refutes it.
+        if (member != null && member.status == Status.DEAD)
+        {
+            MemberUpdate[] updates = Arrays.copyOf(gossip.updates, gossip.updates.length + 1);
+            updates[gossip.updates.length] = new MemberUpdate(sender, Status.DEAD, member.incarnation);
+            gossip = new Gossip(sender, updates);
+        }
+
+        return new Message(TYPE_SWIM_ACK, gossip);
+    }
+
+
+    /**
+     * Applies the updates piggybacked on a message, and returns its payload.
+     */
+    protected Gossip receive(Message message)
+    {
+        if (message == null || message.getLength() == 0)
+        {
+            return null;
+        }
+
+        Object payload = message.getPayload(Object.class);
+
+        if (!(payload instanceof Gossip))
+        {
+            return null;
+        }
+
+        Gossip gossip = (Gossip) payload;
+
+        for (MemberUpdate update : gossip.updates)
+        {
+            apply(update);
+        }
+
+        return gossip;
+    }
+
+
+    /**
+     * Applies an update to the membership if it is newer than what is known, and disseminates it. An update is newer
+     * if it has a higher incarnation, or the same incarnation and a worse status. Updates about this node that are not
+     * alive are refuted by incrementing its incarnation.
+     */
+    protected void apply(MemberUpdate update)
+    {
+        if (update.node.equals(self))
+        {
+            if (update.status != Status.ALIVE)
+            {
+                refute(update.incarnation);
+            }
+            return;
+        }
+
+        Status previous;
+
+        synchronized (members)
+        {
+            Member member = members.get(update.node);
+            previous = member == null ? null : member.status;
+
+            if (member != null && (update.incarnation < member.incarnation || (update.incarnation == member.incarnation && update.status.compareTo(member.status) <= 0)))
+            {
+                return;
+            }
+
+            // Suspicions about unknown nodes are of no use, they will be heard of again if they are alive.
+            if (member == null && update.status == Status.SUSPECT)
+            {
+                return;
+            }
+
+            members.put(update.node, new Member(update.status, update.incarnation, System.currentTimeMillis()));
+            nodes = snapshot();
+        }
+
+        disseminate(update);
+
+        boolean wasMember = previous != null && previous != Status.DEAD;
+        boolean isMember = update.status != Status.DEAD;
+
+        if (!wasMember && isMember)
+        {
+            LOG.fine("Node joined: " + update.node);
+            fireMemberJoined(update.node);
+        } else if (wasMember && !isMember)
+        {
+            LOG.fine("Node left: " + update.node);
+            fireMemberLeft(update.node);
+        }
+    }
+
+
+    protected void refute(long suspected)
+    {
+        long refuted;
+
+        synchronized (this)
+        {
+            if (suspected < incarnation)
+            {
+                return;
+            }
+
+            incarnation = suspected + 1;
+            refuted = incarnation;
+        }
+
+        LOG.fine("Refuting suspicion of this node with incarnation " + refuted);
+        disseminate(new MemberUpdate(self, Status.ALIVE, refuted));
+    }
+
+
+    protected synchronized long currentIncarnation()
+    {
+        return incarnation;
+    }
+
+
+    protected List<Node> snapshot()
+    {
+        List<Node> snapshot = new ArrayList<>();
+        snapshot.add(self);
+        members.forEach((node, member) -> {
+            if (member.status != Status.DEAD)
+            {
+                snapshot.add(node);
+            }
+        });
+        snapshot.sort(Comparator.comparingInt(Node::getId));
+        return Collections.unmodifiableList(snapshot);
+    }
+
+
+    protected void disseminate(MemberUpdate update)
+    {
+        synchronized (rumors)
+        {
+            rumors.remove(update.node);
+            rumors.put(update.node, new Rumor(update));
+        }
+    }
+
+
+    /**
+     * Builds the payload of a message, with the updates that were sent the fewest times so far.
+     */
+    protected Gossip gossip(Node target)
+    {
+        int limit = RETRANSMIT_MULTIPLIER * (32 - Integer.numberOfLeadingZeros(nodes.size() + 1));
+        List<MemberUpdate> updates = new ArrayList<>();
+
+        synchronized (rumors)
+        {
+            List<Rumor> fewest = new ArrayList<>(rumors.values());
+            fewest.sort(Comparator.comparingInt(rumor -> rumor.transmissions));
+
+            for (Rumor rumor : fewest.subList(0, Math.min(MAXIMUM_PIGGYBACK, fewest.size())))
+            {
+                updates.add(rumor.update);
+                rumor.transmissions++;
+            }
+
+            for (Iterator<Rumor> iterator = rumors.values().iterator(); iterator.hasNext();)
+            {
+                if (iterator.next().transmissions >= limit)
+                {
+                    iterator.remove();
+                }
+            }
+        }
+
+        return new Gossip(target, updates.toArray(new MemberUpdate[0]));
+    }
+
+
+    @Override
+    public void close()
+    throws Exception
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        if (server != null)
+        {
+            // Leaving is disseminated like a failure, starting from a few members.
+            disseminate(new MemberUpdate(self, Status.DEAD, currentIncarnation()));
+            List<Node> peers = new ArrayList<>(nodes);
+            peers.remove(self);
+            Collections.shuffle(peers, ThreadLocalRandom.current());
+
+            List<CompletableFuture<Message>> leaves = new ArrayList<>();
+            for (Node peer : peers.subList(0, Math.min(config.getGossipFanout(), peers.size())))
+            {
+                leaves.add(send(peer, new Message(TYPE_SWIM_PING, gossip(peer))));
+            }
+
+            try
+            {
+                CompletableFuture.allOf(leaves.toArray(new CompletableFuture<?>[0])).get(config.getHeartbeatInterval(), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException | TimeoutException e)
+            {
+                LOG.log(Level.FINE, "Not every member was told that this node left", e);
+            }
+
+            server.close();
+            server = null;
+        }
+
+        if (requests != null)
+        {
+            requests.shutdownNow();
+            requests = null;
+        }
+    }
+
+
+    @java.lang.Override
+    public String toString()
+    {
+        return "SwimMeshMapCluster(Self=" + self + ", Members=" + nodes.size() + ", Incarnation=" + currentIncarnation() + ")";
+    }
+
+
+    /**
+     * What a node knows about another member.
+     */
+    protected static class Member
+    {
+        protected final Status status;
+
+        protected final long incarnation;
+
+        protected final long changedAt;
+
+
+        protected Member(Status status, long incarnation, long changedAt)
+        {
+            this.status = status;
+            this.incarnation = incarnation;
+            this.changedAt = changedAt;
+        }
+    }
+
+
+    /**
+     * An update waiting to be piggybacked, with the number of times it was sent.
+     */
+    protected static class Rumor
+    {
+        protected final MemberUpdate update;
+
+        protected int transmissions = 0;
+
+
+        protected Rumor(MemberUpdate update)
+        {
+            this.update = update;
+        }
+    }
+
+
+    public static class MemberUpdate implements Serializable
+    {
+        private static final long serialVersionUID = 202610191210L;
+
+        protected final Node node;
+
+        protected final Status status;
+
+        protected final long incarnation;
+
+
+        public MemberUpdate(Node node, Status status, long incarnation)
+        {
+            this.node = node;
+            this.status = status;
+            this.incarnation = incarnation;
+        }
+
+
+        @java.lang.Override
+        public String toString()
+        {
+            return "MemberUpdate(Node=" + node + ", Status=" + status + ", Incarnation=" + incarnation + ")";
+        }
+    }
+
+
+    /**
+     * The payload of every SWIM message: the node to ping, if any, and the piggybacked updates.
+     */
+    public static class Gossip implements Serializable
+    {
+        private static final long serialVersionUID = 202610191211L;
+
+        protected final Node target;
+
+        protected final MemberUpdate[] updates;
+
+
+        public Gossip(Node target, MemberUpdate[] updates)
+        {
+            this.target = target;
+            this.updates = updates;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package jamsesso.meshmap;
+ 
+import java.util.concurrent.TimeUnit;
+ 
+/**
+* The time, in nanoseconds, a request spent in each phase of its round trip to another node.
+* <p/>
+* The sending node measures serializing the request, connecting (over every attempt), writing it and waiting for the
+* response. When the request is sampled, its trace id travels with it and the receiving node answers with the time it
+* spent reading the request and handling it. What is left of the wait is the time the request sat in the receiving
+* node's accept queue plus the time on the network.
+*/
+public class Trace
+{
+    protected final long id;
+   
+    protected final boolean sampled;
+   
+    protected String type;
+   
+    protected Node node;
+   
+    protected int attempts;
+   
+    protected long serializeNanos;
+   
+    protected long connectNanos;
+   
+    protected long writeNanos;
+   
+    protected long responseNanos;
+   
+    protected long remoteReadNanos = -1L;
+   
+    protected long remoteHandleNanos = -1L;
+   
+    protected long totalNanos;
+   
+    
+    public Trace(long id, boolean sampled)
+    {
+        this.id = id;
+        this.sampled = sampled;
+    }
+   
+    
+    /**
+     * Creates the trace a node sends back with its response to a sampled request.
+     */
+    public static Trace reply(Trace request, long readNanos, long handleNanos)
+    {
+        Trace trace = new Trace(request.id, true);
+        trace.remoteReadNanos = readNanos;
+        trace.remoteHandleNanos = handleNanos;
+        return trace;
+    }
+   
+    
+    public long getId()
+    {
+        return id;
+    }
+   
+    
+    public boolean isSampled()
+    {
+        return sampled;
+    }
+   
+    
+    public String getType()
+    {
+        return type;
+    }
+   
+    
+    public Node getNode()
+    {
+        return node;
+    }
+   
+    
+    public int getAttempts()
+    {
+        return attempts;
+    }
+   
+    
+    public long getSerializeNanos()
+    {
+        return serializeNanos;
+    }
+   
+    
+    public long getConnectNanos()
+    {
+        return connectNanos;
+    }
+   
+    
+    public long getWriteNanos()
+    {
+        return writeNanos;
+    }
+   
+    
+    public long getResponseNanos()
+    {
+        return responseNanos;
+    }
+   
+    
+    /**
+     * Returns the time the receiving node spent reading the request, or -1 if the request was not sampled.
+     */
+    public long getRemoteReadNanos()
+    {
+        return remoteReadNanos;
+    }
+   
+    
+    /**
+     * Returns the time the receiving node spent handling the request, or -1 if the request was not sampled.
+     */
+    public long getRemoteHandleNanos()
+    {
+        return remoteHandleNanos;
+    }
+   
+    
+    /**
+     * Returns the part of the wait for the response that was not spent reading or handling the request on the
+     * receiving node, or -1 if the request was not sampled.
+     */
+    public long getQueueAndNetworkNanos()
+    {
+        if (remoteReadNanos < 0 || remoteHandleNanos < 0)
+        {
+            return -1L;
+        }
+       
+        return Math.max(0L, responseNanos - remoteReadNanos - remoteHandleNanos);
+    }
+   
+    
+    public long getTotalNanos()
+    {
+        return totalNanos;
+    }
+   
+    
+    @java.lang.Override
+    public String toString()
+    {
+        StringBuilder out = new StringBuilder();
+        out.append(type).append(" to ").append(node).append(" took ").append(millis(totalNanos))
+            .append(" (serialize=").append(millis(serializeNanos))
+            .append(", connect=").append(millis(connectNanos))
+            .append(", attempts=").append(attempts)
+            .append(", write=").append(millis(writeNanos))
+            .append(", response=").append(millis(responseNanos));
+       
+        if (remoteHandleNanos >= 0)
+        {
+            out.append(" [remote read=").append(millis(remoteReadNanos))
+                .append(", remote handle=").append(millis(remoteHandleNanos))
+                .append(", queue and network=").append(millis(getQueueAndNetworkNanos())).append(']');
+        }
+       
+        return out.append(", trace=").append(Long.toHexString(id)).append(')').toString();
+    }
+   
+    
+    private static String millis(long nanos)
+    {
+        return String.format("%.3fms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,70 @@
+package jamsesso.meshmap;
+ 
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+ 
+/**
+* A Java Flight Recorder event for one phase of a sampled request. Only loaded by {@link Tracer} when the JVM has the
+* jdk.jfr module.
+*/
+@Name("jamsesso.meshmap.RequestPhase")
+@Label("Request Phase")
+@Category("MeshMap")
+@Description("Time a sampled request spent in one phase of its round trip to another node")
+@StackTrace(false)
+public class TraceEvent extends Event
+{
+    @Label("Trace Id")
+    protected String traceId;
+   
+    @Label("Message Type")
+    protected String type;
+   
+    @Label("Node")
+    protected String node;
+   
+    @Label("Phase")
+    protected String phase;
+   
+    @Label("Phase Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    protected long phaseDuration;
+   
+    
+    static void commit(Trace trace)
+    {
+        commit(trace, "serialize", trace.getSerializeNanos());
+        commit(trace, "connect", trace.getConnectNanos());
+        commit(trace, "write", trace.getWriteNanos());
+        commit(trace, "response", trace.getResponseNanos());
+        commit(trace, "remote read", trace.getRemoteReadNanos());
+        commit(trace, "remote handle", trace.getRemoteHandleNanos());
+        commit(trace, "queue and network", trace.getQueueAndNetworkNanos());
+    }
+   
+    
+    private static void commit(Trace trace, String phase, long nanos)
+    {
+        if (nanos < 0)
+        {
+            return;
+        }
+       
+        TraceEvent event = new TraceEvent();
+       
+        if (event.isEnabled())
+        {
+            event.traceId = Long.toHexString(trace.getId());
+            event.type = trace.getType();
+            event.node = String.valueOf(trace.getNode());
+            event.phase = phase;
+            event.phaseDuration = nanos;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package jamsesso.meshmap;
+ 
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+ 
+/**
+* Decides which requests are traced and reports their traces.
+* <p/>
+* A sampled request carries its trace to the receiving node, is logged at FINE level and is recorded as Java Flight
+* Recorder events, one per phase, when the JVM supports them. Independently of sampling, every request slower than the
+* slow-operation threshold is logged as a warning with the phases measured on the sending node, plus the remote phases
+* if it was sampled.
+*/
+public class Tracer
+{
+    private static final Logger LOG = Logger.getLogger(Tracer.class.getName());
+   
+    public static final Tracer NONE = new Tracer(0.0, 0L);
+   
+    // Only touch TraceEvent when the JVM has the jdk.jfr module, otherwise loading it would fail.
+    private static final boolean FLIGHT_RECORDER = isFlightRecorderAvailable();
+   
+    protected final double sampleRate;
+   
+    protected final long slowThresholdNanos;
+   
+    
+    /**
+     * @param sampleRate the fraction of the requests that are traced, between 0 and 1
+     * @param slowThreshold the duration in milliseconds above which a request is logged, 0 to never log
+     */
+    public Tracer(double sampleRate, long slowThreshold)
+    {
+        this.sampleRate = sampleRate;
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThreshold);
+    }
+   
+    
+    public boolean isEnabled()
+    {
+        return sampleRate > 0 || slowThresholdNanos > 0;
+    }
+   
+    
+    /**
+     * Returns a trace for a request about to be sent, or {@code null} if the request does not need to be measured.
+     */
+    public Trace start(Message message)
+    {
+        if (!isEnabled())
+        {
+            return null;
+        }
+       
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Trace trace = new Trace(random.nextLong(), sampleRate > 0 && random.nextDouble() < sampleRate);
+        trace.type = message.getType();
+        trace.serializeNanos = message.getSerializeNanos();
+        return trace;
+    }
+   
+    
+    public void finish(Trace trace)
+    {
+        if (slowThresholdNanos > 0 && trace.getTotalNanos() >= slowThresholdNanos)
+        {
+            LOG.log(Level.WARNING, "Slow request: " + trace);
+        } else if (trace.isSampled() && LOG.isLoggable(Level.FINE))
+        {
+            LOG.log(Level.FINE, "Traced request: " + trace);
+        }
+       
+        if (trace.isSampled() && FLIGHT_RECORDER)
+        {
+            TraceEvent.commit(trace);
+        }
+    }
+   
+    
+    private static boolean isFlightRecorderAvailable()
+    {
+        try
+        {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e)
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package jamsesso.meshmap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jamsesso.meshmap.metrics.Counter;
+import jamsesso.meshmap.metrics.Metrics;
+
+/**
+* Buffers the puts to each node and sends them as batches, so that the caller of a put does not wait for a round trip.
+* <p/>
+* A buffer is sent once it holds the configured number of entries, or once its first entry waited for the configured
+* linger time. Only one batch per node is in flight at a time, so the writes of a key arrive in order, and the puts
+* made meanwhile make up the next batch. Puts of a key still in the buffer replace its value instead of adding to the
+* batch. A caller only waits once the buffer of a node holds {@link #MAXIMUM_PENDING_BATCHES} batches.
+* <p/>
+* A batch that cannot be delivered is logged and its entries are kept, up to {@link #MAXIMUM_FAILED_ENTRIES}, to be
+* reported by the next {@link #flush()}.
+*/
+public class WriteBehind implements AutoCloseable
+{
+    private static final Logger LOG = Logger.getLogger(WriteBehind.class.getName());
+
+    protected static final int MAXIMUM_PENDING_BATCHES = 8;
+
+    protected static final int MAXIMUM_FAILED_ENTRIES = 65536;
+
+    protected final Sender sender;
+
+    protected final int batchSize;
+
+    protected final long linger;
+
+    protected final Map<Node, Buffer> buffers = new ConcurrentHashMap<>();
+
+    protected final Map<Object, Object> failedEntries = new LinkedHashMap<>();
+
+    protected final List<Throwable> failures = new ArrayList<>();
+
+    protected long failedCount = 0L;
+
+    protected final ScheduledExecutorService scheduler;
+
+    protected final ExecutorService executor;
+
+    protected final Counter batches;
+
+    protected final Counter entries;
+
+    protected final Counter coalesced;
+
+    protected final Counter failed;
+
+
+    /**
+     * @param batchSize the number of entries from which a buffer is sent
+     * @param linger how long, in microseconds, the first entry of a buffer waits for others
+     */
+    public WriteBehind(Sender sender, int batchSize, long linger, Metrics metrics)
+    {
+        this.sender = sender;
+        this.batchSize = batchSize;
+        this.linger = linger;
+        this.batches = metrics.counter("writeBehind.batches");
+        this.entries = metrics.counter("writeBehind.entries");
+        this.coalesced = metrics.counter("writeBehind.coalesced");
+        this.failed = metrics.counter("writeBehind.failed");
+
+        ThreadFactory threads = runnable -> {
+            Thread thread = new Thread(runnable, "MeshMap Write Behind");
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threads);
+        this.executor = Executors.newCachedThreadPool(threads);
+    }
+
+
+    public void put(Node node, Object key, Object value)
+    {
+        buffers.computeIfAbsent(node, Buffer::new).put(key, value);
+    }
+
+
+    /**
+     * Returns the value of the key waiting to be delivered to the node, or {@code null} if there is none.
+     */
+    public Object lookup(Node node, Object key)
+    {
+        Buffer buffer = buffers.get(node);
+        return buffer == null ? null : buffer.lookup(key);
+    }
+
+
+    /**
+     * Sends the buffer of the node at once and waits until every put made to it so far was delivered or failed.
+     */
+    public void flush(Node node)
+    {
+        Buffer buffer = buffers.get(node);
+
+        if (buffer != null)
+        {
+            buffer.flush();
+        }
+    }
+
+
+    /**
+     * Sends every buffer at once and waits until every put made so far was delivered or failed. Throws if any put
+     * failed since the previous flush.
+     */
+    public void flush()
+    {
+        for (Buffer buffer : buffers.values())
+        {
+            buffer.flush();
+        }
+
+        WriteBehindException exception;
+
+        synchronized (failedEntries)
+        {
+            if (failedCount == 0)
+            {
+                return;
+            }
+
+            exception = new WriteBehindException(failedCount + " buffered writes could not be delivered", new LinkedHashMap<>(failedEntries), failedCount);
+            failures.forEach(exception::addSuppressed);
+            failedEntries.clear();
+            failures.clear();
+            failedCount = 0L;
+        }
+
+        throw exception;
+    }
+
+
+    protected void failed(Node node, Map<Object, Object> batch, RuntimeException cause)
+    {
+        LOG.log(Level.WARNING, "Unable to deliver " + batch.size() + " buffered writes to node " + node, cause);
+        failed.add(batch.size());
+
+        synchronized (failedEntries)
+        {
+            failedCount += batch.size();
+
+            if (failures.size() < MAXIMUM_PENDING_BATCHES)
+            {
+                failures.add(cause);
+            }
+
+            for (Map.Entry<Object, Object> entry : batch.entrySet())
+            {
+                if (failedEntries.size() >= MAXIMUM_FAILED_ENTRIES)
+                {
+                    break;
+                }
+
+                failedEntries.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+
+    /**
+     * Delivers what was buffered and stops. Throws if any put failed since the last flush.
+     */
+    @Override
+    public void close()
+    {
+        try
+        {
+            flush();
+        } finally
+        {
+            scheduler.shutdownNow();
+            executor.shutdown();
+        }
+    }
+
+
+    @java.lang.Override
+    public String toString()
+    {
+        return "WriteBehind(BatchSize=" + batchSize + ", Linger=" + linger + ", Nodes=" + buffers.size() + ")";
+    }
+
+
+    /**
+     * Delivers a batch of entries to the node owning them, throwing if it could not.
+     */
+    @FunctionalInterface
+    public interface Sender
+    {
+        void send(Node node, Map<Object, Object> batch);
+    }
+
+
+    protected class Buffer
+    {
+        protected final Node node;
+
+        protected Map<Object, Object> pending = new LinkedHashMap<>();
+
+        protected Map<Object, Object> sending = Collections.emptyMap();
+
+        protected boolean draining = false;
+
+        // Puts accepted, and puts delivered or failed, so that a flush knows what to wait for.
+        protected long written = 0L;
+
+        protected long done = 0L;
+
+
+        protected Buffer(Node node)
+        {
+            this.node = node;
+        }
+
+
+        protected synchronized void put(Object key, Object value)
+        {
+            while (pending.size() >= batchSize * MAXIMUM_PENDING_BATCHES && !pending.containsKey(key))
+            {
+                try
+                {
+                    wait();
+                } catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new MeshMapRuntimeException("Interrupted while waiting for the write buffer of node " + node, e);
+                }
+            }
+
+            if (pending.put(key, value) != null)
+            {
+                coalesced.increment();
+            }
+
+            written++;
+
+            if (draining)
+            {
+                // Goes with the next batch, once the one in flight is delivered.
+                return;
+            }
+
+            if (pending.size() >= batchSize)
+            {
+                drain();
+            } else if (pending.size() == 1)
+            {
+                scheduler.schedule(this::expire, linger, TimeUnit.MICROSECONDS);
+            }
+        }
+
+
+        protected synchronized Object lookup(Object key)
+        {
+            Object value = pending.get(key);
+            return value != null ? value : sending.get(key);
+        }
+
+
+        protected synchronized void flush()
+        {
+            long target = written;
+
+            if (!draining && !pending.isEmpty())
+            {
+                drain();
+            }
+
+            while (done < target)
+            {
+                try
+                {
+                    wait();
+                } catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new MeshMapRuntimeException("Interrupted while flushing the write buffer of node " + node, e);
+                }
+            }
+        }
+
+
+        protected synchronized void expire()
+        {
+            if (!draining && !pending.isEmpty())
+            {
+                drain();
+            }
+        }
+
+
+        // Called holding the lock.
+        protected void drain()
+        {
+            draining = true;
+            executor.execute(this::send);
+        }
+
+
+        protected void send()
+        {
+            while (true)
+            {
+                Map<Object, Object> batch;
+                long upTo;
+
+                synchronized (this)
+                {
+                    if (pending.isEmpty())
+                    {
+                        draining = false;
+                        return;
+                    }
+
+                    batch = pending;
+                    upTo = written;
+                    pending = new LinkedHashMap<>();
+                    sending = batch;
+                    notifyAll();
+                }
+
+                try
+                {
+                    sender.send(node, batch);
+                    batches.increment();
+                    entries.add(batch.size());
+                } catch (RuntimeException e)
+                {
+                    failed(node, batch, e);
+                }
+
+                synchronized (this)
+                {
+                    sending = Collections.emptyMap();
+                    done = upTo;
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
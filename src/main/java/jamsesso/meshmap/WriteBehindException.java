@@ -0,0 +1,40 @@
+package jamsesso.meshmap;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Thrown by {@link MeshMap#flush()} when buffered writes could not be delivered to the nodes owning their keys. The
+ * failed entries are not in the map; they can be written again.
+ */
+public class WriteBehindException extends MeshMapRuntimeException
+{
+    private static final long serialVersionUID = 202610191300L;
+    
+    private final Map<Object, Object> failedEntries;
+    
+    private final long failedCount;
+    
+    
+    public WriteBehindException(String msg, Map<Object, Object> failedEntries, long failedCount)
+    {
+        super(msg);
+        this.failedEntries = Collections.unmodifiableMap(failedEntries);
+        this.failedCount = failedCount;
+    }
+    
+    
+    /**
+     * Returns the entries that were lost, up to a limit; see {@link #getFailedCount()} for how many there were.
+     */
+    public Map<Object, Object> getFailedEntries()
+    {
+        return failedEntries;
+    }
+    
+    
+    public long getFailedCount()
+    {
+        return failedCount;
+    }
+}
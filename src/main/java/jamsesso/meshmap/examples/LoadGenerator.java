@@ -0,0 +1,342 @@
+package jamsesso.meshmap.examples;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import jamsesso.meshmap.LocalMeshMapCluster;
+import jamsesso.meshmap.MeshMap;
+import jamsesso.meshmap.Node;
+import jamsesso.meshmap.utils.stats.LatencyHistogram;
+
+import static java.lang.System.out;
+
+/**
+ * Starts a cluster on loopback and runs a YCSB-style workload against it, reporting latency percentiles.
+ *
+ * Options are given as --name=value:
+ *   --nodes=3             number of nodes in the cluster
+ *   --fork=false          run every node but the first in its own JVM
+ *   --port=46000          port of the first node, the others use the following ports
+ *   --records=10000       number of keys loaded before the run
+ *   --operations=100000   number of operations in the run
+ *   --read-ratio=0.95     fraction of the operations that are reads, the rest are writes
+ *   --distribution=zipfian  zipfian or uniform key popularity
+ *   --zipfian-constant=0.99 skew of the zipfian distribution
+ *   --value-size=100      size of the values in characters
+ *   --threads=8           number of concurrent clients
+ *   --rate=0              target operations per second over all clients, 0 runs as fast as possible
+ *   --seed=42             seed of the key, operation and value sequences
+ *
+ * With a target rate, every operation has an intended start time. Latency is measured from that time rather than from
+ * when the operation was actually sent, so a stall is charged to every operation queued behind it instead of being
+ * hidden (coordinated omission). The service time, measured from the actual send, is reported alongside.
+ */
+public class LoadGenerator {
+  private static final int VALUES_PER_THREAD = 64;
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = parse(args);
+    int nodes = Integer.parseInt(options.getOrDefault("nodes", "3"));
+    boolean fork = Boolean.parseBoolean(options.getOrDefault("fork", "false"));
+    int port = Integer.parseInt(options.getOrDefault("port", "46000"));
+    int records = Integer.parseInt(options.getOrDefault("records", "10000"));
+    int operations = Integer.parseInt(options.getOrDefault("operations", "100000"));
+    double readRatio = Double.parseDouble(options.getOrDefault("read-ratio", "0.95"));
+    String distribution = options.getOrDefault("distribution", "zipfian");
+    double zipfianConstant = Double.parseDouble(options.getOrDefault("zipfian-constant", "0.99"));
+    int valueSize = Integer.parseInt(options.getOrDefault("value-size", "100"));
+    int threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+    double rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+    long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+
+    KeyChooser chooser;
+    switch (distribution) {
+      case "zipfian":
+        chooser = new ZipfianChooser(records, zipfianConstant);
+        break;
+      case "uniform":
+        chooser = new UniformChooser(records);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown distribution: " + distribution);
+    }
+
+    out.println("Workload: " + options);
+    String directory = "cluster/loadgen-" + System.currentTimeMillis();
+    List<Process> workers = new ArrayList<>();
+    List<LocalMeshMapCluster> clusters = new ArrayList<>();
+    List<MeshMap<String, String>> maps = new ArrayList<>();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+    try {
+      if (fork) {
+        for (int i = 1; i < nodes; i++) {
+          workers.add(forkWorker(port + i, directory));
+        }
+        awaitMembers(new File(directory), nodes - 1);
+      }
+
+      for (int i = 0; i < (fork ? 1 : nodes); i++) {
+        Node node = new Node(new InetSocketAddress("127.0.0.1", port + i));
+        LocalMeshMapCluster cluster = new LocalMeshMapCluster(node, new File(directory));
+        clusters.add(cluster);
+        maps.add(cluster.join());
+      }
+
+      // Load phase.
+      long loadStart = System.nanoTime();
+      List<Future<?>> loads = new ArrayList<>();
+
+      for (int t = 0; t < threads; t++) {
+        int thread = t;
+        loads.add(executor.submit(() -> {
+          Random random = new Random(seed - thread);
+          MeshMap<String, String> map = maps.get(thread % maps.size());
+
+          for (int i = thread; i < records; i += threads) {
+            map.put(key(i), value(random, valueSize));
+          }
+        }));
+      }
+      for (Future<?> load : loads) {
+        load.get();
+      }
+      out.println("Loaded " + records + " records in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadStart) + "ms");
+
+      // Run phase.
+      LatencyHistogram readResponse = new LatencyHistogram();
+      LatencyHistogram readService = new LatencyHistogram();
+      LatencyHistogram writeResponse = new LatencyHistogram();
+      LatencyHistogram writeService = new LatencyHistogram();
+      long interval = rate > 0 ? (long) (threads * 1_000_000_000L / rate) : 0L;
+      List<Future<?>> runs = new ArrayList<>();
+      long runStart = System.nanoTime();
+
+      for (int t = 0; t < threads; t++) {
+        int thread = t;
+        int count = operations / threads + (thread < operations % threads ? 1 : 0);
+        runs.add(executor.submit(() -> {
+          Random random = new Random(seed + thread);
+          MeshMap<String, String> map = maps.get(thread % maps.size());
+          String[] values = new String[VALUES_PER_THREAD];
+
+          for (int i = 0; i < values.length; i++) {
+            values[i] = value(random, valueSize);
+          }
+
+          for (int i = 0; i < count; i++) {
+            boolean read = random.nextDouble() < readRatio;
+            String key = key(chooser.next(random));
+            long intended = runStart + i * interval;
+
+            if (interval > 0) {
+              for (long now = System.nanoTime(); now < intended; now = System.nanoTime()) {
+                LockSupport.parkNanos(intended - now);
+              }
+            }
+
+            long begin = System.nanoTime();
+            if (read) {
+              map.get(key);
+            } else {
+              map.put(key, values[random.nextInt(VALUES_PER_THREAD)]);
+            }
+            long end = System.nanoTime();
+
+            (read ? readService : writeService).recordValue(end - begin);
+            (read ? readResponse : writeResponse).recordValue(end - (interval > 0 ? intended : begin));
+          }
+        }));
+      }
+      for (Future<?> run : runs) {
+        run.get();
+      }
+
+      long elapsed = System.nanoTime() - runStart;
+      out.println(String.format("Ran %d operations in %dms (%.0f ops/s)", operations,
+          TimeUnit.NANOSECONDS.toMillis(elapsed), operations * 1_000_000_000.0 / elapsed));
+      out.println("READ  response: " + readResponse.summary(TimeUnit.MICROSECONDS));
+      out.println("READ  service:  " + readService.summary(TimeUnit.MICROSECONDS));
+      out.println("WRITE response: " + writeResponse.summary(TimeUnit.MICROSECONDS));
+      out.println("WRITE service:  " + writeService.summary(TimeUnit.MICROSECONDS));
+    } finally {
+      executor.shutdownNow();
+
+      for (int i = maps.size() - 1; i >= 0; i--) {
+        maps.get(i).close();
+        clusters.get(i).close();
+      }
+
+      for (Process worker : workers) {
+        stopWorker(worker);
+      }
+
+      File[] leftovers = new File(directory).listFiles();
+      if (leftovers != null) {
+        for (File leftover : leftovers) {
+          leftover.delete();
+        }
+      }
+      new File(directory).delete();
+    }
+  }
+
+  private static Map<String, String> parse(String[] args) {
+    Map<String, String> options = new HashMap<>();
+
+    for (String arg : args) {
+      if (!arg.startsWith("--") || !arg.contains("=")) {
+        throw new IllegalArgumentException("Options must look like --name=value: " + arg);
+      }
+
+      int separator = arg.indexOf('=');
+      options.put(arg.substring(2, separator), arg.substring(separator + 1));
+    }
+
+    return Collections.unmodifiableMap(options);
+  }
+
+  private static String key(long index) {
+    return "user" + index;
+  }
+
+  private static String value(Random random, int size) {
+    char[] chars = new char[size];
+
+    for (int i = 0; i < size; i++) {
+      chars[i] = (char) ('a' + random.nextInt(26));
+    }
+
+    return new String(chars);
+  }
+
+  private static Process forkWorker(int port, String directory) throws IOException {
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+    return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+        LocalWorkerNode.class.getName(), String.valueOf(port), directory.substring("cluster/".length()))
+        .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+  }
+
+  private static void awaitMembers(File directory, int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 30_000;
+
+    while (true) {
+      String[] members = directory.list();
+
+      if (members != null && members.length >= count) {
+        return;
+      }
+
+      if (System.currentTimeMillis() > deadline) {
+        throw new IllegalStateException("Forked nodes did not join within 30 seconds");
+      }
+
+      Thread.sleep(100);
+    }
+  }
+
+  private static void stopWorker(Process worker) throws InterruptedException {
+    // LocalWorkerNode leaves the cluster when a key is pressed.
+    try (OutputStream stdin = worker.getOutputStream()) {
+      stdin.write('\n');
+    } catch (IOException e) {
+      // The worker is already gone.
+    }
+
+    if (!worker.waitFor(30, TimeUnit.SECONDS)) {
+      worker.destroyForcibly();
+    }
+  }
+
+  private interface KeyChooser {
+    long next(Random random);
+  }
+
+  private static class UniformChooser implements KeyChooser {
+    private final int records;
+
+    UniformChooser(int records) {
+      this.records = records;
+    }
+
+    @Override
+    public long next(Random random) {
+      return random.nextInt(records);
+    }
+  }
+
+  /**
+   * Zipfian key popularity as generated by YCSB (Gray et al., "Quickly Generating Billion-Record Synthetic
+   * Databases"). The popular ranks are scattered over the key space with an FNV hash so that they do not all land on
+   * the same node.
+   */
+  private static class ZipfianChooser implements KeyChooser {
+    private final int records;
+    private final double theta;
+    private final double alpha;
+    private final double zetan;
+    private final double eta;
+
+    ZipfianChooser(int records, double theta) {
+      this.records = records;
+      this.theta = theta;
+      this.alpha = 1.0 / (1.0 - theta);
+      this.zetan = zeta(records, theta);
+      this.eta = (1 - Math.pow(2.0 / records, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+    }
+
+    @Override
+    public long next(Random random) {
+      double u = random.nextDouble();
+      double uz = u * zetan;
+      long rank;
+
+      if (uz < 1.0) {
+        rank = 0;
+      } else if (uz < 1.0 + Math.pow(0.5, theta)) {
+        rank = 1;
+      } else {
+        rank = (long) (records * Math.pow(eta * u - eta + 1, alpha));
+      }
+
+      return Long.remainderUnsigned(fnv(Math.min(rank, records - 1)), records);
+    }
+
+    private static double zeta(long n, double theta) {
+      double sum = 0;
+
+      for (long i = 1; i <= n; i++) {
+        sum += 1 / Math.pow(i, theta);
+      }
+
+      return sum;
+    }
+
+    private static long fnv(long value) {
+      long hash = 0xCBF29CE484222325L;
+
+      for (int i = 0; i < 8; i++) {
+        hash ^= (value >>> (i * 8)) & 0xFF;
+        hash *= 0x100000001B3L;
+      }
+
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,37 @@
+package jamsesso.meshmap.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count, striped across threads so that concurrent increments do not contend.
+ */
+public class Counter
+{
+    public static final Counter NOOP = new Counter()
+    {
+        @Override
+        public void add(long amount)
+        {
+        }
+    };
+
+    private final LongAdder count = new LongAdder();
+
+
+    public void increment()
+    {
+        add(1L);
+    }
+
+
+    public void add(long amount)
+    {
+        count.add(amount);
+    }
+
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+}
@@ -0,0 +1,50 @@
+package jamsesso.meshmap.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Adds the number of bytes read from the stream to a counter.
+ */
+public class CountingInputStream extends FilterInputStream
+{
+    private final Counter counter;
+
+
+    public CountingInputStream(InputStream in, Counter counter)
+    {
+        super(in);
+        this.counter = counter;
+    }
+
+
+    @Override
+    public int read()
+    throws IOException
+    {
+        int b = super.read();
+
+        if (b >= 0)
+        {
+            counter.increment();
+        }
+
+        return b;
+    }
+
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    throws IOException
+    {
+        int read = super.read(b, off, len);
+
+        if (read > 0)
+        {
+            counter.add(read);
+        }
+
+        return read;
+    }
+}
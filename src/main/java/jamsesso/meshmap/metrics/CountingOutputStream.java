@@ -0,0 +1,39 @@
+package jamsesso.meshmap.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Adds the number of bytes written to the stream to a counter.
+ */
+public class CountingOutputStream extends FilterOutputStream
+{
+    private final Counter counter;
+
+
+    public CountingOutputStream(OutputStream out, Counter counter)
+    {
+        super(out);
+        this.counter = counter;
+    }
+
+
+    @Override
+    public void write(int b)
+    throws IOException
+    {
+        out.write(b);
+        counter.increment();
+    }
+
+
+    @Override
+    public void write(byte[] b, int off, int len)
+    throws IOException
+    {
+        // FilterOutputStream would write the array one byte at a time.
+        out.write(b, off, len);
+        counter.add(len);
+    }
+}
@@ -0,0 +1,36 @@
+package jamsesso.meshmap.metrics;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes every metric of the node to the log.
+ */
+public class LoggingMetricsReporter implements MetricsReporter
+{
+    private static final Logger LOG = Logger.getLogger(LoggingMetricsReporter.class.getName());
+
+    private final Level level;
+
+
+    public LoggingMetricsReporter()
+    {
+        this(Level.INFO);
+    }
+
+
+    public LoggingMetricsReporter(Level level)
+    {
+        this.level = level;
+    }
+
+
+    @Override
+    public void report(Metrics metrics)
+    {
+        if (LOG.isLoggable(level))
+        {
+            LOG.log(level, "Metrics of " + metrics.getName() + ": " + metrics.snapshot());
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package jamsesso.meshmap.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jamsesso.meshmap.utils.stats.LatencyHistogram;
+
+/**
+ * The counters, timers and gauges of a node.
+ * <p/>
+ * Counters and timers are looked up by name on every use, which is a lock-free map read once they exist, and are
+ * updated through striped adders and atomic arrays. A disabled registry ({@link #NOOP}) hands out shared instances that
+ * ignore every update, so instrumented code does not need to check whether metrics are enabled.
+ * <p/>
+ * Once started, the metrics are published as the attributes of the JMX MBean
+ * {@code jamsesso.meshmap:type=Metrics,name="<node>"} and handed to the configured {@link MetricsReporter}. Latencies
+ * are in nanoseconds.
+ */
+public class Metrics implements AutoCloseable
+{
+    private static final Logger LOG = Logger.getLogger(Metrics.class.getName());
+
+    public static final Metrics NOOP = new Metrics("NOOP", false);
+
+    private final String name;
+
+    private final boolean enabled;
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+
+    private ObjectName objectName;
+
+    private ScheduledExecutorService reporting;
+
+
+    public Metrics(String name)
+    {
+        this(name, true);
+    }
+
+
+    protected Metrics(String name, boolean enabled)
+    {
+        this.name = name;
+        this.enabled = enabled;
+    }
+
+
+    public String getName()
+    {
+        return name;
+    }
+
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+
+    public Counter counter(String name)
+    {
+        if (!enabled)
+        {
+            return Counter.NOOP;
+        }
+
+        Counter counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+
+    /**
+     * Returns the counter named {@code group.name}, without building the name when metrics are disabled.
+     */
+    public Counter counter(String group, String name)
+    {
+        return enabled ? counter(group + '.' + name) : Counter.NOOP;
+    }
+
+
+    public Timer timer(String name)
+    {
+        if (!enabled)
+        {
+            return Timer.NOOP;
+        }
+
+        Timer timer = timers.get(name);
+        return timer != null ? timer : timers.computeIfAbsent(name, n -> new Timer());
+    }
+
+
+    /**
+     * Returns the timer named {@code group.name}, without building the name when metrics are disabled.
+     */
+    public Timer timer(String group, String name)
+    {
+        return enabled ? timer(group + '.' + name) : Timer.NOOP;
+    }
+
+
+    /**
+     * Registers a value that is read whenever the metrics are reported.
+     */
+    public void gauge(String name, Supplier<? extends Number> gauge)
+    {
+        if (enabled)
+        {
+            gauges.put(name, gauge);
+        }
+    }
+
+
+    public Map<String, Counter> getCounters()
+    {
+        return Collections.unmodifiableMap(counters);
+    }
+
+
+    public Map<String, Timer> getTimers()
+    {
+        return Collections.unmodifiableMap(timers);
+    }
+
+
+    public Map<String, Supplier<? extends Number>> getGauges()
+    {
+        return Collections.unmodifiableMap(gauges);
+    }
+
+
+    /**
+     * Returns the current value of every metric, by name. A timer contributes its count, mean, p50, p99, p999 and max.
+     */
+    public SortedMap<String, Number> snapshot()
+    {
+        SortedMap<String, Number> snapshot = new TreeMap<>();
+
+        counters.forEach((name, counter) -> snapshot.put(name, counter.getCount()));
+        timers.forEach((name, timer) -> {
+            LatencyHistogram histogram = timer.getHistogram();
+            snapshot.put(name + ".count", histogram.getTotalCount());
+            snapshot.put(name + ".mean", histogram.getMean());
+            snapshot.put(name + ".p50", histogram.getValueAtPercentile(50.0));
+            snapshot.put(name + ".p99", histogram.getValueAtPercentile(99.0));
+            snapshot.put(name + ".p999", histogram.getValueAtPercentile(99.9));
+            snapshot.put(name + ".max", histogram.getMaxValue());
+        });
+        gauges.forEach((name, gauge) -> {
+            try
+            {
+                snapshot.put(name, gauge.get());
+            } catch (RuntimeException e)
+            {
+                LOG.log(Level.FINE, "Unable to read gauge " + name, e);
+            }
+        });
+
+        return snapshot;
+    }
+
+
+    /**
+     * Publishes the metrics through JMX and, if a reporter is given, reports them every {@code interval} milliseconds.
+     */
+    public synchronized void start(MetricsReporter reporter, long interval)
+    {
+        if (!enabled || objectName != null)
+        {
+            return;
+        }
+
+        try
+        {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("jamsesso.meshmap:type=Metrics,name=" + ObjectName.quote(name));
+            mbeanServer.registerMBean(new MetricsBean(this), objectName);
+        } catch (JMException e)
+        {
+            LOG.log(Level.WARNING, "Unable to publish the metrics of " + name + " through JMX", e);
+        }
+
+        if (reporter != null)
+        {
+            reporting = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "MeshMap Metrics Reporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporting.scheduleAtFixedRate(() -> {
+                try
+                {
+                    reporter.report(this);
+                } catch (RuntimeException e)
+                {
+                    LOG.log(Level.WARNING, "Metrics reporter failed", e);
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    @Override
+    public synchronized void close()
+    {
+        if (reporting != null)
+        {
+            reporting.shutdownNow();
+            reporting = null;
+        }
+
+        if (objectName != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e)
+            {
+                LOG.log(Level.FINE, "Unable to unpublish the metrics of " + name, e);
+            }
+            objectName = null;
+        }
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "Metrics(Name=" + name + ", Enabled=" + enabled + ")";
+    }
+}
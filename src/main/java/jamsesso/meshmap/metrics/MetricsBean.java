@@ -0,0 +1,95 @@
+package jamsesso.meshmap.metrics;
+
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Exposes every metric of a node as a read-only JMX attribute. Metrics are created as the node is used, so the
+ * attributes are listed anew every time the MBean is inspected.
+ */
+public class MetricsBean implements DynamicMBean
+{
+    private final Metrics metrics;
+
+
+    public MetricsBean(Metrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+
+    @Override
+    public Object getAttribute(String attribute)
+    throws AttributeNotFoundException
+    {
+        Number value = metrics.snapshot().get(attribute);
+
+        if (value == null)
+        {
+            throw new AttributeNotFoundException("No metric named " + attribute);
+        }
+
+        return value;
+    }
+
+
+    @Override
+    public AttributeList getAttributes(String[] attributes)
+    {
+        Map<String, Number> snapshot = metrics.snapshot();
+        AttributeList list = new AttributeList();
+
+        for (String attribute : attributes)
+        {
+            Number value = snapshot.get(attribute);
+
+            if (value != null)
+            {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+
+        return list;
+    }
+
+
+    @Override
+    public void setAttribute(Attribute attribute)
+    throws AttributeNotFoundException
+    {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes)
+    {
+        return new AttributeList();
+    }
+
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature)
+    throws ReflectionException
+    {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+
+    @Override
+    public MBeanInfo getMBeanInfo()
+    {
+        MBeanAttributeInfo[] attributes = metrics.snapshot().entrySet().stream()
+            .map(entry -> new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(), true, false, false))
+            .toArray(MBeanAttributeInfo[]::new);
+
+        return new MBeanInfo(getClass().getName(), "MeshMap node metrics", attributes, null, null, null);
+    }
+}
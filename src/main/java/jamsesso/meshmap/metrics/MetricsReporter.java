@@ -0,0 +1,9 @@
+package jamsesso.meshmap.metrics;
+
+/**
+ * Receives the metrics of a node at a fixed interval, for example to forward them to a monitoring system.
+ */
+public interface MetricsReporter
+{
+    public void report(Metrics metrics);
+}
@@ -0,0 +1,61 @@
+package jamsesso.meshmap.metrics;
+
+import jamsesso.meshmap.utils.stats.LatencyHistogram;
+
+/**
+ * Counts the occurrences of an operation and keeps a histogram of their latencies.
+ * <p/>
+ * <pre>
+ * long start = timer.start();
+ * try { ... } finally { timer.stop(start); }
+ * </pre>
+ */
+public class Timer
+{
+    public static final Timer NOOP = new Timer()
+    {
+        @Override
+        public long start()
+        {
+            return 0L;
+        }
+
+
+        @Override
+        public void stop(long start)
+        {
+        }
+
+
+        @Override
+        public void record(long nanos)
+        {
+        }
+    };
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+
+    public long start()
+    {
+        return System.nanoTime();
+    }
+
+
+    public void stop(long start)
+    {
+        record(System.nanoTime() - start);
+    }
+
+
+    public void record(long nanos)
+    {
+        histogram.recordValue(Math.max(0L, nanos));
+    }
+
+
+    public LatencyHistogram getHistogram()
+    {
+        return histogram;
+    }
+}
@@ -0,0 +1,86 @@
+package jamsesso.meshmap.utils.cache;
+
+import java.io.Serializable;
+
+/**
+ * An immutable snapshot of the counters kept by a bounded local partition.
+ */
+public class EvictionStats implements Serializable
+{
+    private static final long serialVersionUID = 202610190901L;
+
+    public static final EvictionStats EMPTY = new EvictionStats(0L, 0L, 0L, 0L, 0L, 0L);
+
+    private final long hitCount;
+
+    private final long missCount;
+
+    private final long evictionCount;
+
+    private final long evictionWeight;
+
+    private final long weightedSize;
+
+    private final long maximumWeight;
+
+
+    public EvictionStats(long hitCount, long missCount, long evictionCount, long evictionWeight, long weightedSize, long maximumWeight)
+    {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.evictionWeight = evictionWeight;
+        this.weightedSize = weightedSize;
+        this.maximumWeight = maximumWeight;
+    }
+
+
+    public long getHitCount()
+    {
+        return hitCount;
+    }
+
+
+    public long getMissCount()
+    {
+        return missCount;
+    }
+
+
+    public double getHitRate()
+    {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+
+    public long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+
+    public long getEvictionWeight()
+    {
+        return evictionWeight;
+    }
+
+
+    public long getWeightedSize()
+    {
+        return weightedSize;
+    }
+
+
+    public long getMaximumWeight()
+    {
+        return maximumWeight;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "EvictionStats(Hits=" + hitCount + ", Misses=" + missCount + ", Evictions=" + evictionCount + ", EvictionWeight=" + evictionWeight + ", WeightedSize=" + weightedSize + ", MaximumWeight=" + maximumWeight + ")";
+    }
+}
@@ -0,0 +1,122 @@
+package jamsesso.meshmap.utils.cache;
+
+import java.util.Arrays;
+
+/**
+ * A Count-Min sketch of 4-bit counters used to estimate how often a key has been seen recently.
+ * <p/>
+ * The sketch uses four rows of counters, each indexed by a different hash of the key. The estimated frequency of a key
+ * is the minimum of its four counters, which may over-estimate but never under-estimate the true count. Every time
+ * the number of recorded increments reaches the sample size, all counters are halved so that the sketch favours
+ * recent activity over historic activity (the "aging" step of TinyLFU).
+ * <p/>
+ * This class is not thread safe; callers are expected to guard it with their own lock.
+ */
+public class FrequencySketch
+{
+    private static final int MAXIMUM_WIDTH = 1 << 18;
+
+    private static final int MAXIMUM_COUNT = 15;
+
+    private static final int[] SEEDS = { 0x97CB3127, 0xB3D4A1A5, 0xC2B2AE3D, 0x27D4EB2F };
+
+    private final byte[][] table;
+
+    private final int mask;
+
+    private final int sampleSize;
+
+    private int additions;
+
+
+    public FrequencySketch(long expectedSize)
+    {
+        int width = ceilingPowerOfTwo((int) Math.min(Math.max(expectedSize, 16), MAXIMUM_WIDTH));
+
+        this.table = new byte[SEEDS.length][width];
+        this.mask = width - 1;
+        this.sampleSize = 10 * width;
+    }
+
+
+    public void increment(Object key)
+    {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+
+        for (int row = 0; row < SEEDS.length; row++)
+        {
+            int index = indexOf(hash, row);
+
+            if (table[row][index] < MAXIMUM_COUNT)
+            {
+                table[row][index]++;
+                added = true;
+            }
+        }
+
+        if (added && ++additions >= sampleSize)
+        {
+            reset();
+        }
+    }
+
+
+    public int frequency(Object key)
+    {
+        int hash = spread(key.hashCode());
+        int frequency = MAXIMUM_COUNT;
+
+        for (int row = 0; row < SEEDS.length; row++)
+        {
+            frequency = Math.min(frequency, table[row][indexOf(hash, row)]);
+        }
+
+        return frequency;
+    }
+
+
+    public void clear()
+    {
+        for (byte[] row : table)
+        {
+            Arrays.fill(row, (byte) 0);
+        }
+
+        additions = 0;
+    }
+
+
+    protected void reset()
+    {
+        for (byte[] row : table)
+        {
+            for (int i = 0; i < row.length; i++)
+            {
+                row[i] >>>= 1;
+            }
+        }
+
+        additions /= 2;
+    }
+
+
+    protected int indexOf(int hash, int row)
+    {
+        int h = (hash ^ SEEDS[row]) * SEEDS[row];
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+
+    protected static int spread(int hash)
+    {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+
+    protected static int ceilingPowerOfTwo(int value)
+    {
+        return 1 << (32 - Integer.numberOfLeadingZeros(value - 1));
+    }
+}
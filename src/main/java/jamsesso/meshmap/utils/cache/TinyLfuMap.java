@@ -0,0 +1,833 @@
+package jamsesso.meshmap.utils.cache;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A concurrent map bounded by a maximum weight, evicting entries with the W-TinyLFU policy.
+ * <p/>
+ * New entries enter a small LRU admission window (1% of the maximum weight). Entries leaving the window compete with
+ * the least recently used entry of the main segmented LRU's probation queue and the one with the higher estimated
+ * frequency, according to a {@link FrequencySketch}, is kept. Entries hit while on probation are promoted to the
+ * protected queue (80% of the main space).
+ * <p/>
+ * The entries are held in a {@link ConcurrentHashMap} so reads and writes never block each other. The policy
+ * structures are guarded by a single lock; writes always take it, while reads only record their access when the
+ * lock is free. Losing a few read recordings under contention skews the frequency estimates slightly but keeps reads
+ * lock free. After every write the policy is reconciled with whatever the map currently holds for the key, so
+ * concurrent writes of the same key cannot leave the two out of step.
+ */
+public class TinyLfuMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
+{
+    private static final double WINDOW_PERCENT = 0.01;
+
+    private static final double PROTECTED_PERCENT = 0.80;
+
+    private static final int WINDOW = 0;
+
+    private static final int PROBATION = 1;
+
+    private static final int PROTECTED = 2;
+
+    private final ConcurrentHashMap<K, V> data = new ConcurrentHashMap<>();
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final Map<Object, Slot> slots = new HashMap<>();
+
+    private final SlotQueue window = new SlotQueue();
+
+    private final SlotQueue probation = new SlotQueue();
+
+    private final SlotQueue protectedQueue = new SlotQueue();
+
+    private final FrequencySketch sketch;
+
+    private final Weigher<? super K, ? super V> weigher;
+
+    private final BiConsumer<? super K, ? super V> evictionListener;
+
+    private final long maximumWeight;
+
+    private final long windowMaximum;
+
+    private final long protectedMaximum;
+
+    private long weightedSize;
+
+    private long windowWeight;
+
+    private long protectedWeight;
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder evictionCount = new LongAdder();
+
+    private final LongAdder evictionWeight = new LongAdder();
+
+    private Set<Map.Entry<K, V>> entrySet;
+
+
+    public TinyLfuMap(long maximumWeight, Weigher<? super K, ? super V> weigher)
+    {
+        this(maximumWeight, weigher, null);
+    }
+
+
+    /**
+     * @param maximumWeight The maximum sum of the weights of all entries
+     * @param weigher Calculates the weight of an entry
+     * @param evictionListener Notified of every entry evicted by the policy, outside of the policy lock; may be null
+     */
+    public TinyLfuMap(long maximumWeight, Weigher<? super K, ? super V> weigher, BiConsumer<? super K, ? super V> evictionListener)
+    {
+        if (maximumWeight <= 0)
+        {
+            throw new IllegalArgumentException("Maximum weight must be positive");
+        }
+
+        if (weigher == null)
+        {
+            throw new IllegalArgumentException("Weigher must not be null");
+        }
+
+        this.maximumWeight = maximumWeight;
+        this.windowMaximum = Math.max(1L, (long) (maximumWeight * WINDOW_PERCENT));
+        this.protectedMaximum = (long) ((maximumWeight - windowMaximum) * PROTECTED_PERCENT);
+        this.weigher = weigher;
+        this.evictionListener = evictionListener;
+        this.sketch = new FrequencySketch(maximumWeight);
+    }
+
+
+    public EvictionStats stats()
+    {
+        long weightedSize;
+
+        evictionLock.lock();
+        try
+        {
+            weightedSize = this.weightedSize;
+        } finally
+        {
+            evictionLock.unlock();
+        }
+
+        return new EvictionStats(hitCount.sum(), missCount.sum(), evictionCount.sum(), evictionWeight.sum(), weightedSize, maximumWeight);
+    }
+
+
+    public long getMaximumWeight()
+    {
+        return maximumWeight;
+    }
+
+
+    @Override
+    public int size()
+    {
+        return data.size();
+    }
+
+
+    @Override
+    public boolean isEmpty()
+    {
+        return data.isEmpty();
+    }
+
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return data.containsKey(key);
+    }
+
+
+    @Override
+    public boolean containsValue(Object value)
+    {
+        return data.containsValue(value);
+    }
+
+
+    @Override
+    public V get(Object key)
+    {
+        V value = data.get(key);
+
+        if (value == null)
+        {
+            missCount.increment();
+        } else
+        {
+            hitCount.increment();
+        }
+
+        afterRead(key);
+        return value;
+    }
+
+
+    /**
+     * Returns the value of the key without recording the access or counting a hit or miss.
+     */
+    public V peek(Object key)
+    {
+        return data.get(key);
+    }
+
+
+    @Override
+    public V put(K key, V value)
+    {
+        V previous = data.put(key, value);
+        afterWrite(key, value);
+        return previous;
+    }
+
+
+    @Override
+    public V putIfAbsent(K key, V value)
+    {
+        V previous = data.putIfAbsent(key, value);
+
+        if (previous == null)
+        {
+            afterWrite(key, value);
+        } else
+        {
+            afterRead(key);
+        }
+
+        return previous;
+    }
+
+
+    @Override
+    public V remove(Object key)
+    {
+        V previous = data.remove(key);
+
+        if (previous != null)
+        {
+            afterWrite(key, null);
+        }
+
+        return previous;
+    }
+
+
+    @Override
+    public boolean remove(Object key, Object value)
+    {
+        boolean removed = data.remove(key, value);
+
+        if (removed)
+        {
+            afterWrite(key, null);
+        }
+
+        return removed;
+    }
+
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue)
+    {
+        boolean replaced = data.replace(key, oldValue, newValue);
+
+        if (replaced)
+        {
+            afterWrite(key, newValue);
+        }
+
+        return replaced;
+    }
+
+
+    @Override
+    public V replace(K key, V value)
+    {
+        V previous = data.replace(key, value);
+
+        if (previous != null)
+        {
+            afterWrite(key, value);
+        }
+
+        return previous;
+    }
+
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction)
+    {
+        V previous = data.get(key);
+
+        if (previous != null)
+        {
+            afterRead(key);
+            return previous;
+        }
+
+        V value = data.computeIfAbsent(key, mappingFunction);
+        afterWrite(key, value);
+        return value;
+    }
+
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction)
+    {
+        V value = data.computeIfPresent(key, remappingFunction);
+        afterWrite(key, value);
+        return value;
+    }
+
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction)
+    {
+        V value = data.compute(key, remappingFunction);
+        afterWrite(key, value);
+        return value;
+    }
+
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction)
+    {
+        V merged = data.merge(key, value, remappingFunction);
+        afterWrite(key, merged);
+        return merged;
+    }
+
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action)
+    {
+        data.forEach(action);
+    }
+
+
+    @Override
+    public void clear()
+    {
+        evictionLock.lock();
+        try
+        {
+            data.clear();
+            slots.clear();
+            window.clear();
+            probation.clear();
+            protectedQueue.clear();
+            weightedSize = 0L;
+            windowWeight = 0L;
+            protectedWeight = 0L;
+        } finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        Set<Map.Entry<K, V>> entrySet = this.entrySet;
+        return entrySet == null ? (this.entrySet = new EntrySetView()) : entrySet;
+    }
+
+
+    protected void afterRead(Object key)
+    {
+        // Reads never wait on the policy; the access is dropped if another thread holds the lock.
+        if (!evictionLock.tryLock())
+        {
+            return;
+        }
+
+        try
+        {
+            sketch.increment(key);
+            Slot slot = slots.get(key);
+
+            if (slot != null)
+            {
+                onAccess(slot);
+            }
+        } finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+
+    protected void afterWrite(Object key, V written)
+    {
+        // Weigh outside of the lock; the weight is only reused if the value is still current.
+        int writtenWeight = written == null ? 0 : weigh(key, written);
+        List<Slot> evicted;
+
+        evictionLock.lock();
+        try
+        {
+            V value = data.get(key);
+            Slot slot = slots.get(key);
+
+            if (value == null)
+            {
+                if (slot != null)
+                {
+                    unlink(slot);
+                }
+            } else
+            {
+                int weight = value == written ? writtenWeight : weigh(key, value);
+                sketch.increment(key);
+
+                if (slot == null)
+                {
+                    slot = new Slot(key, weight);
+                    slots.put(key, slot);
+                    window.addLast(slot);
+                    windowWeight += weight;
+                    weightedSize += weight;
+                } else
+                {
+                    resize(slot, weight);
+                    onAccess(slot);
+                }
+            }
+
+            evicted = evict();
+        } finally
+        {
+            evictionLock.unlock();
+        }
+
+        for (Slot slot : evicted)
+        {
+            if (evictionListener != null)
+            {
+                evictionListener.accept(slot.key, slot.evictedValue);
+            }
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    protected int weigh(Object key, V value)
+    {
+        return Math.max(0, weigher.weigh((K) key, value));
+    }
+
+
+    private void onAccess(Slot slot)
+    {
+        switch (slot.queue)
+        {
+            case WINDOW:
+            {
+                window.moveToBack(slot);
+                break;
+            }
+            case PROBATION:
+            {
+                probation.remove(slot);
+                slot.queue = PROTECTED;
+                protectedQueue.addLast(slot);
+                protectedWeight += slot.weight;
+
+                // Demote the least recently used protected entries back to probation.
+                while (protectedWeight > protectedMaximum && protectedQueue.first != null)
+                {
+                    Slot demoted = protectedQueue.first;
+                    protectedQueue.remove(demoted);
+                    protectedWeight -= demoted.weight;
+                    demoted.queue = PROBATION;
+                    probation.addLast(demoted);
+                }
+                break;
+            }
+            case PROTECTED:
+            {
+                protectedQueue.moveToBack(slot);
+                break;
+            }
+        }
+    }
+
+
+    private void resize(Slot slot, int weight)
+    {
+        int delta = weight - slot.weight;
+        slot.weight = weight;
+        weightedSize += delta;
+
+        if (slot.queue == WINDOW)
+        {
+            windowWeight += delta;
+        } else if (slot.queue == PROTECTED)
+        {
+            protectedWeight += delta;
+        }
+    }
+
+
+    private List<Slot> evict()
+    {
+        List<Slot> evicted = new ArrayList<>();
+        Slot candidate = null;
+
+        // Move the overflow of the admission window to the back of probation; these are the admission candidates.
+        while (windowWeight > windowMaximum && window.first != null)
+        {
+            Slot slot = window.first;
+            window.remove(slot);
+            windowWeight -= slot.weight;
+            slot.queue = PROBATION;
+            probation.addLast(slot);
+
+            if (candidate == null)
+            {
+                candidate = slot;
+            }
+        }
+
+        while (weightedSize > maximumWeight)
+        {
+            Slot victim = probation.first != null ? probation.first : protectedQueue.first != null ? protectedQueue.first : window.first;
+
+            if (victim == null)
+            {
+                break;
+            }
+
+            if (candidate == null || candidate == victim || victim.queue != PROBATION)
+            {
+                if (candidate == victim)
+                {
+                    candidate = candidate.next;
+                }
+                evict(victim, evicted);
+            } else if (sketch.frequency(candidate.key) > sketch.frequency(victim.key))
+            {
+                // TinyLFU admission: the candidate is more popular than the victim, so the victim goes.
+                evict(victim, evicted);
+            } else
+            {
+                Slot next = candidate.next;
+                evict(candidate, evicted);
+                candidate = next;
+            }
+        }
+
+        return evicted;
+    }
+
+
+    private void evict(Slot slot, List<Slot> evicted)
+    {
+        unlink(slot);
+        V value = data.remove(slot.key);
+
+        if (value != null)
+        {
+            evictionCount.increment();
+            evictionWeight.add(slot.weight);
+            slot.evictedValue = value;
+            evicted.add(slot);
+        }
+    }
+
+
+    private void unlink(Slot slot)
+    {
+        slots.remove(slot.key);
+        weightedSize -= slot.weight;
+
+        switch (slot.queue)
+        {
+            case WINDOW:
+            {
+                window.remove(slot);
+                windowWeight -= slot.weight;
+                break;
+            }
+            case PROBATION:
+            {
+                probation.remove(slot);
+                break;
+            }
+            case PROTECTED:
+            {
+                protectedQueue.remove(slot);
+                protectedWeight -= slot.weight;
+                break;
+            }
+        }
+    }
+
+
+    private final class Slot
+    {
+        private final K key;
+
+        private int weight;
+
+        private int queue = WINDOW;
+
+        private Slot previous;
+
+        private Slot next;
+
+        private V evictedValue;
+
+
+        @SuppressWarnings("unchecked")
+        private Slot(Object key, int weight)
+        {
+            this.key = (K) key;
+            this.weight = weight;
+        }
+    }
+
+
+    /**
+     * An intrusive doubly linked list of slots, ordered from least to most recently used.
+     */
+    private final class SlotQueue
+    {
+        private Slot first;
+
+        private Slot last;
+
+
+        private void addLast(Slot slot)
+        {
+            slot.previous = last;
+            slot.next = null;
+
+            if (last == null)
+            {
+                first = slot;
+            } else
+            {
+                last.next = slot;
+            }
+
+            last = slot;
+        }
+
+
+        private void remove(Slot slot)
+        {
+            if (slot.previous == null)
+            {
+                first = slot.next;
+            } else
+            {
+                slot.previous.next = slot.next;
+            }
+
+            if (slot.next == null)
+            {
+                last = slot.previous;
+            } else
+            {
+                slot.next.previous = slot.previous;
+            }
+
+            slot.previous = null;
+            slot.next = null;
+        }
+
+
+        private void moveToBack(Slot slot)
+        {
+            if (slot != last)
+            {
+                remove(slot);
+                addLast(slot);
+            }
+        }
+
+
+        private void clear()
+        {
+            first = null;
+            last = null;
+        }
+    }
+
+
+    private final class EntrySetView extends AbstractSet<Map.Entry<K, V>>
+    {
+        @Override
+        public int size()
+        {
+            return data.size();
+        }
+
+
+        @Override
+        public boolean contains(Object o)
+        {
+            return data.entrySet().contains(o);
+        }
+
+
+        @Override
+        public boolean remove(Object o)
+        {
+            if (!(o instanceof Map.Entry))
+            {
+                return false;
+            }
+
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return TinyLfuMap.this.remove(entry.getKey(), entry.getValue());
+        }
+
+
+        @Override
+        public void clear()
+        {
+            TinyLfuMap.this.clear();
+        }
+
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator()
+        {
+            Iterator<Map.Entry<K, V>> iterator = data.entrySet().iterator();
+
+            return new Iterator<Map.Entry<K, V>>()
+            {
+                private Map.Entry<K, V> current;
+
+
+                @Override
+                public boolean hasNext()
+                {
+                    return iterator.hasNext();
+                }
+
+
+                @Override
+                public Map.Entry<K, V> next()
+                {
+                    Map.Entry<K, V> entry = iterator.next();
+                    return current = new WriteThroughEntry(entry.getKey(), entry.getValue());
+                }
+
+
+                @Override
+                public void remove()
+                {
+                    if (current == null)
+                    {
+                        throw new IllegalStateException();
+                    }
+
+                    TinyLfuMap.this.remove(current.getKey());
+                    current = null;
+                }
+            };
+        }
+
+
+        @Override
+        public Spliterator<Map.Entry<K, V>> spliterator()
+        {
+            return new EntrySpliterator(data.entrySet().spliterator());
+        }
+    }
+
+
+    private final class EntrySpliterator implements Spliterator<Map.Entry<K, V>>
+    {
+        private final Spliterator<Map.Entry<K, V>> spliterator;
+
+
+        private EntrySpliterator(Spliterator<Map.Entry<K, V>> spliterator)
+        {
+            this.spliterator = spliterator;
+        }
+
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action)
+        {
+            return spliterator.tryAdvance(entry -> action.accept(new WriteThroughEntry(entry.getKey(), entry.getValue())));
+        }
+
+
+        @Override
+        public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action)
+        {
+            spliterator.forEachRemaining(entry -> action.accept(new WriteThroughEntry(entry.getKey(), entry.getValue())));
+        }
+
+
+        @Override
+        public Spliterator<Map.Entry<K, V>> trySplit()
+        {
+            Spliterator<Map.Entry<K, V>> split = spliterator.trySplit();
+            return split == null ? null : new EntrySpliterator(split);
+        }
+
+
+        @Override
+        public long estimateSize()
+        {
+            return spliterator.estimateSize();
+        }
+
+
+        @Override
+        public int characteristics()
+        {
+            return spliterator.characteristics();
+        }
+    }
+
+
+    private final class WriteThroughEntry extends AbstractMap.SimpleEntry<K, V>
+    {
+        private static final long serialVersionUID = 202610190902L;
+
+
+        private WriteThroughEntry(K key, V value)
+        {
+            super(key, value);
+        }
+
+
+        @Override
+        public V setValue(V value)
+        {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package jamsesso.meshmap.utils.cache;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Calculates the weight of an entry stored in a bounded map. The sum of the weights of all entries is what a
+ * {@link TinyLfuMap} keeps below its maximum.
+ */
+@FunctionalInterface
+public interface Weigher<K, V>
+{
+    public int weigh(K key, V value);
+
+
+    /**
+     * Every entry weighs 1, so the maximum weight is the maximum number of entries.
+     */
+    public static <K, V> Weigher<K, V> singleton()
+    {
+        return (key, value) -> 1;
+    }
+
+
+    /**
+     * Weighs an entry by the estimated number of bytes of its key and value. Strings, byte arrays and numbers are
+     * estimated directly; anything else is measured by its Java serialized size.
+     */
+    public static <K, V> Weigher<K, V> estimatedBytes()
+    {
+        return (key, value) -> {
+            long weight = estimateBytes(key) + estimateBytes(value);
+            return (int) Math.min(weight, Integer.MAX_VALUE);
+        };
+    }
+
+
+    static long estimateBytes(Object object)
+    {
+        if (object == null)
+        {
+            return 0;
+        }
+
+        if (object instanceof String)
+        {
+            return 40 + 2L * ((String) object).length();
+        }
+
+        if (object instanceof byte[])
+        {
+            return 16 + ((byte[]) object).length;
+        }
+
+        if (object instanceof Number || object instanceof Boolean || object instanceof Character)
+        {
+            return 16;
+        }
+
+        CountingOutputStream counter = new CountingOutputStream();
+
+        try (ObjectOutputStream out = new ObjectOutputStream(counter))
+        {
+            out.writeObject(object);
+        } catch (IOException e)
+        {
+            // Not serializable; fall back to a nominal object size.
+            return 64;
+        }
+
+        return counter.count;
+    }
+
+
+    static final class CountingOutputStream extends OutputStream
+    {
+        private long count;
+
+
+        @Override
+        public void write(int b)
+        {
+            count++;
+        }
+
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            count += len;
+        }
+    }
+}
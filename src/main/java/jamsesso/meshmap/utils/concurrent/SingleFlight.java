@@ -0,0 +1,114 @@
+package jamsesso.meshmap.utils.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent calls for the same key into one: the first caller runs the call, and callers arriving while it
+ * is in flight wait for it and share its result, or its exception.
+ * <p/>
+ * Only calls in flight are shared, nothing is cached once the call returns. A call started before a change of the
+ * underlying data may return the previous data, so writers {@link #forget} the key: callers arriving after the write
+ * start a new call instead of joining the old one.
+ */
+public class SingleFlight<K, V>
+{
+    private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+    private final LongAdder coalesced = new LongAdder();
+
+
+    public V execute(K key, Supplier<? extends V> call)
+    {
+        if (key == null)
+        {
+            return call.get();
+        }
+
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> leader = calls.putIfAbsent(key, flight);
+
+        if (leader != null)
+        {
+            coalesced.increment();
+            return await(leader);
+        }
+
+        try
+        {
+            V result = call.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e)
+        {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally
+        {
+            calls.remove(key, flight);
+        }
+    }
+
+
+    /**
+     * Lets callers arriving from now on start a new call for the key. Callers already waiting still share the call in
+     * flight.
+     */
+    public void forget(K key)
+    {
+        if (key != null)
+        {
+            calls.remove(key);
+        }
+    }
+
+
+    public int inFlight()
+    {
+        return calls.size();
+    }
+
+
+    /**
+     * Returns the number of callers that shared the call of another caller.
+     */
+    public long getCoalescedCount()
+    {
+        return coalesced.sum();
+    }
+
+
+    private static <V> V await(CompletableFuture<V> flight)
+    {
+        try
+        {
+            return flight.join();
+        } catch (CompletionException e)
+        {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+
+            throw e;
+        }
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "SingleFlight(InFlight=" + calls.size() + ", Coalesced=" + coalesced.sum() + ")";
+    }
+}
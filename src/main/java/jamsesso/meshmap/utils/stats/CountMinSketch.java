@@ -0,0 +1,116 @@
+package jamsesso.meshmap.utils.stats;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A Count-Min sketch (Cormode and Muthukrishnan) of int counters, estimating how often each key was counted in a
+ * fixed amount of memory.
+ * <p/>
+ * Every key is counted in one counter of each of four rows, chosen by a different hash per row. The estimate of a key
+ * is the smallest of its counters, which over-estimates by the collisions of the least crowded row but never
+ * under-estimates. Unlike the 4-bit sketch of the eviction policy, counters go high enough to compare the share of
+ * traffic of individual keys. Counting may be done from any number of threads.
+ */
+public class CountMinSketch
+{
+    private static final int[] SEEDS = { 0x97CB3127, 0xB3D4A1A5, 0xC2B2AE3D, 0x27D4EB2F };
+
+    private final AtomicIntegerArray counters;
+
+    private final int width;
+
+    private final int mask;
+
+
+    /**
+     * @param width the number of counters per row, rounded up to a power of two
+     */
+    public CountMinSketch(int width)
+    {
+        this.width = 1 << (32 - Integer.numberOfLeadingZeros(Math.max(width, 16) - 1));
+        this.mask = this.width - 1;
+        this.counters = new AtomicIntegerArray(SEEDS.length * this.width);
+    }
+
+
+    /**
+     * Counts the key once and returns its new estimate.
+     */
+    public int add(Object key)
+    {
+        int hash = spread(key.hashCode());
+        int estimate = Integer.MAX_VALUE;
+
+        for (int row = 0; row < SEEDS.length; row++)
+        {
+            int count = counters.incrementAndGet(indexOf(hash, row));
+
+            if (count < 0)
+            {
+                // Saturate instead of overflowing.
+                counters.set(indexOf(hash, row), Integer.MAX_VALUE);
+                count = Integer.MAX_VALUE;
+            }
+
+            estimate = Math.min(estimate, count);
+        }
+
+        return estimate;
+    }
+
+
+    public int estimate(Object key)
+    {
+        int hash = spread(key.hashCode());
+        int estimate = Integer.MAX_VALUE;
+
+        for (int row = 0; row < SEEDS.length; row++)
+        {
+            estimate = Math.min(estimate, counters.get(indexOf(hash, row)));
+        }
+
+        return estimate;
+    }
+
+
+    /**
+     * Halves every counter, so that the estimates favour recent counts over old ones.
+     */
+    public void halve()
+    {
+        for (int i = 0; i < counters.length(); i++)
+        {
+            counters.getAndUpdate(i, count -> count >>> 1);
+        }
+    }
+
+
+    public void clear()
+    {
+        for (int i = 0; i < counters.length(); i++)
+        {
+            counters.set(i, 0);
+        }
+    }
+
+
+    protected int indexOf(int hash, int row)
+    {
+        int h = (hash ^ SEEDS[row]) * SEEDS[row];
+        return row * width + ((h ^ (h >>> 16)) & mask);
+    }
+
+
+    protected static int spread(int hash)
+    {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "CountMinSketch(Depth=" + SEEDS.length + ", Width=" + width + ")";
+    }
+}
@@ -0,0 +1,213 @@
+package jamsesso.meshmap.utils.stats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds with a bounded relative error, in the style of HdrHistogram.
+ * <p/>
+ * Values below 128 are counted exactly. Larger values fall into one of 64 linear sub-buckets of their power of two,
+ * so a recorded value is off by less than 1/64 of itself, and the whole range of a long fits in a few thousand
+ * counters. Recording is lock-free and may be done from any number of threads.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 7;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+
+    private static final int LENGTH = SUB_BUCKET_COUNT + (64 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(LENGTH);
+
+    private final LongAdder totalCount = new LongAdder();
+
+    private final LongAdder totalValue = new LongAdder();
+
+    private final LongAccumulator minimum = new LongAccumulator(Math::min, Long.MAX_VALUE);
+
+    private final LongAccumulator maximum = new LongAccumulator(Math::max, 0L);
+
+
+    public void recordValue(long value)
+    {
+        if (value < 0)
+        {
+            throw new IllegalArgumentException("Latency must not be negative: " + value);
+        }
+
+        counts.incrementAndGet(indexOf(value));
+        totalCount.increment();
+        totalValue.add(value);
+        minimum.accumulate(value);
+        maximum.accumulate(value);
+    }
+
+
+    /**
+     * Adds the counts of another histogram to this one.
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < LENGTH; i++)
+        {
+            long count = other.counts.get(i);
+
+            if (count > 0)
+            {
+                counts.addAndGet(i, count);
+            }
+        }
+
+        totalCount.add(other.totalCount.sum());
+        totalValue.add(other.totalValue.sum());
+        minimum.accumulate(other.minimum.get());
+        maximum.accumulate(other.maximum.get());
+    }
+
+
+    public void reset()
+    {
+        for (int i = 0; i < LENGTH; i++)
+        {
+            counts.set(i, 0L);
+        }
+
+        totalCount.reset();
+        totalValue.reset();
+        minimum.reset();
+        maximum.reset();
+    }
+
+
+    public long getTotalCount()
+    {
+        return totalCount.sum();
+    }
+
+
+    public long getMinValue()
+    {
+        return getTotalCount() == 0 ? 0L : minimum.get();
+    }
+
+
+    public long getMaxValue()
+    {
+        return maximum.get();
+    }
+
+
+    public double getMean()
+    {
+        long count = getTotalCount();
+        return count == 0 ? 0.0 : (double) totalValue.sum() / count;
+    }
+
+
+    /**
+     * Returns the value below or at which the given percentage (0 to 100) of the recorded values fall. The value is
+     * the upper end of its bucket, so it never under-states a latency.
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long count = getTotalCount();
+
+        if (count == 0)
+        {
+            return 0L;
+        }
+
+        long rank = Math.max(1L, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+        long seen = 0L;
+
+        for (int i = 0; i < LENGTH; i++)
+        {
+            seen += counts.get(i);
+
+            if (seen >= rank)
+            {
+                return Math.min(highestValueAt(i), getMaxValue());
+            }
+        }
+
+        return getMaxValue();
+    }
+
+
+    /**
+     * Returns a one-line summary with the values converted to the given unit.
+     */
+    public String summary(TimeUnit unit)
+    {
+        double scale = unit.toNanos(1);
+        String suffix = abbreviate(unit);
+
+        return String.format("count=%d, min=%.1f%s, mean=%.1f%s, p50=%.1f%s, p90=%.1f%s, p99=%.1f%s, p999=%.1f%s, max=%.1f%s",
+            getTotalCount(),
+            getMinValue() / scale, suffix,
+            getMean() / scale, suffix,
+            getValueAtPercentile(50.0) / scale, suffix,
+            getValueAtPercentile(90.0) / scale, suffix,
+            getValueAtPercentile(99.0) / scale, suffix,
+            getValueAtPercentile(99.9) / scale, suffix,
+            getMaxValue() / scale, suffix);
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "LatencyHistogram(" + summary(TimeUnit.MICROSECONDS) + ")";
+    }
+
+
+    protected static int indexOf(long value)
+    {
+        if (value < SUB_BUCKET_COUNT)
+        {
+            return (int) value;
+        }
+
+        // The bucket is the power of two above the sub-bucket range, the sub-bucket the next 6 bits below the top bit.
+        int bucket = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> bucket) - SUB_BUCKET_HALF;
+        return SUB_BUCKET_COUNT + (bucket - 1) * SUB_BUCKET_HALF + subBucket;
+    }
+
+
+    protected static long highestValueAt(int index)
+    {
+        if (index < SUB_BUCKET_COUNT)
+        {
+            return index;
+        }
+
+        int bucket = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        long highest = ((subBucket + 1) << bucket) - 1;
+        return highest < 0 ? Long.MAX_VALUE : highest;
+    }
+
+
+    private static String abbreviate(TimeUnit unit)
+    {
+        switch (unit)
+        {
+            case NANOSECONDS:
+                return "ns";
+            case MICROSECONDS:
+                return "us";
+            case MILLISECONDS:
+                return "ms";
+            case SECONDS:
+                return "s";
+            default:
+                return " " + unit.name().toLowerCase();
+        }
+    }
+}
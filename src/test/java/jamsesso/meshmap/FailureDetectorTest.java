@@ -0,0 +1,146 @@
+package jamsesso.meshmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jamsesso.meshmap.FailureDetector.Status;
+
+public class FailureDetectorTest
+{
+    private static final long INTERVAL = 100L;
+
+    private final Node node = new Node(new InetSocketAddress("127.0.0.1", 45001));
+
+    private final List<String> changes = new ArrayList<>();
+
+    private FailureDetector detector;
+
+
+    @Before
+    public void setUp()
+    {
+        detector = new FailureDetector(INTERVAL, 5.0, 10.0);
+        detector.addListener((node, previous, current) -> changes.add(previous + " -> " + current));
+    }
+
+
+    @Test
+    public void raisesPhiWithSilence()
+    {
+        long last = heartbeatRegularly(20);
+        double previous = detector.phi(node, last);
+
+        for (long silence = 50; silence <= 600; silence += 50)
+        {
+            double phi = detector.phi(node, last + silence);
+            assertTrue("phi fell from " + previous + " to " + phi + " after " + silence + "ms", phi >= previous);
+            previous = phi;
+        }
+
+        assertTrue(detector.phi(node, last + INTERVAL) < 1.0);
+    }
+
+
+    @Test
+    public void suspectsThenDeclaresASilentNodeDead()
+    {
+        long last = heartbeatRegularly(20);
+
+        detector.check(last + 2 * INTERVAL);
+        assertEquals(Status.ALIVE, detector.getStatus(node));
+
+        detector.check(last + 425);
+        assertEquals(Status.SUSPECT, detector.getStatus(node));
+
+        detector.check(last + 600);
+        assertEquals(Status.DEAD, detector.getStatus(node));
+        assertTrue(detector.isDead(node));
+
+        assertEquals(Arrays.asList("ALIVE -> SUSPECT", "SUSPECT -> DEAD"), changes);
+    }
+
+
+    @Test
+    public void keepsADeadNodeDeadUntilItHeartbeats()
+    {
+        long last = heartbeatRegularly(20);
+        detector.check(last + 1000);
+        assertEquals(Status.DEAD, detector.getStatus(node));
+
+        // A check that would find the node alive again does not bring it back.
+        detector.check(last);
+        assertEquals(Status.DEAD, detector.getStatus(node));
+
+        detector.heartbeat(node, 21, last + 1100);
+        assertEquals(Status.ALIVE, detector.getStatus(node));
+        assertEquals(Arrays.asList("ALIVE -> DEAD", "DEAD -> ALIVE"), changes);
+    }
+
+
+    @Test
+    public void ignoresHeartbeatsThatAreNotNewer()
+    {
+        long last = heartbeatRegularly(20);
+        double phi = detector.phi(node, last + 500);
+
+        detector.heartbeat(node, 20, last + 400);
+        detector.heartbeat(node, 3, last + 400);
+
+        assertEquals(phi, detector.phi(node, last + 500), 0.0);
+    }
+
+
+    @Test
+    public void judgesANewNodeAgainstTheExpectedInterval()
+    {
+        detector.watch(node, 0L);
+
+        detector.check(2 * INTERVAL);
+        assertEquals(Status.ALIVE, detector.getStatus(node));
+
+        detector.check(10 * INTERVAL);
+        assertEquals(Status.DEAD, detector.getStatus(node));
+    }
+
+
+    @Test
+    public void retainsDeadNodesOnly()
+    {
+        Node dead = new Node(new InetSocketAddress("127.0.0.1", 45002));
+        detector.watch(node, 0L);
+        detector.watch(dead, 0L);
+        detector.check(10 * INTERVAL);
+        detector.heartbeat(node, 1, 10 * INTERVAL);
+
+        detector.retain(Collections.emptyList());
+
+        assertEquals(0.0, detector.phi(node, 20 * INTERVAL), 0.0);
+        assertTrue(detector.isDead(dead));
+
+        detector.forget(dead);
+        assertEquals(Status.ALIVE, detector.getStatus(dead));
+    }
+
+
+    // Heartbeats every interval, starting at 0, and returns the time of the last heartbeat.
+    private long heartbeatRegularly(int count)
+    {
+        detector.watch(node, 0L);
+
+        for (int version = 1; version <= count; version++)
+        {
+            detector.heartbeat(node, version, version * INTERVAL);
+        }
+
+        return count * INTERVAL;
+    }
+}
@@ -0,0 +1,179 @@
+package jamsesso.meshmap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class MerkleTreeTest
+{
+    private static final int DEPTH = 4;
+
+
+    @Test
+    public void convergesWhateverTheOrderOfTheUpdates()
+    {
+        MerkleTree forward = new MerkleTree(DEPTH);
+        MerkleTree backward = new MerkleTree(DEPTH);
+
+        for (int i = 0; i < 100; i++)
+        {
+            forward.update("key" + i, MerkleTree.digest("key" + i, i));
+            backward.update("key" + (99 - i), MerkleTree.digest("key" + (99 - i), 99 - i));
+        }
+
+        assertEquals(forward.getRoot(), backward.getRoot());
+        assertArrayEquals(forward.getDigests(allNodes()), backward.getDigests(allNodes()));
+        assertEquals(100, forward.size());
+    }
+
+
+    @Test
+    public void replacesTheDigestOfAnUpdatedKey()
+    {
+        MerkleTree updated = new MerkleTree(DEPTH);
+        updated.update("a", MerkleTree.digest("a", 1));
+        updated.update("a", MerkleTree.digest("a", 2));
+
+        MerkleTree written = new MerkleTree(DEPTH);
+        written.update("a", MerkleTree.digest("a", 2));
+
+        assertEquals(written.getRoot(), updated.getRoot());
+        assertEquals(1, updated.size());
+    }
+
+
+    @Test
+    public void returnsToEmptyOnceEveryKeyIsRemoved()
+    {
+        MerkleTree tree = new MerkleTree(DEPTH);
+
+        for (int i = 0; i < 10; i++)
+        {
+            tree.update(i, MerkleTree.digest(i, "value" + i));
+        }
+
+        assertNotEquals(0L, tree.getRoot());
+
+        for (int i = 0; i < 10; i++)
+        {
+            tree.remove(i);
+        }
+
+        tree.remove("never added");
+
+        assertEquals(0L, tree.getRoot());
+        assertEquals(0, tree.size());
+        assertArrayEquals(new MerkleTree(DEPTH).getDigests(allNodes()), tree.getDigests(allNodes()));
+    }
+
+
+    @Test
+    public void narrowsADifferenceDownToTheLeafOfItsKey()
+    {
+        MerkleTree ours = new MerkleTree(DEPTH);
+        MerkleTree theirs = new MerkleTree(DEPTH);
+
+        for (int i = 0; i < 100; i++)
+        {
+            ours.update("key" + i, MerkleTree.digest("key" + i, i));
+            theirs.update("key" + i, MerkleTree.digest("key" + i, i == 42 ? -1 : i));
+        }
+
+        assertNotEquals(ours.getRoot(), theirs.getRoot());
+
+        List<Integer> differing = new ArrayList<>();
+        int[] leaves = leaves();
+        long[] ourDigests = ours.getDigests(leaves);
+        long[] theirDigests = theirs.getDigests(leaves);
+
+        for (int i = 0; i < leaves.length; i++)
+        {
+            if (ourDigests[i] != theirDigests[i])
+            {
+                differing.add(leaves[i]);
+            }
+        }
+
+        assertEquals(1, differing.size());
+
+        Map<Object, Long> entries = ours.getEntries(differing.get(0));
+        assertEquals(Long.valueOf(MerkleTree.digest("key42", 42)), entries.get("key42"));
+        assertEquals(Long.valueOf(MerkleTree.digest("key42", -1)), theirs.getEntries(differing.get(0)).get("key42"));
+    }
+
+
+    @Test
+    public void digestsEqualEntriesEqually()
+    {
+        assertEquals(MerkleTree.digest("key", "value"), MerkleTree.digest(new String("key"), new String("value")));
+        assertNotEquals(MerkleTree.digest("key", "value"), MerkleTree.digest("key", "other"));
+        assertNotEquals(MerkleTree.digest("key", "value"), MerkleTree.digest("other", "value"));
+    }
+
+
+    @Test
+    public void numbersNodesAsABinaryHeap()
+    {
+        MerkleTree tree = new MerkleTree(DEPTH);
+
+        assertTrue(tree.isLeaf(1 << DEPTH));
+        assertTrue(tree.isLeaf((2 << DEPTH) - 1));
+        assertFalse(tree.isLeaf((1 << DEPTH) - 1));
+        assertFalse(tree.isLeaf(MerkleTree.ROOT));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEntriesOfAnInnerNode()
+    {
+        new MerkleTree(DEPTH).getEntries(MerkleTree.ROOT);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANodeOutsideTheTree()
+    {
+        new MerkleTree(DEPTH).getDigests(new int[] { 2 << DEPTH });
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsADepthAbove20()
+    {
+        new MerkleTree(21);
+    }
+
+
+    private static int[] allNodes()
+    {
+        int[] nodes = new int[(2 << DEPTH) - 1];
+
+        for (int i = 0; i < nodes.length; i++)
+        {
+            nodes[i] = MerkleTree.ROOT + i;
+        }
+
+        return nodes;
+    }
+
+
+    private static int[] leaves()
+    {
+        int[] leaves = new int[1 << DEPTH];
+
+        for (int i = 0; i < leaves.length; i++)
+        {
+            leaves[i] = (1 << DEPTH) + i;
+        }
+
+        return leaves;
+    }
+}
@@ -0,0 +1,179 @@
+package jamsesso.meshmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import jamsesso.meshmap.metrics.Metrics;
+
+public class WriteBehindTest
+{
+    // Long enough that nothing is sent by the linger timer while a test runs, in microseconds.
+    private static final long LINGER = TimeUnit.MINUTES.toMicros(1);
+
+    private final Node node = new Node(new InetSocketAddress("127.0.0.1", 45001));
+
+    private final Node other = new Node(new InetSocketAddress("127.0.0.1", 45002));
+
+    private final List<Map<Object, Object>> sent = new CopyOnWriteArrayList<>();
+
+    private final Metrics metrics = new Metrics("WriteBehindTest");
+
+    private WriteBehind writeBehind;
+
+
+    @After
+    public void tearDown()
+    {
+        if (writeBehind != null)
+        {
+            writeBehind.scheduler.shutdownNow();
+            writeBehind.executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void coalescesPutsOfTheSameKey()
+    {
+        writeBehind = new WriteBehind((node, batch) -> sent.add(new LinkedHashMap<>(batch)), 100, LINGER, metrics);
+
+        writeBehind.put(node, "a", 1);
+        writeBehind.put(node, "b", 2);
+        writeBehind.put(node, "a", 3);
+        assertEquals(3, writeBehind.lookup(node, "a"));
+        assertNull(writeBehind.lookup(other, "a"));
+
+        writeBehind.flush();
+
+        assertEquals(1, sent.size());
+        assertEquals(map("a", 3, "b", 2), sent.get(0));
+        assertEquals(1, metrics.counter("writeBehind.coalesced").getCount());
+        assertEquals(2, metrics.counter("writeBehind.entries").getCount());
+        assertNull(writeBehind.lookup(node, "a"));
+    }
+
+
+    @Test
+    public void sendsEachNodeItsOwnBatch()
+    {
+        Map<Node, Map<Object, Object>> byNode = new LinkedHashMap<>();
+        writeBehind = new WriteBehind((node, batch) -> {
+            synchronized (byNode)
+            {
+                byNode.put(node, new LinkedHashMap<>(batch));
+            }
+        }, 100, LINGER, metrics);
+
+        writeBehind.put(node, "a", 1);
+        writeBehind.put(other, "b", 2);
+        writeBehind.flush();
+
+        assertEquals(map("a", 1), byNode.get(node));
+        assertEquals(map("b", 2), byNode.get(other));
+    }
+
+
+    @Test(timeout = 10000)
+    public void sendsAFullBatchWithoutAFlush()
+    throws Exception
+    {
+        CountDownLatch delivered = new CountDownLatch(1);
+        writeBehind = new WriteBehind((node, batch) -> {
+            sent.add(new LinkedHashMap<>(batch));
+            delivered.countDown();
+        }, 2, LINGER, metrics);
+
+        writeBehind.put(node, "a", 1);
+        assertTrue(sent.isEmpty());
+        writeBehind.put(node, "b", 2);
+
+        delivered.await();
+        assertEquals(map("a", 1, "b", 2), sent.get(0));
+    }
+
+
+    @Test(timeout = 10000)
+    public void sendsAfterTheLingerTime()
+    throws Exception
+    {
+        CountDownLatch delivered = new CountDownLatch(1);
+        writeBehind = new WriteBehind((node, batch) -> {
+            sent.add(new LinkedHashMap<>(batch));
+            delivered.countDown();
+        }, 100, 1000L, metrics);
+
+        writeBehind.put(node, "a", 1);
+
+        delivered.await();
+        assertEquals(map("a", 1), sent.get(0));
+    }
+
+
+    @Test
+    public void reportsFailedPutsOnTheNextFlushOnly()
+    {
+        RuntimeException cause = new MeshMapRuntimeException("unreachable");
+        writeBehind = new WriteBehind((node, batch) -> {
+            throw cause;
+        }, 100, LINGER, metrics);
+
+        writeBehind.put(node, "a", 1);
+        writeBehind.put(node, "b", 2);
+        writeBehind.put(other, "c", 3);
+
+        try
+        {
+            writeBehind.flush();
+            fail("The flush should have reported the failed puts");
+        } catch (WriteBehindException e)
+        {
+            assertEquals(3, e.getFailedCount());
+            assertEquals(map("a", 1, "b", 2, "c", 3), new LinkedHashMap<>(e.getFailedEntries()));
+            assertEquals(2, e.getSuppressed().length);
+            assertEquals(cause, e.getSuppressed()[0]);
+        }
+
+        assertEquals(3, metrics.counter("writeBehind.failed").getCount());
+
+        // Reported once: the next flush has nothing to report.
+        writeBehind.flush();
+    }
+
+
+    @Test
+    public void deliversWhatIsBufferedWhenClosed()
+    {
+        writeBehind = new WriteBehind((node, batch) -> sent.add(new LinkedHashMap<>(batch)), 100, LINGER, metrics);
+
+        writeBehind.put(node, "a", 1);
+        writeBehind.close();
+
+        assertEquals(map("a", 1), sent.get(0));
+    }
+
+
+    private static Map<Object, Object> map(Object... keysAndValues)
+    {
+        Map<Object, Object> map = new LinkedHashMap<>();
+
+        for (int i = 0; i < keysAndValues.length; i += 2)
+        {
+            map.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+
+        return map;
+    }
+}
@@ -0,0 +1,154 @@
+package jamsesso.meshmap.utils.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TinyLfuMapTest
+{
+    @Test
+    public void tracksTheWeightOfEveryWrite()
+    {
+        TinyLfuMap<String, String> map = new TinyLfuMap<>(1000, (key, value) -> value.length());
+
+        map.put("a", "12345");
+        map.put("b", "123");
+        assertEquals(8, map.stats().getWeightedSize());
+
+        map.put("a", "1");
+        assertEquals(4, map.stats().getWeightedSize());
+
+        map.merge("b", "45", String::concat);
+        assertEquals(6, map.stats().getWeightedSize());
+
+        map.remove("a");
+        assertEquals(5, map.stats().getWeightedSize());
+
+        map.compute("b", (key, value) -> null);
+        assertEquals(0, map.stats().getWeightedSize());
+        assertTrue(map.isEmpty());
+
+        map.put("c", "12");
+        map.clear();
+        assertEquals(0, map.stats().getWeightedSize());
+    }
+
+
+    @Test
+    public void staysWithinTheMaximumWeight()
+    {
+        Map<Integer, Integer> evicted = new LinkedHashMap<>();
+        TinyLfuMap<Integer, Integer> map = new TinyLfuMap<>(100, Weigher.singleton(), evicted::put);
+
+        for (int i = 0; i < 1000; i++)
+        {
+            map.put(i, i);
+            assertTrue(map.stats().getWeightedSize() <= 100);
+        }
+
+        assertEquals(100, map.size());
+        assertEquals(900, map.stats().getEvictionCount());
+        assertEquals(900, map.stats().getEvictionWeight());
+        assertEquals(900, evicted.size());
+
+        for (Map.Entry<Integer, Integer> entry : evicted.entrySet())
+        {
+            assertEquals(entry.getKey(), entry.getValue());
+            assertFalse(map.containsKey(entry.getKey()));
+        }
+    }
+
+
+    @Test
+    public void evictsAnEntryHeavierThanTheMaximumWeight()
+    {
+        Map<String, String> evicted = new LinkedHashMap<>();
+        TinyLfuMap<String, String> map = new TinyLfuMap<>(10, (key, value) -> value.length(), evicted::put);
+
+        map.put("small", "12345");
+        map.put("large", "12345678901");
+
+        assertFalse(map.containsKey("large"));
+        assertEquals("12345678901", evicted.get("large"));
+        assertEquals("12345", map.get("small"));
+        assertEquals(5, map.stats().getWeightedSize());
+    }
+
+
+    @Test
+    public void keepsFrequentEntriesThroughAScan()
+    {
+        TinyLfuMap<String, Integer> map = new TinyLfuMap<>(100, Weigher.singleton());
+
+        for (int i = 0; i < 50; i++)
+        {
+            map.put("hot" + i, i);
+        }
+
+        // Pushes the last hot entry out of the admission window, so that every hot entry is hit on probation.
+        map.put("warm", -1);
+
+        for (int round = 0; round < 10; round++)
+        {
+            for (int i = 0; i < 50; i++)
+            {
+                map.get("hot" + i);
+            }
+        }
+
+        for (int i = 0; i < 1000; i++)
+        {
+            map.put("scan" + i, i);
+        }
+
+        for (int i = 0; i < 50; i++)
+        {
+            assertEquals(Integer.valueOf(i), map.peek("hot" + i));
+        }
+    }
+
+
+    @Test
+    public void doesNotNotifyExplicitRemovals()
+    {
+        Map<String, String> evicted = new LinkedHashMap<>();
+        TinyLfuMap<String, String> map = new TinyLfuMap<>(10, Weigher.singleton(), evicted::put);
+
+        map.put("a", "1");
+        map.remove("a");
+        map.put("b", "2");
+        map.clear();
+
+        assertTrue(evicted.isEmpty());
+        assertEquals(0, map.stats().getEvictionCount());
+    }
+
+
+    @Test
+    public void countsHitsAndMissesOfGetsOnly()
+    {
+        TinyLfuMap<String, String> map = new TinyLfuMap<>(10, Weigher.singleton());
+        map.put("a", "1");
+
+        assertEquals("1", map.get("a"));
+        assertNull(map.get("b"));
+        assertEquals("1", map.peek("a"));
+        assertNull(map.peek("b"));
+
+        assertEquals(1, map.stats().getHitCount());
+        assertEquals(1, map.stats().getMissCount());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANonPositiveMaximumWeight()
+    {
+        new TinyLfuMap<String, String>(0, Weigher.singleton());
+    }
+}
@@ -0,0 +1,169 @@
+package jamsesso.meshmap.utils.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SingleFlightTest
+{
+    private static final int FOLLOWERS = 8;
+
+    private final SingleFlight<String, String> flights = new SingleFlight<>();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+
+    @After
+    public void tearDown()
+    {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+
+    @Test(timeout = 10000)
+    public void sharesTheCallInFlight()
+    throws Exception
+    {
+        Future<String> leader = executor.submit(() -> flights.execute("key", () -> {
+            started.countDown();
+            await(release);
+            return "value" + calls.incrementAndGet();
+        }));
+        started.await();
+
+        List<Future<String>> followers = new ArrayList<>();
+
+        for (int i = 0; i < FOLLOWERS; i++)
+        {
+            followers.add(executor.submit(() -> flights.execute("key", () -> "value" + calls.incrementAndGet())));
+        }
+
+        awaitCoalesced(FOLLOWERS);
+        release.countDown();
+
+        assertEquals("value1", leader.get());
+
+        for (Future<String> follower : followers)
+        {
+            assertEquals("value1", follower.get());
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(0, flights.inFlight());
+    }
+
+
+    @Test(timeout = 10000)
+    public void sharesTheExceptionOfTheCallInFlight()
+    throws Exception
+    {
+        IllegalStateException failure = new IllegalStateException("failed");
+        Future<String> leader = executor.submit(() -> flights.execute("key", () -> {
+            started.countDown();
+            await(release);
+            throw failure;
+        }));
+        started.await();
+
+        Future<String> follower = executor.submit(() -> flights.execute("key", () -> "value"));
+        awaitCoalesced(1);
+        release.countDown();
+
+        for (Future<String> call : Arrays.asList(leader, follower))
+        {
+            try
+            {
+                call.get();
+                fail("The call should have failed");
+            } catch (ExecutionException e)
+            {
+                assertSame(failure, e.getCause());
+            }
+        }
+    }
+
+
+    @Test(timeout = 10000)
+    public void startsANewCallOnceTheKeyIsForgotten()
+    throws Exception
+    {
+        Future<String> leader = executor.submit(() -> flights.execute("key", () -> {
+            started.countDown();
+            await(release);
+            return "before";
+        }));
+        started.await();
+
+        flights.forget("key");
+
+        assertEquals("after", flights.execute("key", () -> "after"));
+        assertEquals(0, flights.getCoalescedCount());
+
+        release.countDown();
+        assertEquals("before", leader.get());
+    }
+
+
+    @Test
+    public void doesNotShareCallsThatReturned()
+    {
+        assertEquals("first", flights.execute("key", () -> "first"));
+        assertEquals("second", flights.execute("key", () -> "second"));
+        assertEquals(0, flights.getCoalescedCount());
+        assertEquals(0, flights.inFlight());
+    }
+
+
+    @Test
+    public void neverSharesCallsWithoutAKey()
+    {
+        assertEquals("value", flights.execute(null, () -> "value"));
+        assertEquals(0, flights.inFlight());
+    }
+
+
+    private void awaitCoalesced(long count)
+    throws InterruptedException
+    {
+        while (flights.getCoalescedCount() < count)
+        {
+            Thread.sleep(1);
+        }
+
+        assertTrue(flights.inFlight() > 0);
+    }
+
+
+    private static void await(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package jamsesso.meshmap.utils.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest
+{
+    @Test
+    public void countsSmallValuesExactly()
+    {
+        for (long value = 0; value < 128; value++)
+        {
+            assertEquals(value, LatencyHistogram.indexOf(value));
+            assertEquals(value, LatencyHistogram.highestValueAt((int) value));
+        }
+    }
+
+
+    @Test
+    public void boundsTheRelativeErrorOfLargeValues()
+    {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100000; i++)
+        {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            long highest = LatencyHistogram.highestValueAt(LatencyHistogram.indexOf(value));
+
+            assertTrue(value + " is above " + highest, highest >= value);
+            assertTrue(value + " is off by " + (highest - value), highest - value <= value / 64);
+        }
+    }
+
+
+    @Test
+    public void coversEveryValueWithContiguousBuckets()
+    {
+        int last = LatencyHistogram.indexOf(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueAt(last));
+
+        for (int index = 0; index < last; index++)
+        {
+            long highest = LatencyHistogram.highestValueAt(index);
+
+            assertEquals(index, LatencyHistogram.indexOf(highest));
+            assertEquals(index + 1, LatencyHistogram.indexOf(highest + 1));
+        }
+    }
+
+
+    @Test
+    public void reportsPercentilesAtTheUpperEndOfTheirBucket()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long value = 1; value <= 1000; value++)
+        {
+            histogram.recordValue(value);
+        }
+
+        assertEquals(1000, histogram.getTotalCount());
+        assertEquals(1, histogram.getMinValue());
+        assertEquals(1000, histogram.getMaxValue());
+        assertEquals(500.5, histogram.getMean(), 0.0);
+
+        long median = histogram.getValueAtPercentile(50.0);
+        assertTrue(median >= 500 && median <= 500 + 500 / 64);
+        assertEquals(1000, histogram.getValueAtPercentile(100.0));
+        assertEquals(1, histogram.getValueAtPercentile(0.0));
+    }
+
+
+    @Test
+    public void addsAndResetsCounts()
+    {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.recordValue(10);
+        second.recordValue(5);
+        second.recordValue(20000);
+
+        first.add(second);
+
+        assertEquals(3, first.getTotalCount());
+        assertEquals(5, first.getMinValue());
+        assertEquals(20000, first.getMaxValue());
+        assertEquals(10, first.getValueAtPercentile(50.0));
+
+        first.reset();
+
+        assertEquals(0, first.getTotalCount());
+        assertEquals(0, first.getMinValue());
+        assertEquals(0, first.getMaxValue());
+        assertEquals(0, first.getValueAtPercentile(99.0));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeValues()
+    {
+        new LatencyHistogram().recordValue(-1);
+    }
+}